@@ -0,0 +1,163 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.util.function.*;
+
+/**
+ * A heavyweight canvas that frames are
+ * drawn straight into, through a
+ * BufferStrategy, instead of waiting for
+ * Swing's RepaintManager. The image the
+ * bars are rasterized into is kept in a
+ * VolatileImage as well, so it can live
+ * on the graphics card when the Java2D
+ * pipeline allows it, and only the parts
+ * that changed are copied over each frame.
+ * Only use it from the EDT.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class ActiveSurface extends Canvas {
+	private static final long serialVersionUID = 1L;
+	private static final int BUFFERS = 2;
+	private final Runnable onExpose;
+	private final Rectangle stale = new Rectangle();
+	private VolatileImage cache;
+	private boolean reported;
+
+	/**
+	 * Constructs the surface.
+	 *
+	 * @param onExpose Called on the EDT when the surface must be drawn again
+	 */
+	public ActiveSurface(Runnable onExpose) {
+		this.onExpose = onExpose;
+	}
+
+	/**
+	 * Remembers that part of the image
+	 * passed to present() changed.
+	 *
+	 * @param x Left edge
+	 * @param y Top edge
+	 * @param w Width
+	 * @param h Height
+	 */
+	public void imageChanged(int x, int y, int w, int h) {
+		if(stale.isEmpty()) {
+			stale.setBounds(x, y, w, h);
+		} else {
+			stale.add(x, y);
+			stale.add(x + w, y + h);
+		}
+	}
+
+	/**
+	 * Draws a frame and shows it.
+	 *
+	 * @param image The image to draw first, or null
+	 * @param overlay Draws everything on top of it
+	 */
+	public void present(BufferedImage image, Consumer<Graphics2D> overlay) {
+		if(!isDisplayable() || getWidth() <= 0 || getHeight() <= 0) {
+			return;
+		}
+		BufferStrategy strategy = getBufferStrategy();
+		if(strategy == null) {
+			//page flipping when it can, copying otherwise
+			createBufferStrategy(BUFFERS);
+			strategy = getBufferStrategy();
+			report(strategy);
+		}
+		do {
+			do {
+				Graphics2D g = (Graphics2D)strategy.getDrawGraphics();
+				try {
+					if(image != null) {
+						g.drawImage(cached(image), 0, 0, null);
+					}
+					overlay.accept(g);
+				} finally {
+					g.dispose();
+				}
+			} while(strategy.contentsRestored());
+			strategy.show();
+		} while(strategy.contentsLost());
+		//otherwise X can sit on the frame for a while
+		Toolkit.getDefaultToolkit().sync();
+	}
+
+	/**
+	 * Draws the surface again when the
+	 * window system asks for it.
+	 *
+	 * @param g Unused, frames are drawn through the strategy
+	 */
+	@Override
+	public void paint(Graphics g) {
+		onExpose.run();
+	}
+
+	/**
+	 * Skips clearing the surface
+	 * before painting it.
+	 *
+	 * @param g Unused, frames are drawn through the strategy
+	 */
+	@Override
+	public void update(Graphics g) {
+		paint(g);
+	}
+
+	/**
+	 * Brings the cached copy of the
+	 * image up to date, recreating it
+	 * if it was lost.
+	 *
+	 * @param image The image
+	 * @return The copy, or the image itself if the copy is unusable
+	 */
+	private Image cached(BufferedImage image) {
+		GraphicsConfiguration config = getGraphicsConfiguration();
+		int w = image.getWidth();
+		int h = image.getHeight();
+		int status = cache == null ? VolatileImage.IMAGE_INCOMPATIBLE : cache.validate(config);
+		if(status == VolatileImage.IMAGE_INCOMPATIBLE || cache.getWidth() != w || cache.getHeight() != h) {
+			if(cache != null) {
+				cache.flush();
+			}
+			cache = config.createCompatibleVolatileImage(w, h);
+			stale.setBounds(0, 0, w, h);
+		} else if(status == VolatileImage.IMAGE_RESTORED) {
+			stale.setBounds(0, 0, w, h);
+		}
+		if(!stale.isEmpty()) {
+			Graphics2D g = cache.createGraphics();
+			g.setClip(stale);
+			g.drawImage(image, 0, 0, null);
+			g.dispose();
+			stale.setBounds(0, 0, 0, 0);
+		}
+		if(cache.contentsLost()) {
+			stale.setBounds(0, 0, w, h);
+			return image;
+		}
+		return cache;
+	}
+
+	/**
+	 * Says once how frames will be shown.
+	 *
+	 * @param strategy The buffer strategy
+	 */
+	private void report(BufferStrategy strategy) {
+		if(reported) {
+			return;
+		}
+		reported = true;
+		boolean accelerated = getGraphicsConfiguration().getImageCapabilities().isAccelerated();
+		System.out.println("Active rendering with "
+				+ (strategy.getCapabilities().isPageFlipping() ? "page flipping" : "copying")
+				+ (accelerated ? ", accelerated." : ", not accelerated."));
+	}
+}
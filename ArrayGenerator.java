@@ -0,0 +1,143 @@
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Generates arrays for clients to sort,
+ * in one of several distributions. The
+ * array is filled in chunks in parallel,
+ * every chunk with its own SplittableRandom
+ * derived from the seed, so the same seed
+ * always gives the same array no matter
+ * how many cores there are.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class ArrayGenerator {
+	public static final int UNIFORM = 0;
+	public static final int NEARLY_SORTED = 1;
+	public static final int REVERSED = 2;
+	public static final int FEW_UNIQUE = 3;
+	public static final int SAWTOOTH = 4;
+	public static final int MAX_LENGTH = 100000000;
+	private static final String[] NAMES = {
+		"uniform", "nearly sorted", "reversed", "few unique", "sawtooth"
+	};
+	private static final int CHUNK = 1 << 16;
+	private static final int NEARLY_SORTED_SWAP_RATE = 50; //one swap per this many elements
+	private static final int NEARLY_SORTED_MAX_DISTANCE = 8;
+	private static final int FEW_UNIQUE_VALUES = 8;
+	private static final int MIN_TEETH = 4;
+	private static final int MAX_TEETH = 16;
+
+	/**
+	 * Returns whether a distribution
+	 * is one this class knows.
+	 *
+	 * @param distribution The distribution
+	 * @return True if it can be generated
+	 */
+	public static boolean isValidDistribution(int distribution) {
+		return distribution >= 0 && distribution < NAMES.length;
+	}
+
+	/**
+	 * Returns a readable name
+	 * for a distribution.
+	 *
+	 * @param distribution The distribution
+	 * @return Its name
+	 */
+	public static String getName(int distribution) {
+		return isValidDistribution(distribution) ? NAMES[distribution] : "unknown";
+	}
+
+	/**
+	 * Generates an array. Values are
+	 * never negative and about as
+	 * large as the length at most.
+	 *
+	 * @param length How many elements, from 1 to MAX_LENGTH
+	 * @param distribution How the values are laid out
+	 * @param seed The seed
+	 * @return The array
+	 */
+	public static int[] generate(int length, int distribution, long seed) {
+		if(length <= 0 || length > MAX_LENGTH) {
+			throw new IllegalArgumentException("Length must be from 1 to " + MAX_LENGTH + ".");
+		}
+		if(!isValidDistribution(distribution)) {
+			throw new IllegalArgumentException("Unknown distribution: " + distribution);
+		}
+		final int[] arr = new int[length];
+		//the same for every chunk, so worked out up front
+		SplittableRandom seeds = new SplittableRandom(seed);
+		int teeth = Math.min(seeds.nextInt(MIN_TEETH, MAX_TEETH + 1), Math.max(1, length/MIN_TEETH));
+		final int toothLength = (length + teeth - 1)/teeth;
+		//seeds that are only a step apart give shifted
+		//copies of the same sequence, so every chunk
+		//gets a fully random seed of its own
+		int chunks = (length + CHUNK - 1)/CHUNK;
+		final long[] chunkSeeds = seeds.longs(chunks).toArray();
+		IntStream.range(0, chunks).parallel().forEach(chunk -> {
+			SplittableRandom random = new SplittableRandom(chunkSeeds[chunk]);
+			int start = chunk*CHUNK;
+			int end = Math.min(length, start + CHUNK);
+			fill(arr, start, end, distribution, random, toothLength);
+		});
+		return arr;
+	}
+
+	/**
+	 * Fills in one chunk of the array.
+	 *
+	 * @param arr The array
+	 * @param start First index of the chunk
+	 * @param end Index after the chunk
+	 * @param distribution How the values are laid out
+	 * @param random The chunk's own generator
+	 * @param toothLength Length of a sawtooth tooth
+	 */
+	private static void fill(int[] arr, int start, int end, int distribution,
+			SplittableRandom random, int toothLength) {
+		int length = arr.length;
+		switch(distribution) {
+			case UNIFORM:
+				for(int i = start; i < end; i++) {
+					arr[i] = random.nextInt(length + 1);
+				}
+				break;
+			case NEARLY_SORTED:
+				for(int i = start; i < end; i++) {
+					arr[i] = i;
+				}
+				//swap a few elements with close neighbours,
+				//staying inside the chunk
+				int swaps = (end - start + NEARLY_SORTED_SWAP_RATE - 1)/NEARLY_SORTED_SWAP_RATE;
+				for(int k = 0; k < swaps; k++) {
+					int i = random.nextInt(start, end);
+					int j = Math.min(end - 1, i + 1 + random.nextInt(NEARLY_SORTED_MAX_DISTANCE));
+					int temp = arr[i];
+					arr[i] = arr[j];
+					arr[j] = temp;
+				}
+				break;
+			case REVERSED:
+				for(int i = start; i < end; i++) {
+					arr[i] = length - 1 - i;
+				}
+				break;
+			case FEW_UNIQUE:
+				int step = length/FEW_UNIQUE_VALUES + 1;
+				for(int i = start; i < end; i++) {
+					arr[i] = random.nextInt(FEW_UNIQUE_VALUES) * step;
+				}
+				break;
+			case SAWTOOTH:
+				for(int i = start; i < end; i++) {
+					arr[i] = (int)((long)(i % toothLength) * length / toothLength);
+				}
+				break;
+		}
+	}
+}
@@ -7,6 +7,10 @@
  * @version 1.0.0
  */
 public interface ArrayInterface {
+	//auxiliary arrays get ids from 1 up to
+	//this, 0 always being the main array
+	int MAX_ARRAYS = 16;
+
 	/**
 	 * Sets the value at an index
 	 * in the array to a new value.
@@ -16,14 +20,101 @@ public interface ArrayInterface {
 	 */
 	void set(int index, int newVal);
 
+	/**
+	 * Swaps the values at two
+	 * indices in one go.
+	 *
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	void swap(int i, int j);
+
+	/**
+	 * Copies length values from src
+	 * to dst in one go. The ranges may
+	 * overlap, in which case it acts as
+	 * if the values were copied out first.
+	 *
+	 * @param src Where the values come from
+	 * @param dst Where they go
+	 * @param length How many to copy
+	 */
+	void copyRange(int src, int dst, int length);
+
+	/**
+	 * Sets length values starting
+	 * at start to the same value.
+	 *
+	 * @param start The first index
+	 * @param length How many to set
+	 * @param value The value
+	 */
+	void fillRange(int start, int length, int value);
+
+	/**
+	 * Sets the values starting at
+	 * start in one go. The array is
+	 * handed over and may be kept.
+	 *
+	 * @param start The first index
+	 * @param values The new values
+	 */
+	void setRange(int start, int[] values);
+
+	/**
+	 * Adds an auxiliary array of zeros,
+	 * such as a merge buffer, that is
+	 * shown next to the main one.
+	 *
+	 * @param id Its id, from 1 to MAX_ARRAYS - 1
+	 * @param name What to call it on screen
+	 * @param length How many elements it has
+	 */
+	void allocArray(int id, String name, int length);
+
+	/**
+	 * Removes an auxiliary array. If it
+	 * was selected, the main array is
+	 * selected again.
+	 *
+	 * @param id Its id
+	 */
+	void freeArray(int id);
+
+	/**
+	 * Picks the array that sets, swaps,
+	 * ranges, reads and compares go to
+	 * from now on. Points and marked
+	 * regions always refer to the main
+	 * array.
+	 *
+	 * @param id The array's id, 0 for the main one
+	 */
+	void selectArray(int id);
+
 	/**
 	 * Initializes the array with
-	 * an arr.
+	 * an arr. Any auxiliary arrays
+	 * are freed and the main array
+	 * is selected.
 	 *
 	 * @param arr The array to use
 	 */
 	void init(int[] arr);
 
+	/**
+	 * Shows an initial array that is
+	 * still arriving. The first loaded
+	 * elements won't change any more, the
+	 * rest are still being filled in, and
+	 * init() follows once all of them are.
+	 * Does nothing unless overridden.
+	 *
+	 * @param arr The array being filled in
+	 * @param loaded How many elements have arrived
+	 */
+	default void loading(int[] arr, int loaded) {}
+
 	/**
 	 * Displays a visual hint
 	 * that index is currently
@@ -33,6 +124,25 @@ public interface ArrayInterface {
 	 */
 	void point(int index);
 
+	/**
+	 * Shows that the client read the
+	 * value at an index. Does nothing
+	 * unless overridden.
+	 *
+	 * @param index The index read
+	 */
+	default void read(int index) {}
+
+	/**
+	 * Shows that the client compared
+	 * the values at two indices. Does
+	 * nothing unless overridden.
+	 *
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	default void compare(int i, int j) {}
+
 	/**
 	 * Lets the GUI know that the
 	 * client is done processing
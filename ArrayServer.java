@@ -1,6 +1,13 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
 import java.net.*;
+import java.lang.management.*;
+import javax.management.*;
 
 /**
  * Creates a server that allows
@@ -11,26 +18,106 @@ import java.net.*;
  * @version 1.0.0
  */
 public class ArrayServer implements Runnable, UpdateableConnection {
-	private static final int PORT = 25671;
-	private ArrayInterface interf;
+	private SessionProvider sessions;
 	private UserPreferences prefs;
-	private ArrayList<ConnectionUpdateListener> updateListeners;
+	private int maxSessions;
+	private List<ConnectionUpdateListener> updateListeners;
 	private ConnectionPreferencesListener preferencesListener;
-	private volatile Socket clientSocket;
+	private Set<Socket> clientSockets;
+	private final ServerConfig config;
+	//what each client is being read through, for the idle check
+	private final Map<Socket, CommandInput> clientInputs = new ConcurrentHashMap<>();
+	private volatile File traceDirectory;
+	private final AtomicInteger traceCounter = new AtomicInteger();
+	private final AtomicInteger sessionCounter = new AtomicInteger();
 	private static final int HANDSHAKE = 5309352; //magic number, chosen at random
-	private static final int MARK_SPEED_FACTOR = 10;
+	static final int MAX_PROTOCOL_VERSION = 6;
+	static final int MAX_FRAME_BYTES = 1 << 20;
+	private static final long FINISH_POLL_MS = 50;
+	private static final long IDLE_CHECK_SECONDS = 1;
+
+	//request types sent after the speed settings
+	private static final int REQUEST_GENERATE = 0;
+	private static final int REQUEST_UPLOAD = 1;
+	private static final int REQUEST_PROTOCOL = 2;
+	private static final int REQUEST_GENERATE_CUSTOM = 3;
+	private static final int SEND_CHUNK_BYTES = 1 << 16;
+	//uploaded arrays are checked and shown this many ints at a time
+	private static final int UPLOAD_CHUNK = 1 << 18;
+
+	//opcodes in the command stream
+	static final int CMD_EXIT = 0;
+	static final int CMD_SET = 1;
+	static final int CMD_MARK = 2;
+	static final int CMD_CLEAR = 3;
+	static final int CMD_POINT = 4;
+	static final int CMD_SET_BATCH = 5;
+	static final int CMD_SWAP = 6;
+	static final int CMD_COPY_RANGE = 7;
+	static final int CMD_FILL_RANGE = 8;
+	static final int CMD_SET_RANGE = 9;
+	static final int CMD_READ = 10;
+	static final int CMD_COMPARE = 11;
+	static final int CMD_ALLOC = 12;
+	static final int CMD_FREE = 13;
+	static final int CMD_SELECT = 14;
+	//the most values one set range command may carry
+	static final int MAX_RANGE_VALUES = MAX_FRAME_BYTES/Integer.BYTES;
+	//the longest name an auxiliary array may have, in UTF-8
+	static final int MAX_NAME_BYTES = 64;
 
 	/**
 	 * Constructs the server with an interface
-	 * with which to communicate
+	 * with which to communicate. Clients are
+	 * handled one at a time.
 	 *
 	 * @param interf The interface
+	 * @param prefs The user preferences
 	 */
 	public ArrayServer(ArrayInterface interf,
 			UserPreferences prefs) {
-		this.interf = interf;
+		this(address -> interf, prefs, 1);
+	}
+
+	/**
+	 * Constructs the server with a provider
+	 * that gives each client its own interface,
+	 * handling up to maxSessions clients at once.
+	 *
+	 * @param sessions Supplies an interface per client
+	 * @param prefs The user preferences
+	 * @param maxSessions How many clients may be connected at once
+	 */
+	public ArrayServer(SessionProvider sessions,
+			UserPreferences prefs,
+			int maxSessions) {
+		this(sessions, prefs, maxSessions, new ServerConfig());
+	}
+
+	/**
+	 * Constructs the server with a provider
+	 * that gives each client its own interface,
+	 * handling up to maxSessions clients at once
+	 * with the given settings.
+	 *
+	 * @param sessions Supplies an interface per client
+	 * @param prefs The user preferences
+	 * @param maxSessions How many clients may be connected at once
+	 * @param config Port, limits and socket settings
+	 */
+	public ArrayServer(SessionProvider sessions,
+			UserPreferences prefs,
+			int maxSessions,
+			ServerConfig config) {
+		if(maxSessions <= 0) {
+			throw new IllegalArgumentException("maxSessions must be positive.");
+		}
+		this.sessions = sessions;
 		this.prefs = prefs;
-		updateListeners = new ArrayList<>();
+		this.maxSessions = maxSessions;
+		this.config = config;
+		updateListeners = new CopyOnWriteArrayList<>();
+		clientSockets = ConcurrentHashMap.newKeySet();
 		this.preferencesListener = new PreferenceUpdateHandler();
 	}
 
@@ -44,19 +131,31 @@ public class ArrayServer implements Runnable, UpdateableConnection {
 	 */
 	protected class PreferenceUpdateHandler implements ConnectionPreferencesListener {
 		public void endConnection() {
-			try {
-				if(!clientSocket.isClosed()) {
-					clientSocket.close();
+			//the session threads notify the listeners
+			//once their sockets are closed
+			for(Socket clientSocket : clientSockets) {
+				try {
+					if(!clientSocket.isClosed()) {
+						clientSocket.close();
+					}
+				} catch(IOException ioe) {
+					ioe.printStackTrace();
 				}
-			} catch(IOException ioe) {
-				ioe.printStackTrace();
-			}
-			for(ConnectionUpdateListener updateListener : updateListeners) {
-				updateListener.disconnected();
 			}
 		}
 	}
 
+	/**
+	 * Makes the server record every session
+	 * as a trace file in the directory, or
+	 * stop recording if it is null.
+	 *
+	 * @param traceDirectory Where to put the traces
+	 */
+	public void setTraceDirectory(File traceDirectory) {
+		this.traceDirectory = traceDirectory;
+	}
+
 	/**
 	 * Adds a new updateListener to the
 	 * collection of ConnectionUpdateListeners.
@@ -95,21 +194,88 @@ public class ArrayServer implements Runnable, UpdateableConnection {
 
 	/**
 	 * Does its thing. Builds the server
-	 * and communicates with the client
-	 * until it's finished.
+	 * and accepts clients, giving each
+	 * one its own thread, until it's
+	 * finished.
 	 */
 	@Override
 	public void run() {
-		log("Opening port " + PORT);
+		log("Opening port " + config.getPort() + " (" + config + ")");
+		ExecutorService sessionPool = Executors.newCachedThreadPool();
+		Semaphore sessionSlots = new Semaphore(maxSessions);
+		ScheduledExecutorService idleChecker = null;
 		try (
-			ServerSocket serverSocket = new ServerSocket(PORT);
+			//a channel, so that clients come with a SocketChannel
+			//that arrays can be read from in bulk
+			ServerSocketChannel serverChannel = ServerSocketChannel.open();
 		) {
+			if(config.getReceiveBufferSize() > 0) {
+				//accepted sockets inherit it, and it has to be
+				//set before connecting for windows over 64K
+				serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferSize());
+			}
+			serverChannel.bind(new InetSocketAddress(config.getBindAddress(), config.getPort()),
+					config.getBacklog());
+			log("Listening on " + serverChannel.getLocalAddress());
+			if(config.getIdleTimeout() > 0) {
+				//socket channels ignore SO_TIMEOUT, so
+				//silent clients are looked for instead
+				idleChecker = Executors.newSingleThreadScheduledExecutor(task -> {
+					Thread thread = new Thread(task, "Idle checker");
+					thread.setDaemon(true);
+					return thread;
+				});
+				idleChecker.scheduleWithFixedDelay(this::closeIdleClients,
+						IDLE_CHECK_SECONDS, IDLE_CHECK_SECONDS, TimeUnit.SECONDS);
+			}
 			while(true) {
-				handleClient(serverSocket);
+				//wait for a free slot so that extra
+				//clients queue up in the backlog
+				sessionSlots.acquireUninterruptibly();
+				Socket socket;
+				try {
+					socket = serverChannel.accept().socket();
+				} catch(IOException ioe) {
+					sessionSlots.release();
+					throw ioe;
+				}
+				sessionPool.execute(() -> {
+					try {
+						handleClient(socket);
+					} finally {
+						sessionSlots.release();
+					}
+				});
 			}
 		} catch(IOException ioe) {
 			log("IOE top level!");
 			ioe.printStackTrace();
+		} finally {
+			sessionPool.shutdown();
+			if(idleChecker != null) {
+				idleChecker.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Hangs up on every client the server
+	 * has been waiting on for longer
+	 * than the idle timeout.
+	 */
+	private void closeIdleClients() {
+		long timeout = TimeUnit.SECONDS.toNanos(config.getIdleTimeout());
+		for(Map.Entry<Socket, CommandInput> client : clientInputs.entrySet()) {
+			if(client.getValue().idleNanos() > timeout) {
+				Socket socket = client.getKey();
+				log("Closing " + socket.getRemoteSocketAddress() + ", idle for over "
+						+ config.getIdleTimeout() + " seconds.");
+				try {
+					socket.close();
+				} catch(IOException ioe) {
+					ioe.printStackTrace();
+				}
+			}
 		}
 	}
 
@@ -117,15 +283,24 @@ public class ArrayServer implements Runnable, UpdateableConnection {
 	 * Handles a single client
 	 * and then exits.
 	 *
-	 * @param serverSocket To read from
+	 * @param socket The client's socket
 	 */
-	private void handleClient(ServerSocket serverSocket) {
+	private void handleClient(Socket socket) {
+		ArrayInterface sink = null;
+		PacedArrayInterface paced = null;
+		TraceRecorder recorder = null;
+		ObjectName metricsName = null;
+		clientSockets.add(socket);
 		try (
-			Socket socket = serverSocket.accept();
-			DataInputStream inStream = new DataInputStream(socket.getInputStream());
-			DataOutputStream outStream = new DataOutputStream(socket.getOutputStream());
+			CommandInput inStream = new CommandInput(socket.getChannel());
+			DataOutputStream outStream = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
 		) {
-			this.clientSocket = socket;
+			clientInputs.put(socket, inStream);
+			socket.setTcpNoDelay(config.getTcpNoDelay());
+			if(config.getSendBufferSize() > 0) {
+				socket.setSendBufferSize(config.getSendBufferSize());
+			}
 			log("Connected to client.");
 			int firstPacket = inStream.readInt();
 			if(firstPacket != HANDSHAKE) {
@@ -133,48 +308,100 @@ public class ArrayServer implements Runnable, UpdateableConnection {
 				return;
 			}
 			log("Client successfully handshook!");
+			SocketAddress address = socket.getRemoteSocketAddress();
+			SessionMetrics metrics = new SessionMetrics(String.valueOf(address),
+					config.getVirtualClock());
+			metricsName = registerMetrics(metrics);
+			sink = sessions.openSession(address, metrics);
+			paced = new PacedArrayInterface(sink, prefs);
+			ArrayInterface interf = paced;
+			recorder = openRecorder(paced);
+			if(recorder != null) {
+				interf = recorder;
+			}
 			for(ConnectionUpdateListener updateListener : updateListeners) {
 				updateListener.connected(socket.getRemoteSocketAddress());
 			}
 
+			int protocolVersion = 1;
+			boolean clientFinished = false; //whether it sent exit
 			outerLoop:
 			while(true) {
-				//tell the client about our speed settings
-				int delayAmount = (int)prefs.getDelayAmount();
-				outStream.writeInt(delayAmount); //delay
-				outStream.writeInt(delayAmount/MARK_SPEED_FACTOR); //point delay
+				//the server paces playback itself, so tell
+				//the client to run at full speed
+				outStream.writeInt(0); //delay
+				outStream.writeInt(0); //point delay
+				outStream.flush();
 
 				int requestType = inStream.readInt();
 				int[] arr;
 				switch(requestType) {
-					case 0:
+					case REQUEST_GENERATE:
 						//the client wants us to give it an array
 						log("Generating array.");
 						Random random = new Random();
 						arr = new int[50];
-						outStream.writeInt(arr.length);
 						for(int i = 0; i < arr.length; i++) {
 							arr[i] = random.nextInt(101);
-							outStream.writeInt(arr[i]);
 						}
+						sendArray(arr, outStream);
+						break;
+					case REQUEST_GENERATE_CUSTOM:
+						//the client picks the size, distribution and seed
+						int length = inStream.readInt();
+						int distribution = inStream.readInt();
+						int seed = inStream.readInt();
+						if(length <= 0 || length > ArrayGenerator.MAX_LENGTH
+								|| length > config.getMaxArrayLength()) {
+							log("Invalid array size: " + length);
+							break outerLoop;
+						}
+						if(!ArrayGenerator.isValidDistribution(distribution)) {
+							log("Invalid distribution: " + distribution);
+							break outerLoop;
+						}
+						log("Generating " + ArrayGenerator.getName(distribution)
+								+ " array of " + length + " with seed " + seed + ".");
+						arr = ArrayGenerator.generate(length, distribution, seed);
+						sendArray(arr, outStream);
 						break;
-					case 1:
+					case REQUEST_UPLOAD:
 						//input array from client
 						log("Reading array.");
 						int arraySize = inStream.readInt();
-						if(arraySize <= 0) {
+						if(arraySize <= 0 || arraySize > config.getMaxArrayLength()) {
 							log("Invalid array size: " + arraySize);
 							break outerLoop;
 						}
+						if(!fitsInMemory((long)arraySize*Integer.BYTES)) {
+							log("No memory for an array of " + arraySize + ".");
+							break outerLoop;
+						}
 						arr = new int[arraySize];
-						for(int i = 0; i < arraySize; i++) {
-							arr[i] = inStream.readInt();
-							if(arr[i] < 0) {
+						//read and check a chunk at a time, showing
+						//each one while the rest is still arriving
+						for(int loaded = 0; loaded < arraySize;) {
+							int count = Math.min(arraySize - loaded, UPLOAD_CHUNK);
+							inStream.readInts(arr, loaded, count);
+							if(!allNonNegative(arr, loaded, loaded + count)) {
 								log("All array values must be >= 0.");
 								break outerLoop;
 							}
+							loaded += count;
+							if(loaded < arraySize) {
+								interf.loading(arr, loaded);
+							}
 						}
 						break;
+					case REQUEST_PROTOCOL:
+						//the client wants to speak a newer protocol,
+						//answer with the highest one we both know
+						//and then start over with the speed settings
+						int requested = inStream.readInt();
+						protocolVersion = Math.max(1, Math.min(requested, MAX_PROTOCOL_VERSION));
+						outStream.writeInt(protocolVersion);
+						log("Using protocol version " + protocolVersion + ".");
+						continue outerLoop;
 					default:
 						log("Garbage data from client.");
 						break outerLoop;
@@ -183,57 +410,464 @@ public class ArrayServer implements Runnable, UpdateableConnection {
 				//initialize array with gui
 				log("Received array.");
 				interf.init(arr);
-				log("Initialized array with GUI.");
-
-				while(true) {
-					//read in commands from client
-					int command = inStream.readInt();
-					switch(command) {
-						case 0:
-							//exit 
-							interf.done();
-							break outerLoop;
-						case 1:
-							//set an array value
-							int index = inStream.readInt();
-							int newVal = inStream.readInt();
-							interf.set(index, newVal);
-							//log("Set " + index + " to " + newVal);
-							//Thread.sleep(prefs.getDelayAmount());
-							//outStream.writeInt(1); //continue
-							break;
-						case 2:
-							//mark region
-							int start = inStream.readInt();
-							int end = inStream.readInt();
-							interf.markRegion(start, end);
-							break;
-						case 3:
-							//clear region
-							interf.clearRegion();
-							break;
-						case 4:
-							//point
-							int addr = inStream.readInt();
-							interf.point(addr);
-							break;
-						default:
-							log("Invalid command: " + command);
-							break outerLoop;
-					}
+				//the session keeps its own, more compact copy,
+				//so this one can go while the sort runs
+				arr = null;
+				log("Initialized array.");
+				RateLimiter limiter = config.getMaxCommandRate() > 0
+						? new RateLimiter(config.getMaxCommandRate()) : null;
+				CreditWindow credits = null;
+				if(protocolVersion >= 3) {
+					//the client waits for these before sending commands
+					credits = new CreditWindow(outStream, paced);
+					credits.open();
+				}
+				readCommands(protocolVersion, inStream, interf, metrics, limiter, credits);
+				clientFinished = true;
+				//nothing more is sent, so the client can stop reading
+				//credits and close without resetting the connection
+				try {
+					socket.shutdownOutput();
+				} catch(IOException ioe) {
+					//it is gone already
 				}
+				break outerLoop;
 			}
 			log("Finished with client.");
+			//let the buffered commands play out,
+			//unless the connection gets ended or
+			//the client was turned away, in which
+			//case the pacer would wait forever
+			while(clientFinished && !paced.awaitFinished(FINISH_POLL_MS)) {
+				if(socket.isClosed()) {
+					break;
+				}
+			}
+		} catch(InterruptedException ie) {
+			log("Interrupted while playing back.");
+		} catch(ProtocolException pe) {
+			log(pe.getMessage());
+		} catch(ClosedChannelException cce) {
+			log("Connection closed.");
+		} catch(IndexOutOfBoundsException ioobe) {
+			log("Client went out of bounds: " + ioobe.getMessage());
+		} catch(IllegalArgumentException iae) {
+			log("Bad command from client: " + iae.getMessage());
+		} catch(UncheckedIOException uioe) {
+			log("Could not open session: " + uioe.getCause().getMessage());
 		} catch(IOException ioe) {
 			log("IOException!");
 			ioe.printStackTrace();
-		}/* catch(InterruptedException ie) {
-			log("InterruptedException!");
-			ie.printStackTrace();
-		}*/
-		for(ConnectionUpdateListener updateListener : updateListeners) {
-			updateListener.disconnected();
+		} finally {
+			if(paced != null) {
+				//the next session may be given the same
+				//sink, so the pacer has to be done with it
+				try {
+					paced.cancelAndWait();
+				} catch(InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if(recorder != null) {
+				try {
+					recorder.close();
+					log("Saved trace " + recorder.getFile() + ".");
+				} catch(IOException ioe) {
+					log("Could not finish trace " + recorder.getFile() + ".");
+				}
+			}
+			if(metricsName != null) {
+				unregisterMetrics(metricsName);
+			}
+			clientSockets.remove(socket);
+			clientInputs.remove(socket);
+			try {
+				socket.close();
+			} catch(IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+		if(sink != null) {
+			sessions.closeSession(sink);
+			for(ConnectionUpdateListener updateListener : updateListeners) {
+				updateListener.disconnected();
+			}
+		}
+	}
+
+	/**
+	 * Creates a trace file for a new session
+	 * if recording is on.
+	 *
+	 * @param delegate Where the recorder passes commands along to
+	 * @return The recorder, or null if not recording
+	 */
+	private TraceRecorder openRecorder(ArrayInterface delegate) {
+		File directory = traceDirectory;
+		if(directory == null) {
+			return null;
+		}
+		File file = new File(directory, "session-" + System.currentTimeMillis()
+				+ "-" + traceCounter.incrementAndGet() + ".vst");
+		try {
+			return new TraceRecorder(file, delegate);
+		} catch(IOException ioe) {
+			log("Could not create trace " + file + ": " + ioe.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether the heap has room
+	 * for an allocation, counting what
+	 * the garbage collector could free.
+	 *
+	 * @param bytes The size
+	 * @return True if it should fit
+	 */
+	private static boolean fitsInMemory(long bytes) {
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		return bytes <= runtime.maxMemory() - used;
+	}
+
+	/**
+	 * Checks that a range of an array
+	 * has no negative values. The loop
+	 * has no branches, so the JIT can
+	 * check several values at once.
+	 *
+	 * @param arr The array
+	 * @param start Beginning of the range
+	 * @param end End of the range
+	 * @return True if none are negative
+	 */
+	static boolean allNonNegative(int[] arr, int start, int end) {
+		int bits = 0;
+		for(int i = start; i < end; i++) {
+			bits |= arr[i];
+		}
+		return bits >= 0;
+	}
+
+	/**
+	 * Sends an array to the client, its
+	 * length first, converting the values
+	 * a chunk at a time instead of
+	 * writing them one by one.
+	 *
+	 * @param arr The array
+	 * @param outStream The client's stream
+	 * @throws IOException If sending fails
+	 */
+	private static void sendArray(int[] arr, DataOutputStream outStream) throws IOException {
+		outStream.writeInt(arr.length);
+		byte[] chunk = new byte[SEND_CHUNK_BYTES];
+		IntBuffer ints = ByteBuffer.wrap(chunk).asIntBuffer();
+		for(int start = 0; start < arr.length; start += ints.capacity()) {
+			int count = Math.min(ints.capacity(), arr.length - start);
+			ints.clear();
+			ints.put(arr, start, count);
+			outStream.write(chunk, 0, count*Integer.BYTES);
+		}
+		outStream.flush();
+	}
+
+	/**
+	 * Makes a session's metrics visible
+	 * through JMX.
+	 *
+	 * @param metrics The session's metrics
+	 * @return The name they were registered as, or null
+	 */
+	private ObjectName registerMetrics(SessionMetrics metrics) {
+		try {
+			ObjectName name = new ObjectName("VisualSort:type=Session,id="
+					+ sessionCounter.incrementAndGet()
+					+ ",client=" + ObjectName.quote(metrics.getClient()));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+			return name;
+		} catch(JMException jme) {
+			log("Could not register session metrics: " + jme.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Takes a session's metrics
+	 * back out of JMX.
+	 *
+	 * @param name The name returned by registerMetrics
+	 */
+	private void unregisterMetrics(ObjectName name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch(JMException jme) {
+			log("Could not unregister session metrics: " + jme.getMessage());
+		}
+	}
+
+	/**
+	 * Reads commands and passes them
+	 * along until the client exits.
+	 *
+	 * @param protocolVersion The protocol the client speaks
+	 * @param inStream Where the commands come from
+	 * @param interf The session's interface
+	 * @param metrics Counts what is read
+	 * @param limiter Holds the client to its command rate, or null
+	 * @param credits Hands out credits to the client, or null
+	 * @throws IOException If reading fails or the commands are malformed
+	 */
+	static void readCommands(int protocolVersion, CommandInput inStream,
+			ArrayInterface interf, SessionMetrics metrics,
+			RateLimiter limiter, CreditWindow credits) throws IOException {
+		metrics.commandsStarted(inStream.waitedNanos());
+		if(protocolVersion >= 2) {
+			//version 2 sends length-prefixed frames
+			//holding many commands at once
+			while(true) {
+				int frameLength = inStream.readInt();
+				if(frameLength < 0 || frameLength > MAX_FRAME_BYTES || frameLength % 4 != 0) {
+					throw new ProtocolException("Invalid frame length: " + frameLength);
+				}
+				inStream.require(frameLength);
+				long frameEnd = inStream.bytesConsumed() + frameLength;
+				while(inStream.bytesConsumed() < frameEnd) {
+					if(!dispatch(protocolVersion, inStream.readInt(), inStream, interf, metrics, limiter, credits)) {
+						return;
+					}
+				}
+				if(inStream.bytesConsumed() != frameEnd) {
+					throw new ProtocolException("Command crossed a frame boundary.");
+				}
+			}
+		} else {
+			while(true) {
+				//read in commands from client
+				if(!dispatch(protocolVersion, inStream.readInt(), inStream, interf, metrics, limiter, credits)) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the arguments for a single
+	 * command and passes it along to
+	 * the interface.
+	 *
+	 * @param protocolVersion The protocol the client speaks
+	 * @param command The opcode that was read
+	 * @param inStream Where the arguments come from
+	 * @param interf The session's interface
+	 * @param metrics Counts what is read
+	 * @param limiter Holds the client to its command rate, or null
+	 * @param credits Hands out credits to the client, or null
+	 * @return False once the client is done
+	 * @throws IOException If reading fails or the command is unknown
+	 */
+	private static boolean dispatch(int protocolVersion, int command, CommandInput inStream,
+			ArrayInterface interf, SessionMetrics metrics,
+			RateLimiter limiter, CreditWindow credits) throws IOException {
+		//older clients get no credits, so nothing would
+		//hold back the commands that change many values
+		if(command <= CMD_SELECT && firstVersion(command) > protocolVersion) {
+			throw new ProtocolException("Command " + command + " needs protocol version "
+					+ firstVersion(command) + ", but the client speaks " + protocolVersion + ".");
+		}
+		//what the command costs in credits, which
+		//is the number of events it gets played as
+		int operations = 1;
+		//what it counts as against the command rate,
+		//which is every value it writes
+		int limited = 1;
+		boolean drawn = true;
+		switch(command) {
+			case CMD_EXIT:
+				//exit, publishing the counts first so
+				//they are complete when done() is played
+				metrics.commandDecoded();
+				metrics.publish(inStream.bytesConsumed(), inStream.waitedNanos());
+				interf.done();
+				return false;
+			case CMD_SET:
+				//set an array value
+				int index = inStream.readInt();
+				int newVal = inStream.readInt();
+				interf.set(index, newVal);
+				metrics.setsDecoded(1);
+				break;
+			case CMD_MARK:
+				//mark region
+				int regionStart = inStream.readInt();
+				int regionEnd = inStream.readInt();
+				interf.markRegion(regionStart, regionEnd);
+				metrics.markDecoded();
+				break;
+			case CMD_CLEAR:
+				//clear region
+				interf.clearRegion();
+				metrics.clearDecoded();
+				break;
+			case CMD_POINT:
+				//point
+				int addr = inStream.readInt();
+				interf.point(addr);
+				metrics.pointDecoded();
+				break;
+			case CMD_SET_BATCH:
+				//many index/value pairs packed together
+				int count = inStream.readInt();
+				if(count < 0) {
+					throw new ProtocolException("Invalid batch size: " + count);
+				}
+				for(int i = 0; i < count; i++) {
+					int batchIndex = inStream.readInt();
+					int batchVal = inStream.readInt();
+					interf.set(batchIndex, batchVal);
+				}
+				metrics.setsDecoded(count);
+				operations = limited = count;
+				break;
+			case CMD_SWAP:
+				//swap two values
+				int first = inStream.readInt();
+				int second = inStream.readInt();
+				interf.swap(first, second);
+				metrics.setsDecoded(2);
+				break;
+			case CMD_COPY_RANGE:
+				//copy values within the array
+				int src = inStream.readInt();
+				int dst = inStream.readInt();
+				int copied = inStream.readInt();
+				interf.copyRange(src, dst, copied);
+				metrics.setsDecoded(Math.max(copied, 0));
+				limited = copied;
+				break;
+			case CMD_FILL_RANGE:
+				//set many values to the same one
+				int fillStart = inStream.readInt();
+				int filled = inStream.readInt();
+				int fillValue = inStream.readInt();
+				interf.fillRange(fillStart, filled, fillValue);
+				metrics.setsDecoded(Math.max(filled, 0));
+				limited = filled;
+				break;
+			case CMD_SET_RANGE:
+				//consecutive values, read in bulk
+				int rangeStart = inStream.readInt();
+				int rangeCount = inStream.readInt();
+				if(rangeCount < 0 || rangeCount > MAX_RANGE_VALUES) {
+					throw new ProtocolException("Invalid range size: " + rangeCount);
+				}
+				int[] values = new int[rangeCount];
+				inStream.readInts(values, 0, rangeCount);
+				interf.setRange(rangeStart, values);
+				metrics.setsDecoded(rangeCount);
+				operations = limited = rangeCount;
+				break;
+			case CMD_READ:
+				//only some get drawn once they come in fast,
+				//but every one of them is counted
+				int readIndex = inStream.readInt();
+				drawn = metrics.readDecoded();
+				if(drawn) {
+					interf.read(readIndex);
+				}
+				break;
+			case CMD_COMPARE:
+				int left = inStream.readInt();
+				int right = inStream.readInt();
+				drawn = metrics.compareDecoded();
+				if(drawn) {
+					interf.compare(left, right);
+				}
+				break;
+			case CMD_ALLOC:
+				//an auxiliary array, such as a merge buffer
+				int arrayId = inStream.readInt();
+				int arrayLength = inStream.readInt();
+				interf.allocArray(arrayId, readName(inStream), arrayLength);
+				break;
+			case CMD_FREE:
+				interf.freeArray(inStream.readInt());
+				break;
+			case CMD_SELECT:
+				//later commands go to this array; playback
+				//only hears of it along with one of them
+				interf.selectArray(inStream.readInt());
+				drawn = false;
+				break;
+			default:
+				throw new ProtocolException("Invalid command: " + command);
+		}
+		metrics.commandDecoded();
+		if(limiter != null) {
+			limiter.acquire(Math.max(limited, 1));
+		}
+		if(credits != null) {
+			if(!drawn) {
+				//never played, so playback won't free it
+				credits.settled(operations);
+			}
+			credits.received(operations);
+		}
+		if(inStream.buffered() < Integer.BYTES) {
+			//about to wait on the client, so
+			//bring the shared counts up to date
+			metrics.publish(inStream.bytesConsumed(), inStream.waitedNanos());
+			if(credits != null) {
+				credits.beforeWait();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the protocol version
+	 * a command was added in.
+	 *
+	 * @param command A known opcode
+	 * @return The first version that has it
+	 */
+	private static int firstVersion(int command) {
+		if(command >= CMD_ALLOC) {
+			return 6;
+		} else if(command >= CMD_READ) {
+			return 5;
+		} else if(command >= CMD_SWAP) {
+			return 4;
+		} else if(command == CMD_SET_BATCH) {
+			return 2;
+		}
+		return 1;
+	}
+
+	/**
+	 * Reads the name of an auxiliary array:
+	 * its length in bytes, then its UTF-8
+	 * bytes packed four to an int, with
+	 * the last int padded with zeros.
+	 *
+	 * @param inStream Where the name comes from
+	 * @return The name
+	 * @throws IOException If reading fails or the name is too long
+	 */
+	private static String readName(CommandInput inStream) throws IOException {
+		int nameBytes = inStream.readInt();
+		if(nameBytes < 0 || nameBytes > MAX_NAME_BYTES) {
+			throw new ProtocolException("Invalid name length: " + nameBytes);
+		}
+		byte[] bytes = new byte[nameBytes];
+		for(int i = 0; i < nameBytes; i += Integer.BYTES) {
+			int packed = inStream.readInt();
+			for(int k = 0; k < Integer.BYTES && i + k < nameBytes; k++) {
+				bytes[i + k] = (byte)(packed >>> (24 - 8*k));
+			}
 		}
+		return new String(bytes, StandardCharsets.UTF_8);
 	}
 
 	/**
@@ -0,0 +1,692 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Holds the values of an array in as
+ * little memory as their range allows:
+ * a byte or a char per value, a few bits
+ * per value packed into longs, or a full
+ * int. Arrays too big for the heap are
+ * kept in a memory-mapped temporary file
+ * instead. Setting a value that doesn't
+ * fit widens the storage in place, so
+ * anyone holding on to it keeps working.
+ * Not thread safe.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class ArrayStorage {
+	//arrays estimated to need more than this share
+	//of the heap are kept off the heap
+	private static final double MAX_HEAP_SHARE = 0.25;
+	private static final boolean FORCE_OFF_HEAP = Boolean.getBoolean("visualsort.offHeap");
+	private final int length;
+	private Backing backing;
+
+	/**
+	 * Creates storage holding a copy
+	 * of an array's values.
+	 *
+	 * @param values The values
+	 * @return The storage
+	 */
+	public static ArrayStorage of(int[] values) {
+		int min = 0, max = 0;
+		for(int val : values) {
+			if(val < min) min = val;
+			if(val > max) max = val;
+		}
+		ArrayStorage storage = new ArrayStorage(values.length, min, max);
+		Backing backing = storage.backing;
+		for(int i = 0; i < values.length; i++) {
+			backing.set(i, values[i]);
+		}
+		return storage;
+	}
+
+	/**
+	 * Creates storage of zeros that can
+	 * hold values from min to max without
+	 * having to widen.
+	 *
+	 * @param length The number of values
+	 * @param min The smallest value expected
+	 * @param max The largest value expected
+	 */
+	public ArrayStorage(int length, int min, int max) {
+		this.length = length;
+		backing = createBacking(length, min, max);
+	}
+
+	/**
+	 * Returns the number of values.
+	 *
+	 * @return The length
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Returns a value.
+	 *
+	 * @param index The index
+	 * @return The value
+	 */
+	public int get(int index) {
+		return backing.get(index);
+	}
+
+	/**
+	 * Sets a value, widening the storage
+	 * first if it doesn't fit.
+	 *
+	 * @param index The index
+	 * @param val The value
+	 */
+	public void set(int index, int val) {
+		Backing current = backing;
+		if(val > current.maxValue || val < current.minValue) {
+			current = widen(val);
+		}
+		current.set(index, val);
+	}
+
+	/**
+	 * Copies every value into
+	 * a new int array.
+	 *
+	 * @return The values
+	 */
+	public int[] toArray() {
+		int[] values = new int[length];
+		for(int i = 0; i < length; i++) {
+			values[i] = backing.get(i);
+		}
+		return values;
+	}
+
+	/**
+	 * Copies the values into new
+	 * storage laid out the same way.
+	 *
+	 * @return The copy
+	 */
+	public ArrayStorage copy() {
+		Backing current = backing;
+		ArrayStorage copy = new ArrayStorage(length, current.minValue, current.maxValue);
+		Backing target = copy.backing;
+		for(int i = 0; i < length; i++) {
+			target.set(i, current.get(i));
+		}
+		return copy;
+	}
+
+	/**
+	 * Lets go of the values right away,
+	 * deleting any file they are kept in,
+	 * rather than leaving it all to the
+	 * garbage collector. Only call it once
+	 * the storage won't be used again.
+	 */
+	public void release() {
+		backing.release();
+	}
+
+	/**
+	 * Returns roughly how many bytes
+	 * the values take up.
+	 *
+	 * @return Bytes used
+	 */
+	public long bytesUsed() {
+		return backing.bytesUsed();
+	}
+
+	/**
+	 * Describes how the values
+	 * are stored.
+	 *
+	 * @return A short description
+	 */
+	@Override
+	public String toString() {
+		return backing.describe();
+	}
+
+	/**
+	 * Moves the values to a backing
+	 * that can also hold val.
+	 *
+	 * @param val The value that didn't fit
+	 * @return The new backing
+	 */
+	private Backing widen(int val) {
+		Backing old = backing;
+		Backing wider = createBacking(length,
+				Math.min(val, old.minValue), Math.max(val, old.maxValue));
+		for(int i = 0; i < length; i++) {
+			wider.set(i, old.get(i));
+		}
+		old.release();
+		backing = wider;
+		return wider;
+	}
+
+	/**
+	 * Picks the smallest backing that
+	 * holds values from min to max.
+	 * Bits are packed whenever that saves
+	 * at least a quarter over the next
+	 * whole number of bytes.
+	 *
+	 * @param length The number of values
+	 * @param min The smallest value
+	 * @param max The largest value
+	 * @return The backing
+	 */
+	private static Backing createBacking(int length, int min, int max) {
+		int bits = min < 0 ? Integer.SIZE : Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(max));
+		int alignedBits = bits <= 8 ? 8 : bits <= 16 ? 16 : 32;
+		long estimate = (long)length * alignedBits / 8;
+		if(FORCE_OFF_HEAP || estimate > Runtime.getRuntime().maxMemory() * MAX_HEAP_SHARE) {
+			try {
+				return new MappedBacking(length, alignedBits/8);
+			} catch(IOException ioe) {
+				System.err.println("Could not keep the array off the heap: " + ioe.getMessage());
+			}
+		}
+		if(bits < Integer.SIZE && bits*4 <= alignedBits*3) {
+			return new PackedBacking(length, bits);
+		}
+		switch(alignedBits) {
+			case 8:
+				return new ByteBacking(length);
+			case 16:
+				return new CharBacking(length);
+			default:
+				return new IntBacking(length);
+		}
+	}
+
+	/**
+	 * One way of laying out
+	 * the values in memory.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static abstract class Backing {
+		protected final int minValue;
+		protected final int maxValue;
+
+		/**
+		 * Constructs the backing.
+		 *
+		 * @param minValue The smallest value it holds
+		 * @param maxValue The largest value it holds
+		 */
+		protected Backing(int minValue, int maxValue) {
+			this.minValue = minValue;
+			this.maxValue = maxValue;
+		}
+
+		/**
+		 * Returns a value.
+		 *
+		 * @param index The index
+		 * @return The value
+		 */
+		abstract int get(int index);
+
+		/**
+		 * Sets a value that fits.
+		 *
+		 * @param index The index
+		 * @param val The value
+		 */
+		abstract void set(int index, int val);
+
+		/**
+		 * Returns roughly how many bytes
+		 * the values take up.
+		 *
+		 * @return Bytes used
+		 */
+		abstract long bytesUsed();
+
+		/**
+		 * Describes the layout.
+		 *
+		 * @return A short description
+		 */
+		abstract String describe();
+
+		/**
+		 * Lets go of anything that the
+		 * garbage collector won't.
+		 */
+		void release() {}
+	}
+
+	/**
+	 * A byte per value, from 0 to 255.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static class ByteBacking extends Backing {
+		private final byte[] values;
+
+		/**
+		 * Constructs the backing.
+		 *
+		 * @param length The number of values
+		 */
+		ByteBacking(int length) {
+			super(0, 0xFF);
+			values = new byte[length];
+		}
+
+		/**
+		 * Returns a value.
+		 *
+		 * @param index The index
+		 * @return The value
+		 */
+		@Override
+		int get(int index) {
+			return values[index] & 0xFF;
+		}
+
+		/**
+		 * Sets a value that fits.
+		 *
+		 * @param index The index
+		 * @param val The value
+		 */
+		@Override
+		void set(int index, int val) {
+			values[index] = (byte)val;
+		}
+
+		/**
+		 * Returns roughly how many bytes
+		 * the values take up.
+		 *
+		 * @return Bytes used
+		 */
+		@Override
+		long bytesUsed() {
+			return values.length;
+		}
+
+		/**
+		 * Describes the layout.
+		 *
+		 * @return A short description
+		 */
+		@Override
+		String describe() {
+			return "8-bit";
+		}
+	}
+
+	/**
+	 * A char per value, from 0 to 65535.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static class CharBacking extends Backing {
+		private final char[] values;
+
+		/**
+		 * Constructs the backing.
+		 *
+		 * @param length The number of values
+		 */
+		CharBacking(int length) {
+			super(0, Character.MAX_VALUE);
+			values = new char[length];
+		}
+
+		/**
+		 * Returns a value.
+		 *
+		 * @param index The index
+		 * @return The value
+		 */
+		@Override
+		int get(int index) {
+			return values[index];
+		}
+
+		/**
+		 * Sets a value that fits.
+		 *
+		 * @param index The index
+		 * @param val The value
+		 */
+		@Override
+		void set(int index, int val) {
+			values[index] = (char)val;
+		}
+
+		/**
+		 * Returns roughly how many bytes
+		 * the values take up.
+		 *
+		 * @return Bytes used
+		 */
+		@Override
+		long bytesUsed() {
+			return 2L * values.length;
+		}
+
+		/**
+		 * Describes the layout.
+		 *
+		 * @return A short description
+		 */
+		@Override
+		String describe() {
+			return "16-bit";
+		}
+	}
+
+	/**
+	 * A full int per value.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static class IntBacking extends Backing {
+		private final int[] values;
+
+		/**
+		 * Constructs the backing.
+		 *
+		 * @param length The number of values
+		 */
+		IntBacking(int length) {
+			super(Integer.MIN_VALUE, Integer.MAX_VALUE);
+			values = new int[length];
+		}
+
+		/**
+		 * Returns a value.
+		 *
+		 * @param index The index
+		 * @return The value
+		 */
+		@Override
+		int get(int index) {
+			return values[index];
+		}
+
+		/**
+		 * Sets a value that fits.
+		 *
+		 * @param index The index
+		 * @param val The value
+		 */
+		@Override
+		void set(int index, int val) {
+			values[index] = val;
+		}
+
+		/**
+		 * Returns roughly how many bytes
+		 * the values take up.
+		 *
+		 * @return Bytes used
+		 */
+		@Override
+		long bytesUsed() {
+			return 4L * values.length;
+		}
+
+		/**
+		 * Describes the layout.
+		 *
+		 * @return A short description
+		 */
+		@Override
+		String describe() {
+			return "32-bit";
+		}
+	}
+
+	/**
+	 * A fixed number of bits per value,
+	 * packed back to back into longs.
+	 * A value may span two longs.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static class PackedBacking extends Backing {
+		private final long[] words;
+		private final int bits;
+		private final long mask;
+
+		/**
+		 * Constructs the backing.
+		 *
+		 * @param length The number of values
+		 * @param bits Bits per value, less than 32
+		 */
+		PackedBacking(int length, int bits) {
+			super(0, (1 << bits) - 1);
+			this.bits = bits;
+			mask = (1L << bits) - 1;
+			//one spare word so a read never runs off the end
+			words = new long[(int)(((long)length * bits + 63) >>> 6) + 1];
+		}
+
+		/**
+		 * Returns a value.
+		 *
+		 * @param index The index
+		 * @return The value
+		 */
+		@Override
+		int get(int index) {
+			long bit = (long)index * bits;
+			int word = (int)(bit >>> 6);
+			int shift = (int)bit & 63;
+			long val = words[word] >>> shift;
+			if(shift + bits > 64) {
+				val |= words[word + 1] << (64 - shift);
+			}
+			return (int)(val & mask);
+		}
+
+		/**
+		 * Sets a value that fits.
+		 *
+		 * @param index The index
+		 * @param val The value
+		 */
+		@Override
+		void set(int index, int val) {
+			long bit = (long)index * bits;
+			int word = (int)(bit >>> 6);
+			int shift = (int)bit & 63;
+			words[word] = (words[word] & ~(mask << shift)) | ((long)val << shift);
+			if(shift + bits > 64) {
+				int spill = 64 - shift;
+				words[word + 1] = (words[word + 1] & ~(mask >>> spill)) | ((long)val >>> spill);
+			}
+		}
+
+		/**
+		 * Returns roughly how many bytes
+		 * the values take up.
+		 *
+		 * @return Bytes used
+		 */
+		@Override
+		long bytesUsed() {
+			return 8L * words.length;
+		}
+
+		/**
+		 * Describes the layout.
+		 *
+		 * @return A short description
+		 */
+		@Override
+		String describe() {
+			return bits + "-bit packed";
+		}
+	}
+
+	/**
+	 * Values kept in a memory-mapped
+	 * temporary file, a window at a
+	 * time, so the heap never has to
+	 * hold them.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static class MappedBacking extends Backing {
+		private static final int WINDOW_SHIFT = 30; //1 GB windows
+		private final MappedByteBuffer[] windows;
+		private final int bytesPerValue;
+		private final int indexShift;
+		private final int indexMask;
+		private final long size;
+		private Path file; //null once deleted
+
+		/**
+		 * Creates the file and maps it.
+		 *
+		 * @param length The number of values
+		 * @param bytesPerValue 1, 2 or 4
+		 * @throws IOException If the file can't be made
+		 */
+		MappedBacking(int length, int bytesPerValue) throws IOException {
+			super(bytesPerValue == 4 ? Integer.MIN_VALUE : 0,
+					bytesPerValue == 4 ? Integer.MAX_VALUE : (1 << (8*bytesPerValue)) - 1);
+			this.bytesPerValue = bytesPerValue;
+			int valueShift = Integer.numberOfTrailingZeros(bytesPerValue);
+			indexShift = WINDOW_SHIFT - valueShift;
+			indexMask = (1 << indexShift) - 1;
+			size = (long)length * bytesPerValue;
+			Path created = Files.createTempFile("visualsort", ".arr");
+			try (FileChannel channel = FileChannel.open(created,
+					StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				int count = (int)((size + (1L << WINDOW_SHIFT) - 1) >>> WINDOW_SHIFT);
+				windows = new MappedByteBuffer[Math.max(count, 1)];
+				for(int w = 0; w < windows.length; w++) {
+					long start = (long)w << WINDOW_SHIFT;
+					windows[w] = channel.map(FileChannel.MapMode.READ_WRITE, start,
+							Math.min(1L << WINDOW_SHIFT, size - start));
+				}
+			} catch(IOException ioe) {
+				Files.deleteIfExists(created);
+				throw ioe;
+			}
+			//the mapping keeps the values, so where the system
+			//lets a mapped file be deleted it goes right away,
+			//and its space along with the mapping
+			try {
+				Files.delete(created);
+			} catch(IOException ioe) {
+				created.toFile().deleteOnExit();
+				file = created;
+			}
+		}
+
+		/**
+		 * Returns a value.
+		 *
+		 * @param index The index
+		 * @return The value
+		 */
+		@Override
+		int get(int index) {
+			ByteBuffer window = windows[index >>> indexShift];
+			int offset = (index & indexMask) * bytesPerValue;
+			switch(bytesPerValue) {
+				case 1:
+					return window.get(offset) & 0xFF;
+				case 2:
+					return window.getChar(offset);
+				default:
+					return window.getInt(offset);
+			}
+		}
+
+		/**
+		 * Sets a value that fits.
+		 *
+		 * @param index The index
+		 * @param val The value
+		 */
+		@Override
+		void set(int index, int val) {
+			ByteBuffer window = windows[index >>> indexShift];
+			int offset = (index & indexMask) * bytesPerValue;
+			switch(bytesPerValue) {
+				case 1:
+					window.put(offset, (byte)val);
+					break;
+				case 2:
+					window.putChar(offset, (char)val);
+					break;
+				default:
+					window.putInt(offset, val);
+					break;
+			}
+		}
+
+		/**
+		 * Returns roughly how many bytes
+		 * the values take up.
+		 *
+		 * @return Bytes used
+		 */
+		@Override
+		long bytesUsed() {
+			return size;
+		}
+
+		/**
+		 * Describes the layout.
+		 *
+		 * @return A short description
+		 */
+		@Override
+		String describe() {
+			return (8*bytesPerValue) + "-bit off-heap";
+		}
+
+		/**
+		 * Lets go of anything that the
+		 * garbage collector won't.
+		 */
+		@Override
+		void release() {
+			//the mapping goes away once the
+			//buffers can be collected
+			Arrays.fill(windows, null);
+			if(file == null) {
+				return;
+			}
+			try {
+				Files.deleteIfExists(file);
+				file = null;
+			} catch(IOException ioe) {
+				//deleteOnExit will get it
+			}
+		}
+	}
+}
@@ -0,0 +1,120 @@
+import java.awt.image.*;
+
+/**
+ * Rasterizes bars straight into the
+ * pixels of an image, so that a frame
+ * can be drawn without allocating
+ * anything and blitted all at once.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class BarRenderer {
+	public static final int GREEN = 0x00FF00;
+	public static final int YELLOW = 0xFFFF00;
+	public static final int RED = 0xFF0000;
+	private static final int[] PALETTE = new int[4 * 256];
+	private BufferedImage image;
+	private int[] pixels;
+	private int width, height;
+
+	static {
+		//same gradient the bars have always used:
+		//red from the value, green from the position
+		for(int mod = 0; mod < 4; mod++) {
+			for(int pos = 0; pos < 256; pos++) {
+				PALETTE[mod * 256 + pos] = (mod * 80) << 16 | pos << 8 | 200;
+			}
+		}
+	}
+
+	/**
+	 * Returns the gradient color of a bar.
+	 *
+	 * @param value The value of the bar
+	 * @param index The index of the bar
+	 * @param length The length of the array
+	 * @return The color as 0xRRGGBB
+	 */
+	public static int barColor(int value, int index, int length) {
+		return PALETTE[(value & 3) << 8 | (int)((long)index * 255 / length)];
+	}
+
+	/**
+	 * Makes sure the image matches the
+	 * given size, replacing it if not.
+	 *
+	 * @param width The width in pixels
+	 * @param height The height in pixels
+	 * @return Whether a new image was made
+	 */
+	public boolean resize(int width, int height) {
+		if(image != null && width == this.width && height == this.height) {
+			return false;
+		}
+		this.width = Math.max(width, 1);
+		this.height = Math.max(height, 1);
+		image = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		return true;
+	}
+
+	/**
+	 * Returns the image being drawn into.
+	 *
+	 * @return The image
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Fills the columns from x0 to x1
+	 * (exclusive) with one color.
+	 *
+	 * @param x0 First column
+	 * @param x1 Column after the last
+	 * @param rgb The color as 0xRRGGBB
+	 */
+	public void clearColumns(int x0, int x1, int rgb) {
+		fillRect(x0, 0, x1 - x0, height, rgb);
+	}
+
+	/**
+	 * Fills a bar that rises from a row
+	 * of the image, the bottom of the
+	 * lane it is drawn in.
+	 *
+	 * @param x Left edge
+	 * @param barwid Width of the bar
+	 * @param bottom The row below the bar
+	 * @param barHeight Height of the bar
+	 * @param rgb The color as 0xRRGGBB
+	 */
+	public void fillBar(int x, int barwid, int bottom, int barHeight, int rgb) {
+		fillRect(x, bottom - barHeight, barwid, barHeight, rgb);
+	}
+
+	/**
+	 * Fills a rectangle, clipped to
+	 * the image.
+	 *
+	 * @param x Left edge
+	 * @param y Top edge
+	 * @param w Width
+	 * @param h Height
+	 * @param rgb The color as 0xRRGGBB
+	 */
+	public void fillRect(int x, int y, int w, int h, int rgb) {
+		int x0 = Math.max(x, 0);
+		int x1 = Math.min(x + w, width);
+		int y0 = Math.max(y, 0);
+		int y1 = Math.min(y + h, height);
+		for(int row = y0; row < y1; row++) {
+			int offset = row * width;
+			for(int p = offset + x0; p < offset + x1; p++) {
+				pixels[p] = rgb;
+			}
+		}
+	}
+}
@@ -0,0 +1,217 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Reads the command stream sent
+ * by a client. Bytes are pulled
+ * off the socket in large chunks
+ * into a ByteBuffer instead of
+ * one int at a time.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class CommandInput implements Closeable {
+	private static final int DEFAULT_CAPACITY = 1 << 16;
+	//bulk reads fill at most this much at a time
+	private static final int BULK_CAPACITY = 1 << 20;
+	private static final long NOT_WAITING = Long.MIN_VALUE;
+	private final ReadableByteChannel channel;
+	private final boolean direct;
+	private ByteBuffer buffer;
+	private long bytesConsumed;
+	//when the last byte arrived while blocked on the channel
+	private volatile long waitingSince = NOT_WAITING;
+	private long waitedNanos; //blocked on the channel in total
+
+	/**
+	 * Constructs the input on top
+	 * of a plain stream.
+	 *
+	 * @param in The stream to read from
+	 */
+	public CommandInput(InputStream in) {
+		this(Channels.newChannel(in), false);
+	}
+
+	/**
+	 * Constructs the input on top
+	 * of a channel, such as a
+	 * SocketChannel.
+	 *
+	 * @param channel The channel to read from
+	 */
+	public CommandInput(ReadableByteChannel channel) {
+		this(channel, true);
+	}
+
+	/**
+	 * Constructs the input.
+	 *
+	 * @param channel The channel to read from
+	 * @param direct Whether the channel can read straight into a direct buffer
+	 */
+	private CommandInput(ReadableByteChannel channel, boolean direct) {
+		this.channel = channel;
+		this.direct = direct;
+		buffer = allocate(DEFAULT_CAPACITY);
+		buffer.flip(); //start out empty, in read mode
+	}
+
+	/**
+	 * Reads the next big-endian int,
+	 * blocking if it hasn't arrived yet.
+	 *
+	 * @return The int
+	 * @throws IOException If the stream ends or fails
+	 */
+	public int readInt() throws IOException {
+		if(buffer.remaining() < Integer.BYTES) {
+			fill(Integer.BYTES);
+		}
+		bytesConsumed += Integer.BYTES;
+		return buffer.getInt();
+	}
+
+	/**
+	 * Reads count big-endian ints into an
+	 * array, converting them a whole
+	 * buffer at a time instead of one
+	 * by one.
+	 *
+	 * @param dest The array
+	 * @param offset Where the first one goes
+	 * @param count How many to read
+	 * @throws IOException If the stream ends or fails
+	 */
+	public void readInts(int[] dest, int offset, int count) throws IOException {
+		while(count > 0) {
+			int available = buffer.remaining() / Integer.BYTES;
+			if(available == 0) {
+				fill((int)Math.min((long)count * Integer.BYTES, BULK_CAPACITY));
+				available = buffer.remaining() / Integer.BYTES;
+			}
+			int n = Math.min(count, available);
+			buffer.asIntBuffer().get(dest, offset, n);
+			buffer.position(buffer.position() + n * Integer.BYTES);
+			bytesConsumed += (long)n * Integer.BYTES;
+			offset += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Blocks until at least the given
+	 * number of bytes are buffered, so
+	 * that reading them afterwards
+	 * never touches the socket.
+	 *
+	 * @param bytes The number of bytes needed
+	 * @throws IOException If the stream ends or fails
+	 */
+	public void require(int bytes) throws IOException {
+		if(buffer.remaining() < bytes) {
+			fill(bytes);
+		}
+	}
+
+	/**
+	 * Returns the total number of
+	 * bytes handed out so far.
+	 *
+	 * @return Bytes consumed
+	 */
+	public long bytesConsumed() {
+		return bytesConsumed;
+	}
+
+	/**
+	 * Returns how many bytes can be
+	 * read without touching the socket.
+	 *
+	 * @return Bytes buffered
+	 */
+	public int buffered() {
+		return buffer.remaining();
+	}
+
+	/**
+	 * Returns how long reads have spent
+	 * blocked on the channel in total,
+	 * which is time the client took to
+	 * send what came next.
+	 *
+	 * @return Nanoseconds
+	 */
+	public long waitedNanos() {
+		return waitedNanos;
+	}
+
+	/**
+	 * Returns how long a read has been
+	 * waiting without a byte arriving,
+	 * which stays 0 while the reading
+	 * thread is busy with something else.
+	 * Safe to call from any thread.
+	 *
+	 * @return Nanoseconds spent waiting
+	 */
+	public long idleNanos() {
+		long since = waitingSince;
+		return since == NOT_WAITING ? 0 : System.nanoTime() - since;
+	}
+
+	/**
+	 * Reads from the channel until
+	 * at least bytes are buffered,
+	 * growing the buffer if needed.
+	 *
+	 * @param bytes The number of bytes needed
+	 * @throws IOException If the stream ends or fails
+	 */
+	private void fill(int bytes) throws IOException {
+		buffer.compact();
+		if(buffer.capacity() < bytes) {
+			ByteBuffer bigger = allocate(Integer.highestOneBit(bytes - 1) << 1);
+			buffer.flip();
+			bigger.put(buffer);
+			buffer = bigger;
+		}
+		long began = System.nanoTime();
+		try {
+			waitingSince = began;
+			while(buffer.position() < bytes) {
+				int read = channel.read(buffer);
+				if(read < 0) {
+					throw new EOFException("Client closed connection.");
+				} else if(read > 0) {
+					waitingSince = System.nanoTime();
+				}
+			}
+		} finally {
+			waitingSince = NOT_WAITING;
+			waitedNanos += System.nanoTime() - began;
+			buffer.flip();
+		}
+	}
+
+	/**
+	 * Allocates a buffer of the
+	 * kind the channel suits.
+	 *
+	 * @param capacity Its capacity in bytes
+	 * @return The buffer
+	 */
+	private ByteBuffer allocate(int capacity) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	/**
+	 * Closes the underlying channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
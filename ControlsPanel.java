@@ -18,6 +18,7 @@ public class ControlsPanel implements ConnectionUpdateListener, ActionListener {
 	private JSlider speedSlider;
 	private JToolBar toolbar;
 	private boolean isConnected;
+	private int connectionCount;
 	private ConnectionPreferencesListener preferencesListener;
 	private UserPreferences preferences;
 
@@ -149,10 +150,15 @@ public class ControlsPanel implements ConnectionUpdateListener, ActionListener {
 	 * @param addr The remote address
 	 */
 	@Override
-	public void connected(SocketAddress address) {
-		speedSlider.setEnabled(false);
+	public synchronized void connected(SocketAddress address) {
+		connectionCount++;
+		isConnected = true;
 		end.setEnabled(true);
-		connectionInfo.setText("Connected - " + address.toString());
+		if(connectionCount == 1) {
+			connectionInfo.setText("Connected - " + address.toString());
+		} else {
+			connectionInfo.setText(connectionCount + " clients connected.");
+		}
 	}
 
 	/**
@@ -160,9 +166,14 @@ public class ControlsPanel implements ConnectionUpdateListener, ActionListener {
 	 * has occured
 	 */
 	@Override
-	public void disconnected() {
+	public synchronized void disconnected() {
+		connectionCount--;
+		if(connectionCount > 0) {
+			connectionInfo.setText(connectionCount + " clients connected.");
+			return;
+		}
+		isConnected = false;
 		connectionInfo.setText("Ended.");
-		speedSlider.setEnabled(true);
 		end.setEnabled(false);
 	}
 }
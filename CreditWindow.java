@@ -0,0 +1,174 @@
+import java.io.*;
+import java.net.*;
+
+/**
+ * Keeps a protocol 3 client from getting
+ * further ahead of playback than the
+ * renderer can catch up on quickly. The
+ * client may only send as many commands
+ * as it has been granted credits for,
+ * and credits are only handed out once
+ * the commands before them have been
+ * played, so no more than a window of
+ * commands is ever waiting on the server.
+ * The window is sized from how fast
+ * playback has been going, so a fast
+ * renderer gets a big window and a slow
+ * one a small one. Only use it from the
+ * thread reading the client's commands.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class CreditWindow {
+	static final int INITIAL_WINDOW = 1 << 12;
+	static final int MIN_WINDOW = 256;
+	static final int MAX_WINDOW = 1 << 18;
+	//how far behind the client playback may fall
+	private static final double TARGET_LAG_SECONDS = 0.25;
+	private static final long MIN_SAMPLE_NANOS = 20000000L;
+	private static final double SMOOTHING = 0.3;
+	private final DataOutputStream out;
+	private final PacedArrayInterface playback;
+	private long granted;
+	private long received;
+	private long settled; //taken in but never played
+	private int window = INITIAL_WINDOW;
+	private double playRate; //commands per second, 0 until measured
+	private long samplePlayed;
+	private long sampleNanos;
+
+	/**
+	 * Constructs the window.
+	 *
+	 * @param out Where credits are sent to the client
+	 * @param playback The session's playback, whose progress frees up credits
+	 */
+	public CreditWindow(DataOutputStream out, PacedArrayInterface playback) {
+		this.out = out;
+		this.playback = playback;
+	}
+
+	/**
+	 * Hands the client its first
+	 * window of credits.
+	 *
+	 * @throws IOException If sending fails
+	 */
+	public void open() throws IOException {
+		sampleNanos = System.nanoTime();
+		samplePlayed = playback.getPlayed();
+		grant(window);
+	}
+
+	/**
+	 * Takes the credits used by a command
+	 * that was just read, handing out more
+	 * once half the window is free again.
+	 *
+	 * @param commands What the command cost
+	 * @throws IOException If the client went over its credit or sending fails
+	 */
+	public void received(int commands) throws IOException {
+		received += commands;
+		if(received > granted) {
+			throw new ProtocolException("Client sent " + (received - granted)
+					+ " commands more than it had credit for.");
+		}
+		if(free() >= window/2) {
+			measure();
+			grant(free());
+		}
+	}
+
+	/**
+	 * Frees the credits of commands that
+	 * were received but will never be
+	 * played, such as reads that were
+	 * left out of the drawing.
+	 *
+	 * @param commands What they cost
+	 */
+	public void settled(int commands) {
+		settled += commands;
+	}
+
+	/**
+	 * Makes sure the client can send
+	 * something before the server waits
+	 * on it. If the client is out of
+	 * credit, this waits for playback
+	 * to free up half the window first.
+	 *
+	 * @throws IOException If sending fails or this thread is interrupted
+	 */
+	public void beforeWait() throws IOException {
+		if(received < granted) {
+			//more is on its way already
+			return;
+		}
+		measure();
+		playback.awaitPlayed(granted - settled - window/2);
+		//nothing is free only if playback stopped, and then
+		//there is nothing left to protect, so let the client finish
+		long free = free();
+		grant(free > 0 ? free : window);
+	}
+
+	/**
+	 * Returns the current window size.
+	 *
+	 * @return Commands
+	 */
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * Returns how many more credits can be
+	 * handed out without the commands waiting
+	 * on playback going over the window.
+	 *
+	 * @return Credits, which may be negative after the window shrinks
+	 */
+	private long free() {
+		return window - (granted - settled - playback.getPlayed());
+	}
+
+	/**
+	 * Updates the play rate, and the window
+	 * along with it, once enough time has
+	 * passed since the last sample.
+	 */
+	private void measure() {
+		long now = System.nanoTime();
+		long elapsed = now - sampleNanos;
+		if(elapsed < MIN_SAMPLE_NANOS) {
+			return;
+		}
+		long played = playback.getPlayed();
+		double rate = (played - samplePlayed)*1e9/elapsed;
+		playRate = playRate == 0 ? rate : playRate + SMOOTHING*(rate - playRate);
+		//the client refills the window every round trip,
+		//so a low sample is soon grown out of as long as
+		//round trips are quicker than the target lag
+		window = (int)Math.max(MIN_WINDOW, Math.min(playRate*TARGET_LAG_SECONDS, MAX_WINDOW));
+		samplePlayed = played;
+		sampleNanos = now;
+	}
+
+	/**
+	 * Sends the client more credits.
+	 *
+	 * @param credits How many
+	 * @throws IOException If sending fails
+	 */
+	private void grant(long credits) throws IOException {
+		if(credits <= 0) {
+			return;
+		}
+		granted += credits;
+		out.writeInt((int)credits);
+		out.flush();
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Collects the index ranges of an
+ * array that changed since the last
+ * frame. Keeps at most a handful of
+ * spans, merging the closest ones
+ * once it runs out of room.
+ * Not thread safe on its own.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class DirtyRegion {
+	private static final int MAX_SPANS = 8;
+	private final int[] starts = new int[MAX_SPANS];
+	private final int[] ends = new int[MAX_SPANS];
+	private int count;
+	private boolean all;
+
+	/**
+	 * Marks the indices from start
+	 * (inclusive) to end (exclusive)
+	 * as changed.
+	 *
+	 * @param start Beginning of the range
+	 * @param end End of the range
+	 */
+	public void add(int start, int end) {
+		if(all || start >= end) {
+			return;
+		}
+		//swallow every span that touches this one
+		for(int k = 0; k < count;) {
+			if(start <= ends[k] && end >= starts[k]) {
+				start = Math.min(start, starts[k]);
+				end = Math.max(end, ends[k]);
+				remove(k);
+				k = 0;
+			} else {
+				k++;
+			}
+		}
+		if(count == MAX_SPANS) {
+			//out of room, grow the closest span instead
+			int closest = 0;
+			long closestGap = Long.MAX_VALUE;
+			for(int k = 0; k < count; k++) {
+				long gap = Math.max((long)starts[k] - end, (long)start - ends[k]);
+				if(gap < closestGap) {
+					closestGap = gap;
+					closest = k;
+				}
+			}
+			starts[closest] = Math.min(start, starts[closest]);
+			ends[closest] = Math.max(end, ends[closest]);
+			return;
+		}
+		starts[count] = start;
+		ends[count] = end;
+		count++;
+	}
+
+	/**
+	 * Marks a single index as changed,
+	 * ignoring negative indices.
+	 *
+	 * @param index The index
+	 */
+	public void add(int index) {
+		if(index >= 0) {
+			add(index, index + 1);
+		}
+	}
+
+	/**
+	 * Marks everything as changed.
+	 */
+	public void markAll() {
+		all = true;
+		count = 0;
+	}
+
+	/**
+	 * Forgets every change.
+	 */
+	public void clear() {
+		all = false;
+		count = 0;
+	}
+
+	/**
+	 * Returns whether everything
+	 * has to be redrawn.
+	 *
+	 * @return True if everything changed
+	 */
+	public boolean isAll() {
+		return all;
+	}
+
+	/**
+	 * Returns whether nothing changed.
+	 *
+	 * @return True if there are no changes
+	 */
+	public boolean isEmpty() {
+		return !all && count == 0;
+	}
+
+	/**
+	 * Returns the number of spans.
+	 *
+	 * @return The number of spans
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the start of a span.
+	 *
+	 * @param k The span
+	 * @return Its first index
+	 */
+	public int getStart(int k) {
+		return starts[k];
+	}
+
+	/**
+	 * Returns the end of a span.
+	 *
+	 * @param k The span
+	 * @return The index after its last
+	 */
+	public int getEnd(int k) {
+		return ends[k];
+	}
+
+	/**
+	 * Removes a span by moving the
+	 * last one into its place.
+	 *
+	 * @param k The span
+	 */
+	private void remove(int k) {
+		count--;
+		starts[k] = starts[count];
+		ends[k] = ends[count];
+	}
+}
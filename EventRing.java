@@ -0,0 +1,159 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * Lock-free ring buffer of primitive
+ * events for exactly one producer
+ * thread and one consumer thread.
+ * Every event is an int type with
+ * three int arguments, stored in a
+ * flat int[] so that queueing one
+ * allocates nothing. Rare events that
+ * need more can carry a payload object.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class EventRing {
+	private static final int FIELDS = 4;
+	private final int[] slots;
+	private final Object[] payloads;
+	private final int capacity;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong(); //next event to read
+	private final AtomicLong tail = new AtomicLong(); //next event to write
+	private long producerTail; //only touched by the producer
+	private long cachedHead; //only touched by the producer
+
+	/**
+	 * Receives events as they
+	 * are drained.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	public interface Handler {
+		/**
+		 * Handles a single event.
+		 *
+		 * @param type The event type
+		 * @param a First argument
+		 * @param b Second argument
+		 * @param c Third argument
+		 * @param payload The payload, usually null
+		 */
+		void onEvent(int type, int a, int b, int c, Object payload);
+	}
+
+	/**
+	 * Constructs an empty ring.
+	 *
+	 * @param capacity Number of events, a power of two
+	 */
+	public EventRing(int capacity) {
+		if(capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of two.");
+		}
+		this.capacity = capacity;
+		mask = capacity - 1;
+		slots = new int[capacity * FIELDS];
+		payloads = new Object[capacity];
+	}
+
+	/**
+	 * Adds an event unless the ring is
+	 * full. Only call from the producer.
+	 *
+	 * @param type The event type
+	 * @param a First argument
+	 * @param b Second argument
+	 * @param c Third argument
+	 * @param payload The payload, or null
+	 * @return False if the ring was full
+	 */
+	public boolean offer(int type, int a, int b, int c, Object payload) {
+		long t = producerTail;
+		if(t - cachedHead >= capacity) {
+			cachedHead = head.get();
+			if(t - cachedHead >= capacity) {
+				return false;
+			}
+		}
+		int slot = (int)t & mask;
+		int base = slot * FIELDS;
+		slots[base] = type;
+		slots[base + 1] = a;
+		slots[base + 2] = b;
+		slots[base + 3] = c;
+		if(payload != null) {
+			payloads[slot] = payload;
+		}
+		producerTail = t + 1;
+		//a full volatile store, so that a consumer
+		//about to sleep is guaranteed to see it
+		tail.set(t + 1);
+		return true;
+	}
+
+	/**
+	 * Hands up to max events to the handler,
+	 * oldest first. Only call from the consumer.
+	 * If the handler throws, the event it was
+	 * handed is dropped and the rest are left
+	 * for the next drain.
+	 *
+	 * @param handler Receives the events
+	 * @param max The most events to drain
+	 * @return The number of events drained
+	 */
+	public int drain(Handler handler, int max) {
+		long h = head.get();
+		int count = (int)Math.min(tail.get() - h, max);
+		int i = 0;
+		try {
+			for(; i < count; i++) {
+				int slot = (int)(h + i) & mask;
+				int base = slot * FIELDS;
+				Object payload = payloads[slot];
+				if(payload != null) {
+					payloads[slot] = null;
+				}
+				handler.onEvent(slots[base], slots[base + 1], slots[base + 2], slots[base + 3], payload);
+			}
+		} finally {
+			//past the one that threw, if any, so
+			//it isn't handed out again every time
+			head.lazySet(h + Math.min(i + 1, count));
+		}
+		return count;
+	}
+
+	/**
+	 * Returns whether there is nothing
+	 * to drain right now.
+	 *
+	 * @return True if empty
+	 */
+	public boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+
+	/**
+	 * Returns roughly how many events
+	 * are waiting to be drained.
+	 *
+	 * @return The number of events
+	 */
+	public int size() {
+		return (int)(tail.get() - head.get());
+	}
+
+	/**
+	 * Returns the most events the
+	 * ring can hold.
+	 *
+	 * @return The capacity
+	 */
+	public int capacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,88 @@
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Gives every client a FrameExporter,
+ * so each session is saved as its own
+ * GIF, or directory of PNGs, in a
+ * directory instead of being shown.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class ExportSessionProvider implements SessionProvider {
+	private final File directory;
+	private final String format;
+	private final int frameStep, width, height;
+	private final AtomicInteger counter = new AtomicInteger();
+
+	/**
+	 * Constructs the provider.
+	 *
+	 * @param directory Where the sessions go
+	 * @param format FrameEncoder.GIF or FrameEncoder.PNG
+	 * @param frameStep Commands per frame
+	 * @param width Width of the frames
+	 * @param height Height of the frames
+	 */
+	public ExportSessionProvider(File directory, String format, int frameStep,
+			int width, int height) {
+		this.directory = directory;
+		this.format = format;
+		this.frameStep = frameStep;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Starts exporting a new session.
+	 *
+	 * @param address The remote address of the client
+	 * @return The session
+	 */
+	@Override
+	public ArrayInterface openSession(SocketAddress address) {
+		return openSession(address, null);
+	}
+
+	/**
+	 * Starts exporting a new session, whose
+	 * last frame shows the metrics' times.
+	 *
+	 * @param address The client's address
+	 * @param metrics The session's metrics, or null
+	 * @return The session
+	 * @throws UncheckedIOException If the file can't be created
+	 */
+	@Override
+	public ArrayInterface openSession(SocketAddress address, SessionMetrics metrics) {
+		String name = "session-" + System.currentTimeMillis() + "-" + counter.incrementAndGet()
+				+ (format.equals(FrameEncoder.GIF) ? ".gif" : "");
+		try {
+			FrameExporter exporter = new FrameExporter(new File(directory, name), format,
+					frameStep, width, height);
+			exporter.setMetrics(metrics);
+			return exporter;
+		} catch(IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/**
+	 * Finishes the session's file once
+	 * the client is gone.
+	 *
+	 * @param session The session returned by openSession
+	 */
+	@Override
+	public void closeSession(ArrayInterface session) {
+		FrameExporter exporter = (FrameExporter)session;
+		try {
+			exporter.close();
+			System.out.println("Exported " + exporter.getTarget() + ".");
+		} catch(IOException ioe) {
+			System.err.println("Could not export " + exporter.getTarget() + ": " + ioe.getMessage());
+		}
+	}
+}
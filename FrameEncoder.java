@@ -0,0 +1,337 @@
+import javax.imageio.*;
+import javax.imageio.metadata.*;
+import javax.imageio.stream.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Encodes exported frames into an
+ * animated GIF or a directory of
+ * numbered PNGs. Frames are converted
+ * on a pool of workers shared by every
+ * encoder and written in order behind
+ * them, so capturing the next frame
+ * overlaps with encoding the last ones.
+ * Only so many frames may be in flight
+ * at once, after which nextFrame()
+ * waits, so memory stays bounded however
+ * long the export runs, and the frame
+ * images themselves are reused.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class FrameEncoder implements Closeable {
+	public static final String GIF = "gif";
+	public static final String PNG = "png";
+	private static final int WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	private static final ExecutorService POOL = Executors.newFixedThreadPool(WORKERS, task -> {
+		Thread thread = new Thread(task, "Frame encoder");
+		thread.setDaemon(true);
+		return thread;
+	});
+	//per encoder, enough to keep every worker busy
+	private static final int MAX_IN_FLIGHT = 2*WORKERS;
+	private static final String GIF_METADATA = "javax_imageio_gif_image_1.0";
+	private static final int CUBE_COLORS = 216;
+	private static final int GRAY_LEVELS = 256 - CUBE_COLORS;
+	//how far apart the channels of a color can be for it to count as gray
+	private static final int GRAY_TOLERANCE = 12;
+	private static final IndexColorModel PALETTE = palette();
+	private static final int[] CUBE_STEP = new int[256]; //by channel
+	private static final byte[] GRAY_INDEX = new byte[3*255 + 1]; //by the sum of the channels
+	static {
+		for(int v = 0; v < CUBE_STEP.length; v++) {
+			CUBE_STEP[v] = (v*5 + 127)/255;
+		}
+		for(int sum = 0; sum < GRAY_INDEX.length; sum++) {
+			GRAY_INDEX[sum] = (byte)(CUBE_COLORS + (sum*(GRAY_LEVELS - 1) + 3*255/2)/(3*255));
+		}
+	}
+	private final File target;
+	private final int width, height;
+	private final ImageWriter gifWriter; //null for PNGs
+	private final ImageOutputStream gifOut;
+	private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+	private final BlockingQueue<BufferedImage> free = new ArrayBlockingQueue<>(MAX_IN_FLIGHT);
+	private int created;
+	private int frames;
+	private CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+
+	/**
+	 * Constructs an encoder, creating
+	 * the GIF or the PNG directory.
+	 *
+	 * @param target The GIF file, or the directory for the PNGs
+	 * @param format GIF or PNG
+	 * @param width Width of every frame
+	 * @param height Height of every frame
+	 * @throws IOException If the target can't be created
+	 */
+	public FrameEncoder(File target, String format, int width, int height) throws IOException {
+		this.target = target;
+		this.width = width;
+		this.height = height;
+		switch(format) {
+			case GIF:
+				//the stream writes over a file without shortening it
+				if(target.exists() && !target.delete()) {
+					throw new IOException("Could not replace " + target);
+				}
+				gifWriter = ImageIO.getImageWritersByFormatName(GIF).next();
+				gifOut = ImageIO.createImageOutputStream(target);
+				if(gifOut == null) {
+					throw new IOException("Could not create " + target);
+				}
+				try {
+					gifWriter.setOutput(gifOut);
+					gifWriter.prepareWriteSequence(null);
+				} catch(IOException ioe) {
+					gifOut.close();
+					throw ioe;
+				}
+				break;
+			case PNG:
+				if(!target.isDirectory() && !target.mkdirs()) {
+					throw new IOException("Could not create " + target);
+				}
+				gifWriter = null;
+				gifOut = null;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown frame format: " + format);
+		}
+	}
+
+	/**
+	 * Returns an image to draw the next
+	 * frame into, waiting while too many
+	 * frames are being encoded.
+	 *
+	 * @return A frame, to be handed to submit()
+	 * @throws IOException If an earlier frame failed
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public BufferedImage nextFrame() throws IOException, InterruptedException {
+		checkWritten();
+		inFlight.acquire();
+		//holding a permit means a frame is
+		//free once MAX_IN_FLIGHT were made
+		BufferedImage frame = free.poll();
+		if(frame == null && created < MAX_IN_FLIGHT) {
+			created++;
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+		return frame != null ? frame : free.take();
+	}
+
+	/**
+	 * Queues a frame to be encoded.
+	 *
+	 * @param frame The frame from nextFrame()
+	 * @param delayMillis How long the frame is shown
+	 */
+	public void submit(final BufferedImage frame, final int delayMillis) {
+		final int number = frames++;
+		CompletableFuture<RenderedImage> converted =
+				CompletableFuture.supplyAsync(() -> convert(frame, number), POOL);
+		written = written.thenCombineAsync(converted, (ignored, image) -> {
+			append(image, delayMillis, number == 0);
+			return (Void)null;
+		}, POOL).whenComplete((ignored, e) -> inFlight.release());
+	}
+
+	/**
+	 * Returns how many frames
+	 * were submitted.
+	 *
+	 * @return Frames
+	 */
+	public int getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * Waits for every frame to be
+	 * written and finishes the file.
+	 *
+	 * @throws IOException If a frame failed or finishing did
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			written.join();
+		} catch(CompletionException ce) {
+			//reported below
+		}
+		try {
+			checkWritten();
+			if(gifWriter != null) {
+				gifWriter.endWriteSequence();
+			}
+		} finally {
+			if(gifWriter != null) {
+				gifWriter.dispose();
+				gifOut.close();
+			}
+		}
+	}
+
+	/**
+	 * Throws what went wrong with
+	 * the frames written so far.
+	 *
+	 * @throws IOException If a frame failed
+	 */
+	private void checkWritten() throws IOException {
+		if(!written.isCompletedExceptionally()) {
+			return;
+		}
+		try {
+			written.join();
+		} catch(CompletionException ce) {
+			Throwable cause = ce.getCause();
+			if(cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException)cause).getCause();
+			}
+			throw new IOException("Could not encode frames for " + target, cause);
+		}
+	}
+
+	/**
+	 * Does the part of encoding that can
+	 * happen out of order: writing a PNG,
+	 * or reducing a GIF frame to the
+	 * palette. Runs on a worker, and hands
+	 * the frame back once it is done with it.
+	 *
+	 * @param frame The frame
+	 * @param number Its number, from 0
+	 * @return What append() writes, or null for PNGs
+	 */
+	private RenderedImage convert(BufferedImage frame, int number) {
+		try {
+			if(gifWriter == null) {
+				File file = new File(target, String.format("frame-%06d.png", number));
+				if(!ImageIO.write(frame, PNG, file)) {
+					throw new IOException("No PNG writer");
+				}
+				return null;
+			}
+			return reduceColors(frame);
+		} catch(IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		} finally {
+			free.add(frame);
+		}
+	}
+
+	/**
+	 * Maps every pixel of a frame to the
+	 * nearest color of the palette. Unlike
+	 * drawing into an indexed image, this
+	 * doesn't dither, which would speckle
+	 * the flat background and make the GIF
+	 * several times bigger.
+	 *
+	 * @param frame The frame
+	 * @return The frame in palette colors
+	 */
+	private static BufferedImage reduceColors(BufferedImage frame) {
+		BufferedImage indexed = new BufferedImage(frame.getWidth(), frame.getHeight(),
+				BufferedImage.TYPE_BYTE_INDEXED, PALETTE);
+		int[] pixels = ((DataBufferInt)frame.getRaster().getDataBuffer()).getData();
+		byte[] indices = ((DataBufferByte)indexed.getRaster().getDataBuffer()).getData();
+		for(int i = 0; i < pixels.length; i++) {
+			int r = (pixels[i] >> 16) & 0xff;
+			int g = (pixels[i] >> 8) & 0xff;
+			int b = pixels[i] & 0xff;
+			if(Math.max(r, Math.max(g, b)) - Math.min(r, Math.min(g, b)) < GRAY_TOLERANCE) {
+				indices[i] = GRAY_INDEX[r + g + b];
+			} else {
+				indices[i] = (byte)(CUBE_STEP[r]*36 + CUBE_STEP[g]*6 + CUBE_STEP[b]);
+			}
+		}
+		return indexed;
+	}
+
+	/**
+	 * Builds the palette: a 6x6x6 cube
+	 * of colors and a ramp of grays for
+	 * the text and backgrounds.
+	 *
+	 * @return The palette
+	 */
+	private static IndexColorModel palette() {
+		byte[] r = new byte[256], g = new byte[256], b = new byte[256];
+		for(int i = 0; i < CUBE_COLORS; i++) {
+			r[i] = (byte)(i/36*51);
+			g[i] = (byte)(i/6%6*51);
+			b[i] = (byte)(i%6*51);
+		}
+		for(int i = 0; i < GRAY_LEVELS; i++) {
+			r[CUBE_COLORS + i] = g[CUBE_COLORS + i] = b[CUBE_COLORS + i]
+					= (byte)(i*255/(GRAY_LEVELS - 1));
+		}
+		return new IndexColorModel(8, 256, r, g, b);
+	}
+
+	/**
+	 * Adds a converted frame to the GIF.
+	 * Frames get here one at a time and
+	 * in the order they were submitted.
+	 *
+	 * @param image The converted frame, null for PNGs
+	 * @param delayMillis How long the frame is shown
+	 * @param first Whether it is the first frame
+	 */
+	private void append(RenderedImage image, int delayMillis, boolean first) {
+		if(gifWriter == null) {
+			return;
+		}
+		try {
+			IIOMetadata metadata = gifWriter.getDefaultImageMetadata(
+					ImageTypeSpecifier.createFromRenderedImage(image), null);
+			IIOMetadataNode root = (IIOMetadataNode)metadata.getAsTree(GIF_METADATA);
+			IIOMetadataNode control = child(root, "GraphicControlExtension");
+			control.setAttribute("disposalMethod", "none");
+			control.setAttribute("userInputFlag", "FALSE");
+			control.setAttribute("transparentColorFlag", "FALSE");
+			control.setAttribute("transparentColorIndex", "0");
+			//in hundredths of a second
+			control.setAttribute("delayTime", String.valueOf(delayMillis/10));
+			if(first) {
+				//loop forever
+				IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+				loop.setAttribute("applicationID", "NETSCAPE");
+				loop.setAttribute("authenticationCode", "2.0");
+				loop.setUserObject(new byte[] {1, 0, 0});
+				child(root, "ApplicationExtensions").appendChild(loop);
+			}
+			metadata.setFromTree(GIF_METADATA, root);
+			gifWriter.writeToSequence(new IIOImage(image, null, metadata), null);
+		} catch(IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/**
+	 * Finds a node's child by name,
+	 * adding it if it isn't there.
+	 *
+	 * @param parent The node
+	 * @param name The child's name
+	 * @return The child
+	 */
+	private static IIOMetadataNode child(IIOMetadataNode parent, String name) {
+		for(int i = 0; i < parent.getLength(); i++) {
+			if(parent.item(i).getNodeName().equals(name)) {
+				return (IIOMetadataNode)parent.item(i);
+			}
+		}
+		IIOMetadataNode child = new IIOMetadataNode(name);
+		parent.appendChild(child);
+		return child;
+	}
+}
@@ -0,0 +1,359 @@
+import javax.swing.*;
+import java.awt.image.*;
+import java.io.*;
+import java.lang.reflect.*;
+
+/**
+ * An ArrayInterface that draws a session
+ * on a SortCanvas that is never shown,
+ * capturing a frame every so many
+ * commands and handing it to a
+ * FrameEncoder. Frames only depend on the
+ * commands, not on how fast they come
+ * in, so a trace exports the same way
+ * every time. Works without a display.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class FrameExporter implements ArrayInterface, Closeable {
+	public static final int DEFAULT_FRAME_STEP = 256;
+	public static final int DEFAULT_WIDTH = 800;
+	public static final int DEFAULT_HEIGHT = 450;
+	private static final int FRAME_DELAY_MS = 40;
+	//the result stays up a while before a GIF loops
+	private static final int LAST_FRAME_DELAY_MS = 3000;
+	//the canvas only applies its queued events when a
+	//frame is drawn, so one is drawn at least this
+	//often, well before its queue could fill up
+	private static final int MAX_UNAPPLIED = 1 << 13;
+	private final SortCanvas canvas = new SortCanvas();
+	private final File target;
+	private final FrameEncoder encoder;
+	private final int frameStep;
+	private int sinceFrame; //commands
+	private int unapplied; //calls on the canvas
+	private boolean failed;
+	private boolean closed;
+
+	/**
+	 * Constructs an exporter.
+	 *
+	 * @param target The GIF file, or the directory for the PNGs
+	 * @param format FrameEncoder.GIF or FrameEncoder.PNG
+	 * @param frameStep Commands per frame
+	 * @param width Width of the frames
+	 * @param height Height of the frames
+	 * @throws IOException If the target can't be created
+	 */
+	public FrameExporter(File target, String format, int frameStep,
+			int width, int height) throws IOException {
+		if(frameStep <= 0 || width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Frame step and size must be positive.");
+		}
+		this.target = target;
+		this.frameStep = frameStep;
+		encoder = new FrameEncoder(target, format, width, height);
+		canvas.setSize(width, height);
+	}
+
+	/**
+	 * Sets the metrics whose times the
+	 * last frame shows next to the result.
+	 *
+	 * @param metrics The session's metrics, or null
+	 */
+	public void setMetrics(SessionMetrics metrics) {
+		canvas.setMetrics(metrics);
+	}
+
+	/**
+	 * Returns where the frames go.
+	 *
+	 * @return The GIF file or PNG directory
+	 */
+	public File getTarget() {
+		return target;
+	}
+
+	/**
+	 * Sets an element.
+	 *
+	 * @param index The index
+	 * @param newVal The new value
+	 */
+	@Override
+	public void set(int index, int newVal) {
+		canvas.set(index, newVal);
+		counted();
+	}
+
+	/**
+	 * Swaps two elements.
+	 *
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	@Override
+	public void swap(int i, int j) {
+		canvas.swap(i, j);
+		counted();
+	}
+
+	/**
+	 * Copies a range.
+	 *
+	 * @param src Where the values come from
+	 * @param dst Where they go
+	 * @param length How many to copy
+	 */
+	@Override
+	public void copyRange(int src, int dst, int length) {
+		canvas.copyRange(src, dst, length);
+		counted();
+	}
+
+	/**
+	 * Fills a range.
+	 *
+	 * @param start The first index
+	 * @param length How many to set
+	 * @param value The value
+	 */
+	@Override
+	public void fillRange(int start, int length, int value) {
+		canvas.fillRange(start, length, value);
+		counted();
+	}
+
+	/**
+	 * Sets a range.
+	 *
+	 * @param start The first index
+	 * @param values The new values
+	 */
+	@Override
+	public void setRange(int start, int[] values) {
+		canvas.setRange(start, values);
+		counted();
+	}
+
+	/**
+	 * Adds an auxiliary array.
+	 *
+	 * @param id Its id
+	 * @param name What to call it on screen
+	 * @param length How many elements it has
+	 */
+	@Override
+	public void allocArray(int id, String name, int length) {
+		canvas.allocArray(id, name, length);
+		counted();
+	}
+
+	/**
+	 * Removes an auxiliary array.
+	 *
+	 * @param id Its id
+	 */
+	@Override
+	public void freeArray(int id) {
+		canvas.freeArray(id);
+		counted();
+	}
+
+	/**
+	 * Picks the array later commands
+	 * go to. Not counted as a command,
+	 * since clients send it as part of
+	 * the next one.
+	 *
+	 * @param id The array's id, 0 for the main one
+	 */
+	@Override
+	public void selectArray(int id) {
+		canvas.selectArray(id);
+		applied();
+	}
+
+	/**
+	 * Starts a new sort and captures
+	 * its first frame.
+	 *
+	 * @param arr The array to use
+	 */
+	@Override
+	public void init(int[] arr) {
+		canvas.init(arr);
+		capture(FRAME_DELAY_MS);
+	}
+
+	/**
+	 * Shows an initial array that is
+	 * still arriving, without capturing.
+	 *
+	 * @param arr The array being filled in
+	 * @param loaded How many elements have arrived
+	 */
+	@Override
+	public void loading(int[] arr, int loaded) {
+		canvas.loading(arr, loaded);
+		applied();
+	}
+
+	/**
+	 * Points at an index.
+	 *
+	 * @param index The index being processed
+	 */
+	@Override
+	public void point(int index) {
+		canvas.point(index);
+		counted();
+	}
+
+	/**
+	 * Shows a read.
+	 *
+	 * @param index The index read
+	 */
+	@Override
+	public void read(int index) {
+		canvas.read(index);
+		counted();
+	}
+
+	/**
+	 * Shows a compare.
+	 *
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	@Override
+	public void compare(int i, int j) {
+		canvas.compare(i, j);
+		counted();
+	}
+
+	/**
+	 * Captures the last frame, with
+	 * the result on it, and holds it.
+	 */
+	@Override
+	public void done() {
+		canvas.done();
+		capture(LAST_FRAME_DELAY_MS);
+	}
+
+	/**
+	 * Marks a region.
+	 *
+	 * @param start The beginning of the region
+	 * @param end The end of the region
+	 */
+	@Override
+	public void markRegion(int start, int end) {
+		canvas.markRegion(start, end);
+		counted();
+	}
+
+	/**
+	 * Clears the marked region.
+	 */
+	@Override
+	public void clearRegion() {
+		canvas.clearRegion();
+		counted();
+	}
+
+	/**
+	 * Waits for the frames to be
+	 * encoded and finishes the file.
+	 * Commands after this are drawn
+	 * but not captured.
+	 *
+	 * @throws IOException If encoding failed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		encoder.close();
+	}
+
+	/**
+	 * Counts a command, capturing
+	 * a frame every frameStep of them.
+	 */
+	private void counted() {
+		if(++sinceFrame >= frameStep) {
+			capture(FRAME_DELAY_MS);
+		} else {
+			applied();
+		}
+	}
+
+	/**
+	 * Counts a call on the canvas, drawing
+	 * a frame without capturing it if too
+	 * many are waiting to be applied.
+	 */
+	private void applied() {
+		if(++unapplied >= MAX_UNAPPLIED) {
+			unapplied = 0;
+			onEdt(canvas::renderFrame);
+		}
+	}
+
+	/**
+	 * Draws a frame and queues it to be
+	 * encoded, waiting while too many
+	 * frames are. Once encoding fails,
+	 * frames are only drawn.
+	 *
+	 * @param delayMillis How long the frame is shown
+	 */
+	private synchronized void capture(int delayMillis) {
+		sinceFrame = 0;
+		unapplied = 0;
+		if(failed || closed) {
+			onEdt(canvas::renderFrame);
+			return;
+		}
+		try {
+			final BufferedImage frame = encoder.nextFrame();
+			onEdt(() -> canvas.renderTo(frame));
+			encoder.submit(frame, delayMillis);
+		} catch(IOException ioe) {
+			System.err.println("Could not export frames to " + target + ": " + ioe.getMessage());
+			failed = true;
+		} catch(InterruptedException ie) {
+			//the session is being ended
+			Thread.currentThread().interrupt();
+			failed = true;
+		}
+	}
+
+	/**
+	 * Runs a task on the EDT, which the
+	 * canvas expects its drawing to run
+	 * on, and waits for it.
+	 *
+	 * @param task The task
+	 */
+	private static void onEdt(Runnable task) {
+		try {
+			SwingUtilities.invokeAndWait(task);
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} catch(InvocationTargetException ite) {
+			Throwable cause = ite.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+}
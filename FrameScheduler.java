@@ -0,0 +1,182 @@
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * Decides when a canvas draws its next
+ * frame. However many updates come in,
+ * at most one frame is asked for per
+ * frame interval and only one is ever
+ * waiting to be drawn, so a busy client
+ * can't flood the EDT. Frames that take longer to draw
+ * than their share of the interval stretch the
+ * interval, lowering the frame rate until
+ * drawing keeps up again, and with nothing
+ * to draw the thread sleeps until woken.
+ * All timing uses System.nanoTime().
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class FrameScheduler {
+	public static final int DEFAULT_FPS = 60;
+	public static final int MIN_FPS = 5;
+	public static final int MAX_FPS = 240;
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	//a frame may keep the EDT busy for this share of
+	//the interval, the rest is left for input and paint
+	private static final double BUDGET_SHARE = 0.75;
+	private static final double SMOOTHING = 0.2;
+	private final BooleanSupplier hasWork;
+	private final Runnable frameRequester;
+	private final String name;
+	private volatile long targetInterval;
+	private volatile long interval;
+	private volatile boolean waiting;
+	private volatile boolean framePending;
+	private volatile Thread thread;
+	private double averageFrameNanos; //only touched by frameFinished()
+
+	/**
+	 * Constructs a scheduler running at
+	 * the frame rate set with the
+	 * visualsort.fps property.
+	 *
+	 * @param name Name of the scheduling thread
+	 * @param hasWork Says whether there is anything to draw
+	 * @param frameRequester Gets a frame drawn, which must call frameStarted() and frameFinished()
+	 */
+	public FrameScheduler(String name, BooleanSupplier hasWork, Runnable frameRequester) {
+		this.name = name;
+		this.hasWork = hasWork;
+		this.frameRequester = frameRequester;
+		setTargetFps(Integer.getInteger("visualsort.fps", DEFAULT_FPS));
+	}
+
+	/**
+	 * Sets the frame rate to aim for,
+	 * clamped between MIN_FPS and MAX_FPS.
+	 *
+	 * @param fps Frames per second
+	 */
+	public void setTargetFps(int fps) {
+		fps = Math.max(MIN_FPS, Math.min(fps, MAX_FPS));
+		targetInterval = NANOS_PER_SECOND/fps;
+		interval = targetInterval;
+	}
+
+	/**
+	 * Returns the frame rate currently
+	 * allowed, which is lower than the
+	 * target while frames are slow.
+	 *
+	 * @return Frames per second
+	 */
+	public double getFramesPerSecond() {
+		return (double)NANOS_PER_SECOND/interval;
+	}
+
+	/**
+	 * Starts the scheduling thread,
+	 * replacing any running one.
+	 */
+	public synchronized void start() {
+		stop();
+		thread = new Thread(this::run, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the scheduling thread.
+	 */
+	public synchronized void stop() {
+		if(thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Lets the scheduler know there is
+	 * something new to draw. Cheap enough
+	 * to call on every update.
+	 */
+	public void wake() {
+		//only pay for a wakeup when the
+		//thread is actually asleep
+		if(waiting) {
+			unpark();
+		}
+	}
+
+	/**
+	 * Reports that the requested frame
+	 * has started, so the next one may
+	 * be requested.
+	 */
+	public void frameStarted() {
+		framePending = false;
+		unpark();
+	}
+
+	/**
+	 * Reports that a frame was drawn, and
+	 * how long drawing it kept the EDT busy,
+	 * so the next one can be scheduled.
+	 *
+	 * @param frameNanos How long drawing took in ns
+	 */
+	public void frameFinished(long frameNanos) {
+		averageFrameNanos = averageFrameNanos == 0 ? frameNanos
+				: averageFrameNanos + SMOOTHING*(frameNanos - averageFrameNanos);
+		long needed = (long)(averageFrameNanos/BUDGET_SHARE);
+		interval = Math.min(Math.max(targetInterval, needed), NANOS_PER_SECOND/MIN_FPS);
+	}
+
+	/**
+	 * The scheduling loop.
+	 */
+	private void run() {
+		System.out.println("Beginning render thread.");
+		Thread self = Thread.currentThread();
+		long lastFrame = System.nanoTime() - interval;
+		while(!self.isInterrupted()) {
+			//sleep until there is something to draw
+			waiting = true;
+			while(!hasWork.getAsBoolean() && !self.isInterrupted()) {
+				LockSupport.park(this);
+			}
+			waiting = false;
+
+			//then until the interval is up and
+			//the previous frame has started
+			long deadline = lastFrame + interval;
+			long now = System.nanoTime();
+			while((deadline - now > 0 || framePending) && !self.isInterrupted()) {
+				if(framePending) {
+					LockSupport.park(this);
+				} else {
+					LockSupport.parkNanos(this, deadline - now);
+				}
+				deadline = lastFrame + interval;
+				now = System.nanoTime();
+			}
+			//stay on the beat unless a whole
+			//frame was missed
+			lastFrame = now - deadline < interval ? deadline : now;
+			framePending = true;
+			frameRequester.run();
+		}
+		System.out.println("Thread interrupted.");
+	}
+
+	/**
+	 * Wakes the scheduling thread.
+	 */
+	private void unpark() {
+		Thread current = thread;
+		if(current != null) {
+			LockSupport.unpark(current);
+		}
+	}
+}
@@ -0,0 +1,409 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * An ArrayInterface with no GUI at all,
+ * for running the server on machines
+ * without a display. It keeps its own
+ * copy of the array, counts what the
+ * client does, checks the result once
+ * the client is done and writes a line
+ * of stats for the session.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class HeadlessSession implements ArrayInterface {
+	public static final String STATS_HEADER =
+			"session,length,result,elapsed_ms,sets,sets_per_sec,points,marks,clears,reads,compares,"
+			+ "aux_arrays,aux_peak_bytes,virtual_ms,client_ms";
+	//how each reference engine did, after est_ms
+	private static final String[] RACE_COLUMNS = {"sets", "reads", "compares", "ms"};
+	private final String name;
+	private final PrintStream stats;
+	private final SessionMetrics metrics; //null when replaying a trace
+	private final VirtualClock clock; //only used without metrics, never null
+	private ArrayStorage arr;
+	private SortVerifier verifier;
+	private long startNanos;
+	private long sets, points, marks, clears, reads, compares;
+	private final int[][] aux = new int[MAX_ARRAYS][];
+	private int[] target; //the selected auxiliary array, null for the main one
+	private long auxArrays, auxBytes, peakAuxBytes;
+	private ReferenceRace race; //null unless racing
+	private boolean reported;
+
+	/**
+	 * Returns the header of the stats,
+	 * with the race's columns when
+	 * sessions race reference sorts.
+	 *
+	 * @return The header line
+	 */
+	public static String statsHeader() {
+		if(!ReferenceRace.isEnabled()) {
+			return STATS_HEADER;
+		}
+		StringBuilder header = new StringBuilder(STATS_HEADER).append(",est_ms");
+		for(String engine : ReferenceRace.ENGINES) {
+			for(String column : RACE_COLUMNS) {
+				header.append(',').append(engine).append('_').append(column);
+			}
+		}
+		return header.toString();
+	}
+
+	/**
+	 * Constructs a session that writes
+	 * its stats to the given stream.
+	 *
+	 * @param name What to call the session in the stats
+	 * @param stats Where the stats line goes
+	 */
+	public HeadlessSession(String name, PrintStream stats) {
+		this(name, stats, new VirtualClock());
+	}
+
+	/**
+	 * Constructs a session that works
+	 * out its virtual time from its own
+	 * counts, such as a trace being
+	 * replayed.
+	 *
+	 * @param name What to call the session in the stats
+	 * @param stats Where the stats line goes
+	 * @param clock What every command costs
+	 */
+	public HeadlessSession(String name, PrintStream stats, VirtualClock clock) {
+		this(name, stats, null, clock);
+	}
+
+	/**
+	 * Constructs a session that takes its
+	 * read and compare counts from the
+	 * session's metrics, which count every
+	 * one of them rather than only those
+	 * passed on to be drawn, along with
+	 * the session's virtual and client time.
+	 *
+	 * @param name What to call the session in the stats
+	 * @param stats Where the stats line goes
+	 * @param metrics The session's metrics, or null to count them here at the default costs
+	 */
+	public HeadlessSession(String name, PrintStream stats, SessionMetrics metrics) {
+		this(name, stats, metrics, null);
+	}
+
+	/**
+	 * Constructs a session.
+	 *
+	 * @param name What to call the session in the stats
+	 * @param stats Where the stats line goes
+	 * @param metrics The session's metrics, or null to count them here
+	 * @param clock What every command costs if there are no metrics, or null for the defaults
+	 */
+	private HeadlessSession(String name, PrintStream stats, SessionMetrics metrics,
+			VirtualClock clock) {
+		this.name = name;
+		this.stats = stats;
+		this.metrics = metrics;
+		this.clock = clock != null ? clock : new VirtualClock();
+	}
+
+	/**
+	 * Sets an element and counts it.
+	 *
+	 * @param index The index
+	 * @param newVal The new value
+	 */
+	@Override
+	public void set(int index, int newVal) {
+		if(target != null) {
+			target[index] = newVal;
+			sets++;
+			return;
+		}
+		verifier.update(index, newVal);
+		arr.set(index, newVal);
+		sets++;
+	}
+
+	/**
+	 * Swaps two elements and counts
+	 * it as two sets.
+	 *
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	@Override
+	public void swap(int i, int j) {
+		int first = get(i);
+		set(i, get(j));
+		set(j, first);
+	}
+
+	/**
+	 * Copies a range, counting a
+	 * set for every element.
+	 *
+	 * @param src Where the values come from
+	 * @param dst Where they go
+	 * @param length How many to copy
+	 */
+	@Override
+	public void copyRange(int src, int dst, int length) {
+		if(dst <= src) {
+			for(int i = 0; i < length; i++) {
+				set(dst + i, get(src + i));
+			}
+		} else {
+			//back to front, so an overlapping
+			//source isn't overwritten first
+			for(int i = length - 1; i >= 0; i--) {
+				set(dst + i, get(src + i));
+			}
+		}
+	}
+
+	/**
+	 * Fills a range, counting a
+	 * set for every element.
+	 *
+	 * @param start The first index
+	 * @param length How many to set
+	 * @param value The value
+	 */
+	@Override
+	public void fillRange(int start, int length, int value) {
+		for(int i = 0; i < length; i++) {
+			set(start + i, value);
+		}
+	}
+
+	/**
+	 * Sets a range, counting a
+	 * set for every element.
+	 *
+	 * @param start The first index
+	 * @param values The new values
+	 */
+	@Override
+	public void setRange(int start, int[] values) {
+		for(int i = 0; i < values.length; i++) {
+			set(start + i, values[i]);
+		}
+	}
+
+	/**
+	 * Adds an auxiliary array and
+	 * counts the memory it takes, as
+	 * ints the way the client holds it.
+	 *
+	 * @param id Its id
+	 * @param name Unused
+	 * @param length How many elements it has
+	 */
+	@Override
+	public void allocArray(int id, String name, int length) {
+		aux[id] = new int[length];
+		auxArrays++;
+		auxBytes += (long)length*Integer.BYTES;
+		peakAuxBytes = Math.max(peakAuxBytes, auxBytes);
+	}
+
+	/**
+	 * Removes an auxiliary array.
+	 *
+	 * @param id Its id
+	 */
+	@Override
+	public void freeArray(int id) {
+		if(target == aux[id]) {
+			target = null;
+		}
+		auxBytes -= (long)aux[id].length*Integer.BYTES;
+		aux[id] = null;
+	}
+
+	/**
+	 * Picks the array later commands go to.
+	 *
+	 * @param id The array's id, 0 for the main one
+	 */
+	@Override
+	public void selectArray(int id) {
+		target = id == 0 ? null : aux[id];
+	}
+
+	/**
+	 * Returns an element of the
+	 * selected array.
+	 *
+	 * @param index The index
+	 * @return The value
+	 */
+	private int get(int index) {
+		return target != null ? target[index] : arr.get(index);
+	}
+
+	/**
+	 * Starts timing the sort on a
+	 * copy of the array, and the
+	 * race if there is one.
+	 *
+	 * @param arr The array to use
+	 */
+	@Override
+	public synchronized void init(int[] arr) {
+		if(this.arr != null) {
+			this.arr.release();
+		}
+		this.arr = ArrayStorage.of(arr);
+		verifier = new SortVerifier(this.arr, false);
+		sets = points = marks = clears = reads = compares = 0;
+		Arrays.fill(aux, null);
+		target = null;
+		auxArrays = auxBytes = peakAuxBytes = 0;
+		race = ReferenceRace.isEnabled() ? ReferenceRace.start(arr) : null;
+		reported = false;
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Counts a point.
+	 *
+	 * @param index The index being processed
+	 */
+	@Override
+	public void point(int index) {
+		points++;
+	}
+
+	/**
+	 * Counts a read.
+	 *
+	 * @param index The index read
+	 */
+	@Override
+	public void read(int index) {
+		reads++;
+	}
+
+	/**
+	 * Counts a compare.
+	 *
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	@Override
+	public void compare(int i, int j) {
+		compares++;
+	}
+
+	/**
+	 * Checks the array and writes
+	 * the stats for the session.
+	 */
+	@Override
+	public void done() {
+		report(verifier != null && verifier.isSorted() ? "sorted" : "unsorted");
+	}
+
+	/**
+	 * Counts a marked region.
+	 *
+	 * @param start The beginning of the region
+	 * @param end The end of the region
+	 */
+	@Override
+	public void markRegion(int start, int end) {
+		marks++;
+	}
+
+	/**
+	 * Counts clearing the region.
+	 */
+	@Override
+	public void clearRegion() {
+		clears++;
+	}
+
+	/**
+	 * Writes the stats for a client that
+	 * went away without calling done().
+	 * Does nothing if they were written.
+	 */
+	public void close() {
+		report("incomplete");
+	}
+
+	/**
+	 * Writes the stats line, at most
+	 * once per sort. When racing, this
+	 * waits for the race to finish.
+	 *
+	 * @param result How the sort turned out
+	 */
+	private synchronized void report(String result) {
+		if(reported) {
+			return;
+		}
+		reported = true;
+		double elapsedMs = arr == null ? 0 : (System.nanoTime() - startNanos)/1e6;
+		long setsPerSec = elapsedMs > 0 ? Math.round(sets*1000/elapsedMs) : 0;
+		long allReads = metrics == null ? reads : metrics.getReads();
+		long allCompares = metrics == null ? compares : metrics.getCompares();
+		//a trace has no timestamps, so a
+		//replay can't tell the client's time
+		double virtualMs = (metrics == null
+				? clock.cost(sets, allReads, allCompares, points + marks + clears)
+				: metrics.getVirtualNanos())/1e6;
+		double clientMs = metrics == null ? Double.NaN : metrics.getClientNanos()/1e6;
+		StringBuilder line = new StringBuilder();
+		line.append(name + "," + (arr == null ? 0 : arr.length()) + "," + result
+				+ "," + String.format(Locale.ROOT, "%.3f", elapsedMs) + "," + sets + "," + setsPerSec
+				+ "," + points + "," + marks + "," + clears
+				+ "," + allReads + "," + allCompares
+				+ "," + auxArrays + "," + peakAuxBytes
+				+ "," + formatMillis(virtualMs) + "," + formatMillis(clientMs));
+		if(ReferenceRace.isEnabled()) {
+			appendRace(line, sets + allReads + allCompares);
+		}
+		stats.println(line);
+	}
+
+	/**
+	 * Adds the client's estimated time
+	 * and how every engine did, leaving
+	 * out what isn't known.
+	 *
+	 * @param line The stats line
+	 * @param operations The client's sets, reads and compares added up
+	 */
+	private void appendRace(StringBuilder line, long operations) {
+		if(race == null) {
+			for(int i = 0; i < 1 + ReferenceRace.ENGINES.length*RACE_COLUMNS.length; i++) {
+				line.append(',');
+			}
+			return;
+		}
+		List<ReferenceRace.Result> results = race.await();
+		line.append(',').append(formatMillis(race.estimateMillis(operations)));
+		for(ReferenceRace.Result engine : results) {
+			line.append(',').append(engine.sets >= 0 ? String.valueOf(engine.sets) : "")
+					.append(',').append(engine.reads >= 0 ? String.valueOf(engine.reads) : "")
+					.append(',').append(engine.compares >= 0 ? String.valueOf(engine.compares) : "")
+					.append(',').append(engine.nanos >= 0 ? formatMillis(engine.nanos/1e6) : "");
+		}
+	}
+
+	/**
+	 * Formats a time for the stats.
+	 *
+	 * @param ms Milliseconds, or NaN if unknown
+	 * @return The time, or nothing if unknown
+	 */
+	private static String formatMillis(double ms) {
+		return Double.isNaN(ms) ? "" : String.format(Locale.ROOT, "%.3f", ms);
+	}
+}
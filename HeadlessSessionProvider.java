@@ -0,0 +1,59 @@
+import java.io.*;
+import java.net.*;
+
+/**
+ * Gives every client its own
+ * HeadlessSession, all writing
+ * their stats to the same stream.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class HeadlessSessionProvider implements SessionProvider {
+	private final PrintStream stats;
+
+	/**
+	 * Constructs the provider.
+	 *
+	 * @param stats Where every session writes its stats
+	 */
+	public HeadlessSessionProvider(PrintStream stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Starts a new session named
+	 * after the client's address.
+	 *
+	 * @param address The remote address of the client
+	 * @return The session
+	 */
+	@Override
+	public ArrayInterface openSession(SocketAddress address) {
+		return openSession(address, null);
+	}
+
+	/**
+	 * Opens a session that reports
+	 * the metrics' read counts.
+	 *
+	 * @param address The client's address
+	 * @param metrics The session's metrics, or null
+	 * @return The session
+	 */
+	@Override
+	public ArrayInterface openSession(SocketAddress address, SessionMetrics metrics) {
+		return new HeadlessSession(String.valueOf(address), stats, metrics);
+	}
+
+	/**
+	 * Writes the stats of a session
+	 * that never reached done().
+	 *
+	 * @param session The session returned by openSession
+	 */
+	@Override
+	public void closeSession(ArrayInterface session) {
+		((HeadlessSession)session).close();
+	}
+}
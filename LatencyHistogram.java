@@ -0,0 +1,129 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counts how often each duration shows
+ * up, in the style of an HDR histogram:
+ * every power of two is split into 128
+ * equal buckets, so any value from a
+ * nanosecond to hours is kept to within
+ * 1% without storing the values
+ * themselves. Recording never allocates.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 7;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_COUNT;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a single value.
+	 * Negative values count as 0.
+	 *
+	 * @param value The value, usually in ns
+	 */
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucketOf(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		long previous;
+		while(value > (previous = max.get()) && !max.compareAndSet(previous, value)) {
+			//another thread raised it, try again
+		}
+	}
+
+	/**
+	 * Returns how many values
+	 * have been recorded.
+	 *
+	 * @return The count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the largest value
+	 * recorded, or 0 if none.
+	 *
+	 * @return The maximum
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the mean of the values
+	 * recorded, or 0 if none.
+	 *
+	 * @return The mean
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double)total.get()/n;
+	}
+
+	/**
+	 * Returns the value that the given
+	 * percentage of values are at or
+	 * below, or 0 if nothing was recorded.
+	 *
+	 * @param percentile From 0 to 100
+	 * @return The value at that percentile
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = count.get();
+		if(n == 0) {
+			return 0;
+		}
+		long wanted = Math.max(1, (long)Math.ceil(n * Math.min(percentile, 100) / 100));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if(seen >= wanted) {
+				return Math.min(highestValueIn(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Returns the bucket a value
+	 * is counted in.
+	 *
+	 * @param value The value, at least 0
+	 * @return The bucket
+	 */
+	private static int bucketOf(long value) {
+		if(value < SUB_COUNT) {
+			return (int)value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		return (shift + 1)*SUB_COUNT + (int)(value >>> shift) - SUB_COUNT;
+	}
+
+	/**
+	 * Returns the largest value
+	 * counted in a bucket.
+	 *
+	 * @param bucket The bucket
+	 * @return Its upper bound
+	 */
+	private static long highestValueIn(int bucket) {
+		if(bucket < SUB_COUNT) {
+			return bucket;
+		}
+		int shift = bucket/SUB_COUNT - 1;
+		long mantissa = bucket % SUB_COUNT + SUB_COUNT;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
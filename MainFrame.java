@@ -1,7 +1,9 @@
 import javax.swing.*;
+import javax.swing.event.*;
 import java.util.*;
 import java.awt.*;
 import java.io.*;
+import java.net.*;
 import javax.imageio.*;
 
 /**
@@ -16,14 +18,25 @@ public class MainFrame {
 	private JFrame frame;
 	private JPanel mainPanel;
 	private SortCanvas sortCanvas;
+	private JPanel sessionGrid;
+	private SessionProvider sessionProvider;
 	private ControlsPanel controlsPanel;
 	private UpdateableConnection connection;
+	private int maxSessions;
 
 	//delays in ms between requests
 	private static final int SPEED_MIN = 300;
 	private static final int SPEED_MAX = 0;
 	private static final int SPEED_DEFAULT = 30;
 
+	//how often the replay controls follow playback, in ms
+	private static final int REPLAY_REFRESH_MS = 200;
+	private static final int REPLAY_SLIDER_STEPS = 1000;
+
+	//finished sessions are dropped from the grid
+	//once it holds more than this many
+	private static final int MAX_VISIBLE_SESSIONS = 36;
+
 
 	/**
 	 * Sets the connection that gives the
@@ -58,9 +71,147 @@ public class MainFrame {
 	 * a hidden empty frame
 	 */
 	public MainFrame() {
+		this(1);
+	}
+
+	/**
+	 * Builds a hidden empty frame that
+	 * shows up to maxSessions clients
+	 * at once. With more than one, each
+	 * session gets its own canvas in a grid.
+	 *
+	 * @param maxSessions How many clients may be connected at once
+	 */
+	public MainFrame(int maxSessions) {
+		this.maxSessions = maxSessions;
 		initGUI();
 	}
 
+	/**
+	 * A single session shown
+	 * in the grid.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static class SessionCell {
+		private final JPanel panel;
+		private final JLabel title;
+		private final SortCanvas canvas;
+		private boolean ended;
+
+		/**
+		 * Builds the cell around a canvas.
+		 *
+		 * @param canvas The session's canvas
+		 * @param address The client's address
+		 */
+		public SessionCell(SortCanvas canvas, SocketAddress address) {
+			this.canvas = canvas;
+			title = new JLabel(address.toString());
+			panel = new JPanel(new BorderLayout());
+			panel.add(title, BorderLayout.NORTH);
+			panel.add(canvas, BorderLayout.CENTER);
+		}
+	}
+
+	/**
+	 * Gives every session its own canvas
+	 * and lays them out in a grid. The
+	 * cells are only touched on the EDT.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	protected class SessionGridProvider implements SessionProvider {
+		private final ArrayList<SessionCell> cells = new ArrayList<>();
+
+		/**
+		 * Creates a canvas for the new
+		 * session and adds it to the grid.
+		 *
+		 * @param address The client's address
+		 * @return The new canvas
+		 */
+		@Override
+		public ArrayInterface openSession(SocketAddress address) {
+			return openSession(address, null);
+		}
+
+		/**
+		 * Creates a canvas for the new session
+		 * that records into its metrics.
+		 *
+		 * @param address The client's address
+		 * @param metrics The session's metrics
+		 * @return The new canvas
+		 */
+		@Override
+		public ArrayInterface openSession(SocketAddress address, SessionMetrics metrics) {
+			SortCanvas canvas = new SortCanvas();
+			canvas.setMetrics(metrics);
+			canvas.beginRenderThread();
+			SwingUtilities.invokeLater(() -> {
+				if(cells.size() >= MAX_VISIBLE_SESSIONS) {
+					removeOldestEnded();
+				}
+				SessionCell cell = new SessionCell(canvas, address);
+				cells.add(cell);
+				sessionGrid.add(cell.panel);
+				layoutGrid();
+			});
+			return canvas;
+		}
+
+		/**
+		 * Marks the session as ended, leaving
+		 * its result on screen until the
+		 * space is needed.
+		 *
+		 * @param session The canvas of the session
+		 */
+		@Override
+		public void closeSession(ArrayInterface session) {
+			SwingUtilities.invokeLater(() -> {
+				for(SessionCell cell : cells) {
+					if(cell.canvas == session) {
+						cell.ended = true;
+						cell.title.setText(cell.title.getText() + " (ended)");
+					}
+				}
+			});
+		}
+
+		/**
+		 * Takes the oldest finished
+		 * session out of the grid.
+		 */
+		private void removeOldestEnded() {
+			for(Iterator<SessionCell> it = cells.iterator(); it.hasNext();) {
+				SessionCell cell = it.next();
+				if(cell.ended) {
+					cell.canvas.endRenderThread();
+					sessionGrid.remove(cell.panel);
+					it.remove();
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Picks a roughly square grid
+		 * for the current number of cells.
+		 */
+		private void layoutGrid() {
+			int count = Math.max(cells.size(), 1);
+			int cols = (int)Math.ceil(Math.sqrt(count));
+			int rows = (count + cols - 1)/cols;
+			sessionGrid.setLayout(new GridLayout(rows, cols, 2, 2));
+			sessionGrid.revalidate();
+			sessionGrid.repaint();
+		}
+	}
+
 	/**
 	 * Tries to set icon, ignore if
 	 * failed. Not really important.
@@ -93,8 +244,27 @@ public class MainFrame {
 		controlsPanel = new ControlsPanel();
 		controlsPanel.init("Controls");
 		panel.add(controlsPanel.getComponent(), BorderLayout.NORTH);
-		panel.add((sortCanvas = new SortCanvas()), BorderLayout.CENTER);
-		sortCanvas.beginRenderThread();
+		if(maxSessions > 1) {
+			sessionGrid = new JPanel(new GridLayout(1, 1));
+			sessionGrid.setBackground(Color.BLACK);
+			panel.add(sessionGrid, BorderLayout.CENTER);
+			sessionProvider = new SessionGridProvider();
+		} else {
+			panel.add((sortCanvas = new SortCanvas()), BorderLayout.CENTER);
+			sortCanvas.beginRenderThread();
+			sessionProvider = new SessionProvider() {
+				@Override
+				public ArrayInterface openSession(SocketAddress address) {
+					return sortCanvas;
+				}
+
+				@Override
+				public ArrayInterface openSession(SocketAddress address, SessionMetrics metrics) {
+					sortCanvas.setMetrics(metrics);
+					return sortCanvas;
+				}
+			};
+		}
 
 		//Place frame on screen
 		frame.setSize(1000, 600);
@@ -103,7 +273,8 @@ public class MainFrame {
 
 	/**
 	 * Returns the interface that the connection
-	 * can use to sort the array.
+	 * can use to sort the array. Only
+	 * meaningful with a single session.
 	 *
 	 * @return The array interface
 	 */
@@ -111,6 +282,67 @@ public class MainFrame {
 		return sortCanvas;
 	}
 
+	/**
+	 * Returns the provider that gives
+	 * each connection an interface
+	 * to sort its array with.
+	 *
+	 * @return The session provider
+	 */
+	public SessionProvider getSessionProvider() {
+		return sessionProvider;
+	}
+
+	/**
+	 * Adds a bar at the bottom with
+	 * pause and seek controls for
+	 * a trace being played back.
+	 * The speed is still picked with
+	 * the speed slider.
+	 *
+	 * @param player The trace player
+	 */
+	public void addReplayControls(TracePlayer player) {
+		JToolBar replayBar = new JToolBar("Replay");
+		JToggleButton pause = new JToggleButton("Pause");
+		pause.addActionListener(e -> player.setPaused(pause.isSelected()));
+		JSlider position = new JSlider(0, REPLAY_SLIDER_STEPS, 0);
+		JLabel positionLabel = new JLabel();
+		long count = player.getCommandCount();
+		//the count is only known for finished recordings
+		position.setEnabled(count > 0);
+		//set while the timer moves the slider, so only
+		//the user moving it seeks, never backwards to
+		//where playback was a moment ago
+		final boolean[] following = new boolean[1];
+		position.addChangeListener((ChangeEvent e) -> {
+			if(following[0] || position.getValueIsAdjusting()) {
+				return;
+			}
+			long target = count * position.getValue() / REPLAY_SLIDER_STEPS;
+			if(Math.abs(target - player.getPosition()) > count / REPLAY_SLIDER_STEPS) {
+				player.seek(target);
+			}
+		});
+		new javax.swing.Timer(REPLAY_REFRESH_MS, e -> {
+			long played = player.getPosition();
+			positionLabel.setText(" " + played + (count >= 0 ? " / " + count : "") + " commands");
+			if(count > 0 && !position.getValueIsAdjusting()) {
+				following[0] = true;
+				try {
+					position.setValue((int)(played * REPLAY_SLIDER_STEPS / count));
+				} finally {
+					following[0] = false;
+				}
+			}
+		}).start();
+
+		replayBar.add(pause);
+		replayBar.add(position);
+		replayBar.add(positionLabel);
+		mainPanel.add(replayBar, BorderLayout.SOUTH);
+	}
+
 	/**
 	 * Makes the frame visible
 	 * to the user.
@@ -0,0 +1,622 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Sits between the server and the GUI
+ * and replays the client's commands
+ * at the speed picked in the user
+ * preferences. The client can send as
+ * fast as it likes; its commands are
+ * buffered and played back by a pacing
+ * thread, so a change to the speed
+ * takes effect right away.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class PacedArrayInterface implements ArrayInterface {
+	public static final int MARK_SPEED_FACTOR = 10;
+	//a few frames of playback, since every session has one
+	private static final int BUFFER_CAPACITY = 1 << 16;
+	private static final long FULL_BUFFER_BACKOFF_NS = 100000;
+	//at full speed, played between checks for cancel()
+	private static final int MAX_DRAIN = 1 << 10;
+	//how far playback may fall behind before
+	//it stops trying to catch up
+	private static final long MAX_LAG_NS = 50000000;
+	//auxiliary arrays may hold this many times the main
+	//array's elements between them, plus a little, so a
+	//client can't run the server out of memory with them
+	private static final long AUX_ELEMENTS_PER_ELEMENT = 4;
+	private static final long AUX_ELEMENTS_SLACK = 1 << 16;
+	private static final int EVENT_SET = 1;
+	private static final int EVENT_POINT = 2;
+	private static final int EVENT_MARK = 3;
+	private static final int EVENT_CLEAR = 4;
+	private static final int EVENT_DONE = 5;
+	private static final int EVENT_INIT = 6;
+	private static final int EVENT_LOADING = 7;
+	private static final int EVENT_SWAP = 8;
+	private static final int EVENT_COPY = 9;
+	private static final int EVENT_FILL = 10;
+	private static final int EVENT_SET_RANGE = 11;
+	private static final int EVENT_READ = 12;
+	private static final int EVENT_COMPARE = 13;
+	private static final int EVENT_ALLOC = 14;
+	private static final int EVENT_FREE = 15;
+	private static final int EVENT_SELECT = 16;
+	private final ArrayInterface delegate;
+	private final UserPreferences prefs;
+	private final EventRing buffer = new EventRing(BUFFER_CAPACITY);
+	private final EventRing.Handler player = this::play;
+	private final Thread pacer;
+	private volatile boolean pacerWaiting;
+	private volatile boolean cancelled;
+	private volatile long played;
+	private volatile Thread playedWaiter;
+	private int length; //the rest only touched by the producer
+	private final int[] lengths = new int[MAX_ARRAYS];
+	private long auxElements;
+	private int selected;
+	private int shownSelection; //the last select pushed
+	private boolean finished; //only touched by the pacer
+	private long eventCost; //only touched by the pacer
+	private long playedCount; //only touched by the pacer
+
+	/**
+	 * Constructs the interface and
+	 * starts its pacing thread.
+	 *
+	 * @param delegate Where the commands are played back
+	 * @param prefs Supplies the delay between sets
+	 */
+	public PacedArrayInterface(ArrayInterface delegate, UserPreferences prefs) {
+		this.delegate = delegate;
+		this.prefs = prefs;
+		pacer = new Thread(this::runPacer, "Pacer");
+		pacer.setDaemon(true);
+		pacer.start();
+	}
+
+	/**
+	 * Buffers a set. Bad indices are
+	 * rejected here, on the caller's
+	 * thread, rather than during playback.
+	 *
+	 * @param index The index
+	 * @param newVal The new value
+	 */
+	@Override
+	public void set(int index, int newVal) {
+		if(index < 0 || index >= length) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		showSelection();
+		push(EVENT_SET, index, newVal, 0, null);
+	}
+
+	/**
+	 * Buffers a swap.
+	 *
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	@Override
+	public void swap(int i, int j) {
+		checkRange(i, 1);
+		checkRange(j, 1);
+		showSelection();
+		push(EVENT_SWAP, i, j, 0, null);
+	}
+
+	/**
+	 * Buffers a copy.
+	 *
+	 * @param src Where the values come from
+	 * @param dst Where they go
+	 * @param length How many to copy
+	 */
+	@Override
+	public void copyRange(int src, int dst, int length) {
+		checkRange(src, length);
+		checkRange(dst, length);
+		showSelection();
+		push(EVENT_COPY, src, dst, length, null);
+	}
+
+	/**
+	 * Buffers a fill.
+	 *
+	 * @param start The first index
+	 * @param length How many to set
+	 * @param value The value
+	 */
+	@Override
+	public void fillRange(int start, int length, int value) {
+		checkRange(start, length);
+		showSelection();
+		push(EVENT_FILL, start, length, value, null);
+	}
+
+	/**
+	 * Buffers setting a range.
+	 *
+	 * @param start The first index
+	 * @param values The new values
+	 */
+	@Override
+	public void setRange(int start, int[] values) {
+		checkRange(start, values.length);
+		showSelection();
+		push(EVENT_SET_RANGE, start, 0, 0, values);
+	}
+
+	/**
+	 * Buffers the array to start with.
+	 *
+	 * @param arr The array to use
+	 */
+	@Override
+	public void init(int[] arr) {
+		Arrays.fill(lengths, 0);
+		auxElements = 0;
+		selected = shownSelection = 0;
+		length = lengths[0] = arr.length;
+		push(EVENT_INIT, 0, 0, 0, arr);
+	}
+
+	/**
+	 * Buffers adding an auxiliary array,
+	 * rejecting it if the id is taken or
+	 * there is no room for it.
+	 *
+	 * @param id Its id
+	 * @param name What to call it on screen
+	 * @param length How many elements it has
+	 */
+	@Override
+	public void allocArray(int id, String name, int length) {
+		checkId(id);
+		if(lengths[id] != 0) {
+			throw new IllegalArgumentException("Array " + id + " is already allocated.");
+		}
+		long room = lengths[0]*AUX_ELEMENTS_PER_ELEMENT + AUX_ELEMENTS_SLACK - auxElements;
+		if(length <= 0 || length > room) {
+			throw new IllegalArgumentException("No room for an array of " + length + ".");
+		}
+		lengths[id] = length;
+		auxElements += length;
+		push(EVENT_ALLOC, id, length, 0, name);
+	}
+
+	/**
+	 * Buffers removing an auxiliary array.
+	 *
+	 * @param id Its id
+	 */
+	@Override
+	public void freeArray(int id) {
+		checkAllocated(id);
+		auxElements -= lengths[id];
+		lengths[id] = 0;
+		if(selected == id) {
+			selected = 0;
+			length = lengths[0];
+		}
+		//the delegate selects the main array itself
+		if(shownSelection == id) {
+			shownSelection = 0;
+		}
+		push(EVENT_FREE, id, 0, 0, null);
+	}
+
+	/**
+	 * Picks the array later commands go
+	 * to. Nothing is buffered until one
+	 * of them comes, so selects with no
+	 * drawn command in between, such as
+	 * around reads left out of the
+	 * drawing, cost playback nothing. The
+	 * server settles their credits itself.
+	 *
+	 * @param id The array's id, 0 for the main one
+	 */
+	@Override
+	public void selectArray(int id) {
+		if(id != 0) {
+			checkAllocated(id);
+		}
+		selected = id;
+		length = lengths[id];
+	}
+
+	/**
+	 * Buffers loading progress.
+	 *
+	 * @param arr The array being filled in
+	 * @param loaded How many elements have arrived
+	 */
+	@Override
+	public void loading(int[] arr, int loaded) {
+		push(EVENT_LOADING, loaded, 0, 0, arr);
+	}
+
+	/**
+	 * Buffers a point.
+	 *
+	 * @param index The index being processed
+	 */
+	@Override
+	public void point(int index) {
+		push(EVENT_POINT, index, 0, 0, null);
+	}
+
+	/**
+	 * Buffers the end of the sort.
+	 */
+	@Override
+	public void done() {
+		push(EVENT_DONE, 0, 0, 0, null);
+	}
+
+	/**
+	 * Buffers a marked region.
+	 *
+	 * @param start The beginning of the region
+	 * @param end The end of the region
+	 */
+	@Override
+	public void markRegion(int start, int end) {
+		push(EVENT_MARK, start, end, 0, null);
+	}
+
+	/**
+	 * Buffers clearing the region.
+	 */
+	@Override
+	public void clearRegion() {
+		push(EVENT_CLEAR, 0, 0, 0, null);
+	}
+
+	/**
+	 * Buffers a read.
+	 *
+	 * @param index The index read
+	 */
+	@Override
+	public void read(int index) {
+		checkRange(index, 1);
+		showSelection();
+		push(EVENT_READ, index, 0, 0, null);
+	}
+
+	/**
+	 * Buffers a compare.
+	 *
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	@Override
+	public void compare(int i, int j) {
+		checkRange(i, 1);
+		checkRange(j, 1);
+		showSelection();
+		push(EVENT_COMPARE, i, j, 0, null);
+	}
+
+	/**
+	 * Waits for playback to reach
+	 * done(), or for the timeout.
+	 *
+	 * @param timeoutMs How long to wait in ms
+	 * @return True once playback is over
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public boolean awaitFinished(long timeoutMs) throws InterruptedException {
+		pacer.join(timeoutMs);
+		return !pacer.isAlive();
+	}
+
+	/**
+	 * Returns how many commands other than
+	 * init and done have been played back,
+	 * counting each value of a set range.
+	 * Safe to call from any thread.
+	 *
+	 * @return The count
+	 */
+	public long getPlayed() {
+		return played;
+	}
+
+	/**
+	 * Waits until at least count commands
+	 * have been played back, or playback
+	 * has stopped. Only one thread may
+	 * wait at a time.
+	 *
+	 * @param count The getPlayed() value to wait for
+	 * @throws InterruptedIOException If interrupted while waiting
+	 */
+	public void awaitPlayed(long count) throws InterruptedIOException {
+		playedWaiter = Thread.currentThread();
+		try {
+			while(played < count && !cancelled) {
+				LockSupport.park(this);
+				if(Thread.interrupted()) {
+					throw new InterruptedIOException("Interrupted while waiting for playback.");
+				}
+			}
+		} finally {
+			playedWaiter = null;
+		}
+	}
+
+	/**
+	 * Stops playback, dropping whatever
+	 * is still buffered. The pacer is
+	 * interrupted in case it is waiting
+	 * on the delegate, but may still be
+	 * passing it a command on return.
+	 */
+	public void cancel() {
+		cancelled = true;
+		pacer.interrupt();
+		Thread waiter = playedWaiter;
+		if(waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	/**
+	 * Stops playback and waits until
+	 * the delegate hears no more from
+	 * the pacer, so it can be handed
+	 * to another producer.
+	 *
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public void cancelAndWait() throws InterruptedException {
+		cancel();
+		pacer.join();
+	}
+
+	/**
+	 * Rejects an id that can't belong
+	 * to an auxiliary array.
+	 *
+	 * @param id The id
+	 */
+	private void checkId(int id) {
+		if(id <= 0 || id >= MAX_ARRAYS) {
+			throw new IllegalArgumentException("Invalid array id: " + id);
+		}
+	}
+
+	/**
+	 * Rejects an id that doesn't belong
+	 * to an auxiliary array right now.
+	 *
+	 * @param id The id
+	 */
+	private void checkAllocated(int id) {
+		checkId(id);
+		if(lengths[id] == 0) {
+			throw new IllegalArgumentException("Array " + id + " is not allocated.");
+		}
+	}
+
+	/**
+	 * Rejects a range that doesn't fit
+	 * in the array, on the caller's thread.
+	 *
+	 * @param start The first index
+	 * @param count How many elements
+	 */
+	private void checkRange(int start, int count) {
+		if(start < 0 || count < 0 || start > length - count) {
+			throw new ArrayIndexOutOfBoundsException("Range of " + count + " at " + start
+					+ " is outside an array of " + length + ".");
+		}
+	}
+
+	/**
+	 * Buffers a select ahead of a command
+	 * if the delegate has a different
+	 * array selected.
+	 */
+	private void showSelection() {
+		if(selected != shownSelection) {
+			shownSelection = selected;
+			push(EVENT_SELECT, selected, 0, 0, null);
+		}
+	}
+
+	/**
+	 * Buffers a command, waiting for
+	 * room if playback is far behind.
+	 *
+	 * @param type The event type
+	 * @param a First argument
+	 * @param b Second argument
+	 * @param c Third argument
+	 * @param payload The payload, or null
+	 */
+	private void push(int type, int a, int b, int c, Object payload) {
+		while(!buffer.offer(type, a, b, c, payload)) {
+			if(cancelled) {
+				return;
+			}
+			LockSupport.parkNanos(FULL_BUFFER_BACKOFF_NS);
+		}
+		if(pacerWaiting) {
+			//wake it once, not on every push until it runs
+			pacerWaiting = false;
+			LockSupport.unpark(pacer);
+		}
+	}
+
+	/**
+	 * Plays back the buffer until
+	 * done() or cancel().
+	 */
+	private void runPacer() {
+		try {
+			pace();
+		} finally {
+			//let a blocked producer go if playback died
+			cancelled = true;
+			publishPlayed();
+		}
+	}
+
+	/**
+	 * The pacing loop itself.
+	 */
+	private void pace() {
+		long deadline = System.nanoTime();
+		while(!cancelled && !finished) {
+			if(buffer.isEmpty()) {
+				while(buffer.isEmpty() && !cancelled) {
+					pacerWaiting = true;
+					if(buffer.isEmpty() && !cancelled) {
+						LockSupport.park(this);
+					}
+				}
+				pacerWaiting = false;
+				//nothing was owed while idle
+				deadline = Math.max(deadline, System.nanoTime());
+				continue;
+			}
+
+			long delayMs = prefs.getDelayAmount();
+			if(delayMs <= 0) {
+				//full speed, hand over everything
+				//queued, a chunk at a time
+				buffer.drain(player, Math.min(buffer.size(), MAX_DRAIN));
+				publishPlayed();
+				deadline = System.nanoTime();
+				continue;
+			}
+
+			eventCost = 0;
+			buffer.drain(player, 1);
+			publishPlayed();
+			if(eventCost == 0) {
+				continue;
+			}
+			deadline += eventCost;
+			long now = System.nanoTime();
+			if(now - deadline > MAX_LAG_NS) {
+				deadline = now;
+			}
+			while(deadline - now > 0 && !cancelled) {
+				LockSupport.parkNanos(deadline - now);
+				now = System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * Makes the played count visible and
+	 * wakes whoever is waiting on it.
+	 */
+	private void publishPlayed() {
+		played = playedCount;
+		Thread waiter = playedWaiter;
+		if(waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	/**
+	 * Passes a single event to the
+	 * delegate and works out how long
+	 * it should stay on screen.
+	 *
+	 * @param type The event type
+	 * @param a First argument
+	 * @param b Second argument
+	 * @param c Third argument
+	 * @param payload The payload, or null
+	 */
+	private void play(int type, int a, int b, int c, Object payload) {
+		long delayNs = prefs.getDelayAmount() * 1000000L;
+		switch(type) {
+			case EVENT_SET:
+				delegate.set(a, b);
+				eventCost = delayNs;
+				playedCount++;
+				break;
+			case EVENT_POINT:
+				delegate.point(a);
+				eventCost = delayNs/MARK_SPEED_FACTOR;
+				playedCount++;
+				break;
+			case EVENT_MARK:
+				delegate.markRegion(a, b);
+				playedCount++;
+				break;
+			case EVENT_CLEAR:
+				delegate.clearRegion();
+				playedCount++;
+				break;
+			case EVENT_SWAP:
+				delegate.swap(a, b);
+				eventCost = 2*delayNs;
+				playedCount++;
+				break;
+			//ranges stay on screen as long as the
+			//sets they stand in for would have
+			case EVENT_COPY:
+				delegate.copyRange(a, b, c);
+				eventCost = c*delayNs;
+				playedCount++;
+				break;
+			case EVENT_FILL:
+				delegate.fillRange(a, b, c);
+				eventCost = b*delayNs;
+				playedCount++;
+				break;
+			case EVENT_SET_RANGE:
+				int[] values = (int[])payload;
+				delegate.setRange(a, values);
+				eventCost = values.length*delayNs;
+				playedCount += values.length;
+				break;
+			//reads and compares take no time of their own,
+			//or reporting them would slow the sort down
+			case EVENT_READ:
+				delegate.read(a);
+				playedCount++;
+				break;
+			case EVENT_COMPARE:
+				delegate.compare(a, b);
+				playedCount++;
+				break;
+			case EVENT_ALLOC:
+				delegate.allocArray(a, (String)payload, b);
+				playedCount++;
+				break;
+			case EVENT_FREE:
+				delegate.freeArray(a);
+				playedCount++;
+				break;
+			//not counted, see selectArray
+			case EVENT_SELECT:
+				delegate.selectArray(a);
+				break;
+			case EVENT_DONE:
+				delegate.done();
+				finished = true;
+				break;
+			case EVENT_INIT:
+				delegate.init((int[])payload);
+				break;
+			case EVENT_LOADING:
+				delegate.loading((int[])payload, a);
+				break;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+import java.io.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Holds a single thread to a number of
+ * operations per second by making it
+ * sleep whenever it gets ahead. Up to a
+ * tenth of a second's worth can be used
+ * in a burst after a quiet spell. Sleeping
+ * in the reading thread leaves the client's
+ * data in the socket, so TCP slows the
+ * client down on its own.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class RateLimiter {
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final long BURST_NANOS = NANOS_PER_SECOND/10;
+	private final double nanosPerOperation;
+	private double allowedAt = System.nanoTime(); //when the next operation may run
+
+	/**
+	 * Constructs the limiter.
+	 *
+	 * @param perSecond Operations allowed per second
+	 */
+	public RateLimiter(int perSecond) {
+		if(perSecond <= 0) {
+			throw new IllegalArgumentException("perSecond must be positive.");
+		}
+		nanosPerOperation = (double)NANOS_PER_SECOND/perSecond;
+	}
+
+	/**
+	 * Accounts for some operations,
+	 * sleeping first if they would go
+	 * over the limit.
+	 *
+	 * @param operations How many
+	 * @throws InterruptedIOException If interrupted while sleeping
+	 */
+	public void acquire(int operations) throws InterruptedIOException {
+		long now = System.nanoTime();
+		//a quiet spell only earns a short burst
+		allowedAt = Math.max(allowedAt, now - BURST_NANOS) + operations*nanosPerOperation;
+		long wait = (long)allowedAt - now;
+		while(wait > 0) {
+			LockSupport.parkNanos(this, wait);
+			if(Thread.interrupted()) {
+				throw new InterruptedIOException("Interrupted while throttled.");
+			}
+			wait = (long)allowedAt - System.nanoTime();
+		}
+	}
+}
@@ -0,0 +1,604 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Races reference sorts on the array a
+ * client starts with, so the client's run
+ * can be scored against them no matter how
+ * far the speed slider slowed it down. The
+ * engines run in parallel on a fork-join
+ * pool of their own, each sorting its own
+ * copy, while the client sorts.
+ *
+ * The engines count sets, reads and compares
+ * the way the server counts a client's
+ * commands: a swap is two sets and no reads,
+ * and every value written to a buffer is a
+ * set too. Comparing two values is a compare
+ * whether or not they were read first. The
+ * time each counted engine takes per
+ * operation gives a cost that turns the
+ * client's counts into an estimate of how
+ * long its sort would have taken with no
+ * delay and no network in the way.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class ReferenceRace {
+	static final String[] ENGINES = {"insertion", "merge", "quick", "heap", "parallel", "radix"};
+	private static final int INSERTION = 0;
+	private static final int MERGE = 1;
+	private static final int QUICK = 2;
+	private static final int HEAP = 3;
+	private static final int PARALLEL = 4;
+	private static final int RADIX = 5;
+	//insertion sort takes quadratic time, so it sits out bigger arrays
+	static final int MAX_QUADRATIC_LENGTH = 1 << 15;
+	//every engine holds a copy at once, and merge and radix a buffer too
+	static final int MAX_LENGTH = 1 << 22;
+	private static final int RADIX_BITS = 8;
+	//engines are timed only once they have been compiled,
+	//or the first race would make every client look fast
+	private static final int WARM_UP_LENGTH = 1 << 13;
+	private static final int WARM_UP_ROUNDS = 20;
+	//one core is left for decoding and drawing the client's sort
+	private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1,
+			Math.min(ENGINES.length, Runtime.getRuntime().availableProcessors() - 1)));
+	private final Result[] results = new Result[ENGINES.length];
+	private final CompletableFuture<Void> finished;
+
+	/**
+	 * How one engine did. The counts
+	 * are -1 for engines that can't be
+	 * counted, and everything is -1 for
+	 * one that was skipped.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	public static class Result {
+		final String name;
+		final long sets, reads, compares;
+		final long nanos;
+		final String skipped; //why it didn't run, or null
+
+		/**
+		 * Constructs a result.
+		 *
+		 * @param name The engine
+		 * @param tally Its counts, or null if it can't be counted
+		 * @param nanos How long it took
+		 */
+		private Result(String name, Tally tally, long nanos) {
+			this.name = name;
+			this.sets = tally == null ? -1 : tally.sets;
+			this.reads = tally == null ? -1 : tally.reads;
+			this.compares = tally == null ? -1 : tally.compares;
+			this.nanos = nanos;
+			this.skipped = null;
+		}
+
+		/**
+		 * Constructs the result of an
+		 * engine that didn't run.
+		 *
+		 * @param name The engine
+		 * @param skipped Why not
+		 */
+		private Result(String name, String skipped) {
+			this.name = name;
+			this.sets = this.reads = this.compares = this.nanos = -1;
+			this.skipped = skipped;
+		}
+
+		/**
+		 * Returns whether the engine
+		 * ran and was counted.
+		 *
+		 * @return True if counted
+		 */
+		boolean isCounted() {
+			return skipped == null && sets >= 0;
+		}
+
+		/**
+		 * Returns the sets, reads and
+		 * compares added up.
+		 *
+		 * @return Operations
+		 */
+		long operations() {
+			return sets + reads + compares;
+		}
+	}
+
+	/**
+	 * An engine's counts.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static class Tally {
+		long sets, reads, compares;
+
+		/**
+		 * Compares two values that
+		 * were already read.
+		 *
+		 * @param x The first value
+		 * @param y The second value
+		 * @return True if x is less than y
+		 */
+		boolean less(int x, int y) {
+			compares++;
+			return x < y;
+		}
+	}
+
+	/**
+	 * An array that adds everything
+	 * done to it to a tally.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static class Counted {
+		private final int[] values;
+		private final Tally tally;
+
+		/**
+		 * Constructs the array.
+		 *
+		 * @param values What it holds
+		 * @param tally Where it counts
+		 */
+		Counted(int[] values, Tally tally) {
+			this.values = values;
+			this.tally = tally;
+		}
+
+		/**
+		 * Reads a value.
+		 *
+		 * @param i The index
+		 * @return The value
+		 */
+		int get(int i) {
+			tally.reads++;
+			return values[i];
+		}
+
+		/**
+		 * Writes a value.
+		 *
+		 * @param i The index
+		 * @param value The value
+		 */
+		void set(int i, int value) {
+			tally.sets++;
+			values[i] = value;
+		}
+
+		/**
+		 * Swaps two values.
+		 *
+		 * @param i The first index
+		 * @param j The second index
+		 */
+		void swap(int i, int j) {
+			tally.sets += 2;
+			int temp = values[i];
+			values[i] = values[j];
+			values[j] = temp;
+		}
+
+		/**
+		 * Compares two values.
+		 *
+		 * @param i The first index
+		 * @param j The second index
+		 * @return Negative, zero or positive like Integer.compare
+		 */
+		int compare(int i, int j) {
+			tally.compares++;
+			return Integer.compare(values[i], values[j]);
+		}
+
+		/**
+		 * Returns how many values it holds.
+		 *
+		 * @return The length
+		 */
+		int length() {
+			return values.length;
+		}
+	}
+
+	/**
+	 * Starts every engine on its
+	 * own copy of the array.
+	 *
+	 * @param initial The array to sort, which is copied
+	 */
+	private ReferenceRace(int[] initial) {
+		if(initial.length > MAX_LENGTH) {
+			for(int k = 0; k < ENGINES.length; k++) {
+				results[k] = new Result(ENGINES[k], "too big");
+			}
+			finished = CompletableFuture.completedFuture(null);
+			return;
+		}
+		final int[] start = initial.clone();
+		CompletableFuture<?>[] engines = new CompletableFuture<?>[ENGINES.length];
+		for(int k = 0; k < ENGINES.length; k++) {
+			final int engine = k;
+			engines[k] = WarmUp.DONE.thenRunAsync(() -> results[engine] = run(engine, start), POOL);
+		}
+		finished = CompletableFuture.allOf(engines);
+	}
+
+	/**
+	 * Returns whether races were
+	 * asked for, with --race or
+	 * -Dvisualsort.race=true.
+	 *
+	 * @return True if sessions should race
+	 */
+	public static boolean isEnabled() {
+		return Boolean.getBoolean("visualsort.race");
+	}
+
+	/**
+	 * Starts a race on an array.
+	 *
+	 * @param initial The array the client starts with, which is copied
+	 * @return The race
+	 */
+	public static ReferenceRace start(int[] initial) {
+		return new ReferenceRace(initial);
+	}
+
+	/**
+	 * Returns whether every
+	 * engine has finished.
+	 *
+	 * @return True once done
+	 */
+	public boolean isDone() {
+		return finished.isDone();
+	}
+
+	/**
+	 * Runs a task on the pool's
+	 * thread once every engine
+	 * has finished.
+	 *
+	 * @param task What to run
+	 */
+	public void whenDone(Runnable task) {
+		finished.thenRun(task);
+	}
+
+	/**
+	 * Waits for every engine to
+	 * finish and returns how they did.
+	 *
+	 * @return A result per engine, in ENGINES order
+	 */
+	public List<Result> await() {
+		finished.join();
+		return Collections.unmodifiableList(Arrays.asList(results));
+	}
+
+	/**
+	 * Returns how long an operation takes,
+	 * going by the median over the counted
+	 * engines. Only call it once done.
+	 *
+	 * @return Nanoseconds, or NaN if no engine was counted
+	 */
+	public double nanosPerOperation() {
+		double[] costs = Arrays.stream(results)
+				.filter(result -> result.isCounted() && result.operations() > 0)
+				.mapToDouble(result -> (double)result.nanos/result.operations())
+				.sorted().toArray();
+		if(costs.length == 0) {
+			return Double.NaN;
+		}
+		int mid = costs.length/2;
+		return costs.length % 2 == 1 ? costs[mid] : (costs[mid - 1] + costs[mid])/2;
+	}
+
+	/**
+	 * Estimates how long a sort with
+	 * this many operations would take
+	 * at the engines' speed. Only call
+	 * it once done.
+	 *
+	 * @param operations Sets, reads and compares added up
+	 * @return Milliseconds, or NaN if no engine was counted
+	 */
+	public double estimateMillis(long operations) {
+		return operations*nanosPerOperation()/1e6;
+	}
+
+	/**
+	 * Holds the warm-up, so that it starts
+	 * with the first race rather than when
+	 * the class is loaded, which checking
+	 * isEnabled() already does.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static class WarmUp {
+		private static final CompletableFuture<Void> DONE =
+				CompletableFuture.runAsync(ReferenceRace::warmUp, POOL);
+	}
+
+	/**
+	 * Runs every engine a few times on
+	 * small random arrays, so the JIT
+	 * has compiled them before the first
+	 * race is timed.
+	 */
+	private static void warmUp() {
+		int[] start = new SplittableRandom(0).ints(WARM_UP_LENGTH, 0, WARM_UP_LENGTH).toArray();
+		for(int round = 0; round < WARM_UP_ROUNDS; round++) {
+			for(int engine = 0; engine < ENGINES.length; engine++) {
+				run(engine, engine == INSERTION ? Arrays.copyOf(start, WARM_UP_LENGTH/8) : start);
+			}
+		}
+	}
+
+	/**
+	 * Runs one engine on a copy
+	 * of the array and times it.
+	 *
+	 * @param engine Which one
+	 * @param start The array the client starts with
+	 * @return How it did
+	 */
+	private static Result run(int engine, int[] start) {
+		String name = ENGINES[engine];
+		if(engine == INSERTION && start.length > MAX_QUADRATIC_LENGTH) {
+			return new Result(name, "too big");
+		}
+		try {
+			int[] values = start.clone();
+			Tally tally = new Tally();
+			Counted arr = new Counted(values, tally);
+			long began = System.nanoTime();
+			switch(engine) {
+				case INSERTION:
+					insertionSort(arr, tally);
+					break;
+				case MERGE:
+					mergeSort(arr, new Counted(new int[values.length], tally), 0, values.length);
+					break;
+				case QUICK:
+					quickSort(arr, tally, 0, values.length, 2*log2(values.length));
+					break;
+				case HEAP:
+					heapSort(arr, 0, values.length);
+					break;
+				case PARALLEL:
+					//the library sort can't be counted, so it
+					//only shows how fast the machine can go
+					Arrays.parallelSort(values);
+					tally = null;
+					break;
+				case RADIX:
+					radixSort(arr, tally);
+					break;
+			}
+			return new Result(name, tally, System.nanoTime() - began);
+		} catch(OutOfMemoryError oome) {
+			return new Result(name, "out of memory");
+		}
+	}
+
+	/**
+	 * Sorts by moving every value left
+	 * past the bigger ones before it.
+	 *
+	 * @param arr The array
+	 * @param tally Where value compares are counted
+	 */
+	private static void insertionSort(Counted arr, Tally tally) {
+		for(int i = 1; i < arr.length(); i++) {
+			int key = arr.get(i);
+			int j = i - 1;
+			while(j >= 0) {
+				int value = arr.get(j);
+				if(!tally.less(key, value)) {
+					break;
+				}
+				arr.set(j + 1, value);
+				j--;
+			}
+			if(j + 1 != i) {
+				arr.set(j + 1, key);
+			}
+		}
+	}
+
+	/**
+	 * Sorts a range by sorting both halves
+	 * and merging them into a buffer, which
+	 * is then copied back.
+	 *
+	 * @param arr The array
+	 * @param buffer A buffer as long as the array
+	 * @param start The first index
+	 * @param end The index after the last
+	 */
+	private static void mergeSort(Counted arr, Counted buffer, int start, int end) {
+		if(end - start < 2) {
+			return;
+		}
+		int mid = (start + end) >>> 1;
+		mergeSort(arr, buffer, start, mid);
+		mergeSort(arr, buffer, mid, end);
+		int left = start, right = mid;
+		for(int i = start; i < end; i++) {
+			if(right >= end || (left < mid && arr.compare(left, right) <= 0)) {
+				buffer.set(i, arr.get(left++));
+			} else {
+				buffer.set(i, arr.get(right++));
+			}
+		}
+		for(int i = start; i < end; i++) {
+			arr.set(i, buffer.get(i));
+		}
+	}
+
+	/**
+	 * Sorts a range by partitioning it around
+	 * its middle value, recursing into the
+	 * smaller side and looping on the bigger
+	 * one. Ranges that keep splitting badly
+	 * are heap sorted instead, so no array
+	 * makes it take quadratic time.
+	 *
+	 * @param arr The array
+	 * @param tally Where value compares are counted
+	 * @param start The first index
+	 * @param end The index after the last
+	 * @param depth How many more bad splits are allowed
+	 */
+	private static void quickSort(Counted arr, Tally tally, int start, int end, int depth) {
+		while(end - start > 1) {
+			if(depth-- == 0) {
+				heapSort(arr, start, end);
+				return;
+			}
+			int pivot = arr.get((start + end) >>> 1);
+			int i = start, j = end - 1;
+			while(i <= j) {
+				while(tally.less(arr.get(i), pivot)) {
+					i++;
+				}
+				while(tally.less(pivot, arr.get(j))) {
+					j--;
+				}
+				if(i <= j) {
+					arr.swap(i++, j--);
+				}
+			}
+			//now start..j and i..end are left
+			if(j + 1 - start < end - i) {
+				quickSort(arr, tally, start, j + 1, depth);
+				start = i;
+			} else {
+				quickSort(arr, tally, i, end, depth);
+				end = j + 1;
+			}
+		}
+	}
+
+	/**
+	 * Sorts a range by building a max heap
+	 * in it and moving the top to the end
+	 * one value at a time.
+	 *
+	 * @param arr The array
+	 * @param start The first index
+	 * @param end The index after the last
+	 */
+	private static void heapSort(Counted arr, int start, int end) {
+		int length = end - start;
+		for(int root = length/2 - 1; root >= 0; root--) {
+			siftDown(arr, start, root, length);
+		}
+		for(int last = length - 1; last > 0; last--) {
+			arr.swap(start, start + last);
+			siftDown(arr, start, 0, last);
+		}
+	}
+
+	/**
+	 * Moves a value down the heap until
+	 * neither child is bigger.
+	 *
+	 * @param arr The array
+	 * @param start Where the heap starts
+	 * @param root The value's place in the heap
+	 * @param length How big the heap is
+	 */
+	private static void siftDown(Counted arr, int start, int root, int length) {
+		while(true) {
+			int child = 2*root + 1;
+			if(child >= length) {
+				return;
+			}
+			if(child + 1 < length && arr.compare(start + child, start + child + 1) < 0) {
+				child++;
+			}
+			if(arr.compare(start + root, start + child) >= 0) {
+				return;
+			}
+			arr.swap(start + root, start + child);
+			root = child;
+		}
+	}
+
+	/**
+	 * Sorts by the bytes of the values,
+	 * lowest first, counting how many of
+	 * each there are and then placing them
+	 * into a buffer. Values are never
+	 * negative, and bytes above the
+	 * biggest value are skipped.
+	 *
+	 * @param arr The array
+	 * @param tally Where the buffer counts
+	 */
+	private static void radixSort(Counted arr, Tally tally) {
+		int length = arr.length();
+		int max = 0;
+		for(int i = 0; i < length; i++) {
+			max = Math.max(max, arr.get(i));
+		}
+		Counted from = arr;
+		Counted to = new Counted(new int[length], tally);
+		int[] counts = new int[1 << RADIX_BITS];
+		for(int shift = 0; shift < Integer.SIZE && (max >>> shift) > 0; shift += RADIX_BITS) {
+			Arrays.fill(counts, 0);
+			for(int i = 0; i < length; i++) {
+				counts[(from.get(i) >>> shift) & (counts.length - 1)]++;
+			}
+			//each count becomes where its bucket starts
+			int total = 0;
+			for(int b = 0; b < counts.length; b++) {
+				int count = counts[b];
+				counts[b] = total;
+				total += count;
+			}
+			for(int i = 0; i < length; i++) {
+				int value = from.get(i);
+				to.set(counts[(value >>> shift) & (counts.length - 1)]++, value);
+			}
+			Counted done = from;
+			from = to;
+			to = done;
+		}
+		if(from != arr) {
+			for(int i = 0; i < length; i++) {
+				arr.set(i, from.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Returns the base 2 logarithm
+	 * of a length, rounded down.
+	 *
+	 * @param length The length, which may be 0
+	 * @return The logarithm, 0 for lengths below 2
+	 */
+	private static int log2(int length) {
+		return length < 2 ? 0 : 31 - Integer.numberOfLeadingZeros(length);
+	}
+}
@@ -1,4 +1,6 @@
 import javax.swing.*;
+import java.util.*;
+import java.io.*;
 
 /**
  * Works to test the
@@ -12,10 +14,131 @@ public class Runner {
 	/**
 	 * Creates a new MainFrame class
 	 * and shows its gui.
+	 * Pass --sessions N to let up to
+	 * N clients connect at once,
+	 * --record DIR to save every session
+	 * as a trace in DIR, or --replay FILE
+	 * to play back a trace instead of
+	 * starting the server. --headless
+	 * skips the GUI entirely and writes
+	 * a line of stats per session to
+	 * stdout, or to --stats FILE.
+	 * --race races reference sorts on
+	 * every session's array and shows
+	 * how the client did next to them.
+	 * --export PATH draws every session,
+	 * or the trace given with --replay,
+	 * without a display and saves it as a
+	 * GIF, or PNGs with --export-format png,
+	 * one frame every --frame-step commands
+	 * at --frame-size WIDTHxHEIGHT. Given a
+	 * directory of traces, --replay exports
+	 * every one of them into PATH.
+	 * --render active draws frames
+	 * straight to the screen instead of
+	 * through Swing, and --render opengl
+	 * also asks Java2D for its OpenGL
+	 * pipeline. --config FILE reads server
+	 * settings from a properties file, and
+	 * each one can also be given as a flag,
+	 * such as --port 25671, which wins
+	 * over the file.
 	 *
 	 * @param args Command-line arguments
 	 */
 	public static void main(String[] args) {
+		int maxSessions = 1;
+		File traceDirectory = null;
+		File replayFile = null;
+		boolean headless = false;
+		File statsFile = null;
+		File configFile = null;
+		File exportPath = null;
+		String exportFormat = FrameEncoder.GIF;
+		int frameStep = FrameExporter.DEFAULT_FRAME_STEP;
+		int[] frameSize = {FrameExporter.DEFAULT_WIDTH, FrameExporter.DEFAULT_HEIGHT};
+		Map<String, String> settings = new LinkedHashMap<>();
+		for(int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+				case "--sessions":
+					maxSessions = Integer.parseInt(requireValue(args, ++i));
+					break;
+				case "--record":
+					traceDirectory = new File(requireValue(args, ++i));
+					break;
+				case "--replay":
+					replayFile = new File(requireValue(args, ++i));
+					break;
+				case "--headless":
+					headless = true;
+					break;
+				case "--stats":
+					statsFile = new File(requireValue(args, ++i));
+					break;
+				case "--render":
+					if(!chooseRenderer(requireValue(args, ++i))) {
+						return;
+					}
+					break;
+				case "--config":
+					configFile = new File(requireValue(args, ++i));
+					break;
+				case "--race":
+					System.setProperty("visualsort.race", "true");
+					break;
+				case "--export":
+					exportPath = new File(requireValue(args, ++i));
+					break;
+				case "--export-format":
+					exportFormat = requireValue(args, ++i);
+					if(!exportFormat.equals(FrameEncoder.GIF) && !exportFormat.equals(FrameEncoder.PNG)) {
+						System.err.println("Unknown export format: " + exportFormat);
+						return;
+					}
+					break;
+				case "--frame-step":
+					frameStep = Integer.parseInt(requireValue(args, ++i));
+					break;
+				case "--frame-size":
+					frameSize = parseSize(requireValue(args, ++i));
+					if(frameSize == null) {
+						System.err.println("Frame size must look like 800x450.");
+						return;
+					}
+					break;
+				default:
+					if(args[i].startsWith("--") && ServerConfig.isOption(args[i].substring(2))) {
+						settings.put(args[i].substring(2), requireValue(args, ++i));
+						break;
+					}
+					System.err.println("Unknown argument: " + args[i]);
+					return;
+			}
+		}
+
+		ServerConfig config = new ServerConfig();
+		try {
+			if(configFile != null) {
+				config.load(configFile);
+			}
+			for(Map.Entry<String, String> setting : settings.entrySet()) {
+				config.set(setting.getKey(), setting.getValue());
+			}
+		} catch(IOException|IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+
+		if(exportPath != null) {
+			runExport(maxSessions, config, replayFile, exportPath, exportFormat,
+					frameStep, frameSize[0], frameSize[1]);
+			return;
+		}
+
+		if(headless) {
+			runHeadless(maxSessions, config, traceDirectory, replayFile, statsFile);
+			return;
+		}
 
 		//set system look and feel
 		try {
@@ -27,12 +150,248 @@ public class Runner {
 			e.printStackTrace();
 		}
 
-		final MainFrame frame = new MainFrame();
+		if(replayFile != null) {
+			replay(replayFile);
+			return;
+		}
+
+		final MainFrame frame = new MainFrame(maxSessions);
 		UserPreferences guiPrefs = frame.getUserPreferences();
-		final ArrayServer server = new ArrayServer(frame.getArrayInterface(), guiPrefs);
+		final ArrayServer server = new ArrayServer(frame.getSessionProvider(),
+				guiPrefs, maxSessions, config);
+		server.setTraceDirectory(traceDirectory);
 		frame.setConnection(server);
 		frame.show();
 		
 		server.run(); //do its thing
 	}
+
+	/**
+	 * Picks how canvases are drawn. This
+	 * has to happen before AWT starts,
+	 * since Java2D only reads its pipeline
+	 * settings once. Pipelines that turn
+	 * out to be unavailable fall back to
+	 * software rendering on their own.
+	 *
+	 * @param mode swing, active or opengl
+	 * @return False if the mode is unknown
+	 */
+	private static boolean chooseRenderer(String mode) {
+		switch(mode) {
+			case "swing":
+				return true;
+			case "opengl":
+				setDefault("sun.java2d.opengl", "true");
+				break;
+			case "active":
+				//the default on Linux, but ask for it in case
+				//an older JDK or the environment turned it off
+				setDefault("sun.java2d.xrender", "true");
+				break;
+			default:
+				System.err.println("Unknown renderer: " + mode);
+				return false;
+		}
+		System.setProperty("visualsort.activeRendering", "true");
+		return true;
+	}
+
+	/**
+	 * Sets a system property unless it
+	 * was already given on the command line.
+	 *
+	 * @param key The property
+	 * @param value Its value
+	 */
+	private static void setDefault(String key, String value) {
+		if(System.getProperty(key) == null) {
+			System.setProperty(key, value);
+		}
+	}
+
+	/**
+	 * Runs the server, or plays back a
+	 * trace, without touching Swing.
+	 *
+	 * @param maxSessions How many clients may connect at once
+	 * @param config The server settings
+	 * @param traceDirectory Where to record sessions, or null
+	 * @param replayFile The trace to play back, or null to serve
+	 * @param statsFile Where to append stats, or null for stdout
+	 */
+	private static void runHeadless(int maxSessions, ServerConfig config, File traceDirectory,
+			File replayFile, File statsFile) {
+		System.setProperty("java.awt.headless", "true");
+		UserPreferences fullSpeed = () -> 0;
+		PrintStream stats = System.out;
+		try {
+			if(statsFile != null) {
+				boolean fresh = statsFile.length() == 0;
+				stats = new PrintStream(new BufferedOutputStream(
+						new FileOutputStream(statsFile, true)), true, "UTF-8");
+				if(fresh) {
+					stats.println(HeadlessSession.statsHeader());
+				}
+			} else {
+				stats.println(HeadlessSession.statsHeader());
+			}
+
+			if(replayFile != null) {
+				HeadlessSession session = new HeadlessSession(replayFile.getName(), stats,
+						config.getVirtualClock());
+				try (TracePlayer player = new TracePlayer(replayFile, session, fullSpeed)) {
+					player.setStopAtEnd(true);
+					player.run();
+				}
+				session.close();
+				return;
+			}
+
+			final ArrayServer server = new ArrayServer(new HeadlessSessionProvider(stats),
+					fullSpeed, maxSessions, config);
+			server.setTraceDirectory(traceDirectory);
+			server.run();
+		} catch(IOException ioe) {
+			System.err.println(ioe.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Saves sessions as frames without
+	 * a display: the trace, every trace
+	 * in a directory, or every client's
+	 * session if there is no trace.
+	 *
+	 * @param maxSessions How many clients may connect at once
+	 * @param config The server settings
+	 * @param replay The trace or directory of traces, or null to serve
+	 * @param export Where the frames go
+	 * @param format FrameEncoder.GIF or FrameEncoder.PNG
+	 * @param frameStep Commands per frame
+	 * @param width Width of the frames
+	 * @param height Height of the frames
+	 */
+	private static void runExport(int maxSessions, ServerConfig config, File replay, File export,
+			String format, int frameStep, int width, int height) {
+		System.setProperty("java.awt.headless", "true");
+		if(frameStep <= 0) {
+			System.err.println("Frame step must be positive.");
+			return;
+		}
+		try {
+			if(replay == null) {
+				if(!export.isDirectory() && !export.mkdirs()) {
+					throw new IOException("Could not create " + export);
+				}
+				final ArrayServer server = new ArrayServer(
+						new ExportSessionProvider(export, format, frameStep, width, height),
+						() -> 0, maxSessions, config);
+				server.run();
+			} else if(replay.isDirectory()) {
+				File[] traces = replay.listFiles((dir, name) -> name.endsWith(".vst"));
+				if(traces == null) {
+					throw new IOException("Could not list " + replay);
+				}
+				Arrays.sort(traces);
+				if(!export.isDirectory() && !export.mkdirs()) {
+					throw new IOException("Could not create " + export);
+				}
+				for(File trace : traces) {
+					String name = trace.getName().substring(0, trace.getName().length() - 4);
+					exportTrace(trace, new File(export, format.equals(FrameEncoder.GIF)
+							? name + ".gif" : name), format, frameStep, width, height);
+				}
+			} else {
+				exportTrace(replay, export, format, frameStep, width, height);
+			}
+		} catch(IOException ioe) {
+			System.err.println(ioe.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Plays a trace back at full
+	 * speed into a FrameExporter.
+	 *
+	 * @param trace The trace file
+	 * @param target The GIF file, or the directory for the PNGs
+	 * @param format FrameEncoder.GIF or FrameEncoder.PNG
+	 * @param frameStep Commands per frame
+	 * @param width Width of the frames
+	 * @param height Height of the frames
+	 * @throws IOException If reading the trace or writing the frames fails
+	 */
+	private static void exportTrace(File trace, File target, String format, int frameStep,
+			int width, int height) throws IOException {
+		FrameExporter exporter = new FrameExporter(target, format, frameStep, width, height);
+		try (TracePlayer player = new TracePlayer(trace, exporter, () -> 0)) {
+			player.setStopAtEnd(true);
+			player.run();
+		} finally {
+			exporter.close();
+		}
+		System.out.println("Exported " + target + ".");
+	}
+
+	/**
+	 * Parses a size like 800x450.
+	 *
+	 * @param size The size
+	 * @return The width and height, or null if it isn't a positive size
+	 */
+	private static int[] parseSize(String size) {
+		String[] parts = size.split("x");
+		try {
+			if(parts.length == 2) {
+				int width = Integer.parseInt(parts[0]);
+				int height = Integer.parseInt(parts[1]);
+				if(width > 0 && height > 0) {
+					return new int[] {width, height};
+				}
+			}
+		} catch(NumberFormatException nfe) {
+			//not a size
+		}
+		return null;
+	}
+
+	/**
+	 * Shows a recorded trace in
+	 * the GUI instead of serving
+	 * clients.
+	 *
+	 * @param file The trace file
+	 */
+	private static void replay(File file) {
+		final MainFrame frame = new MainFrame();
+		try (
+			TracePlayer player = new TracePlayer(file, frame.getArrayInterface(),
+					frame.getUserPreferences());
+		) {
+			frame.addReplayControls(player);
+			frame.show();
+			player.run();
+		} catch(IOException ioe) {
+			System.err.println(ioe.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Returns the value that follows a
+	 * flag, failing if there isn't one.
+	 *
+	 * @param args Command-line arguments
+	 * @param i Index of the value
+	 * @return The value
+	 */
+	private static String requireValue(String[] args, int i) {
+		if(i >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+		}
+		return args[i];
+	}
 }
@@ -0,0 +1,295 @@
+import java.util.*;
+import java.io.*;
+import java.net.*;
+
+/**
+ * Holds the settings the server runs
+ * with. Each one has a name that works
+ * both as a key in a properties file and,
+ * with -- in front, as a command-line
+ * flag, and a default that matches how
+ * the server behaved before it could be
+ * configured.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class ServerConfig {
+	public static final int DEFAULT_PORT = 25671;
+	public static final int DEFAULT_BACKLOG = 50;
+	public static final int DEFAULT_IDLE_TIMEOUT = 300;
+	//the largest int[] most JVMs will hand out
+	public static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+	//every setting, in the order they are documented
+	private static final List<String> OPTIONS = Collections.unmodifiableList(Arrays.asList(
+			"port", "bind", "backlog", "max-array-length", "max-command-rate",
+			"receive-buffer", "send-buffer", "tcp-no-delay", "idle-timeout",
+			"set-cost", "read-cost", "compare-cost", "mark-cost"));
+	private int port = DEFAULT_PORT;
+	private InetAddress bindAddress; //null for every interface
+	private int backlog = DEFAULT_BACKLOG;
+	private int maxArrayLength = ArrayGenerator.MAX_LENGTH;
+	private int maxCommandRate; //0 for no limit
+	private int receiveBufferSize; //0 for the system's choice
+	private int sendBufferSize;
+	private boolean tcpNoDelay = true;
+	private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	//virtual nanoseconds per command
+	private int setCost = VirtualClock.DEFAULT_SET_NANOS;
+	private int readCost = VirtualClock.DEFAULT_READ_NANOS;
+	private int compareCost = VirtualClock.DEFAULT_COMPARE_NANOS;
+	private int markCost = VirtualClock.DEFAULT_MARK_NANOS;
+
+	/**
+	 * Returns whether a name is one
+	 * of the settings.
+	 *
+	 * @param name The name, without --
+	 * @return True if it can be set
+	 */
+	public static boolean isOption(String name) {
+		return OPTIONS.contains(name);
+	}
+
+	/**
+	 * Reads settings from a properties
+	 * file, overwriting any set before.
+	 *
+	 * @param file The file
+	 * @throws IOException If it can't be read
+	 * @throws IllegalArgumentException If a setting is unknown or invalid
+	 */
+	public void load(File file) throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+			properties.load(reader);
+		}
+		for(String name : properties.stringPropertyNames()) {
+			set(name, properties.getProperty(name).trim());
+		}
+	}
+
+	/**
+	 * Changes a setting by name.
+	 *
+	 * @param name The setting, without --
+	 * @param value Its new value
+	 * @throws IllegalArgumentException If the setting is unknown or the value invalid
+	 */
+	public void set(String name, String value) {
+		switch(name) {
+			case "port":
+				port = parse(name, value, 0, 65535);
+				break;
+			case "bind":
+				bindAddress = parseAddress(value);
+				break;
+			case "backlog":
+				backlog = parse(name, value, 1, Integer.MAX_VALUE);
+				break;
+			case "max-array-length":
+				maxArrayLength = parse(name, value, 1, MAX_ARRAY_LENGTH);
+				break;
+			case "max-command-rate":
+				maxCommandRate = parse(name, value, 0, Integer.MAX_VALUE);
+				break;
+			case "receive-buffer":
+				receiveBufferSize = parse(name, value, 0, Integer.MAX_VALUE);
+				break;
+			case "send-buffer":
+				sendBufferSize = parse(name, value, 0, Integer.MAX_VALUE);
+				break;
+			case "tcp-no-delay":
+				if(!value.equals("true") && !value.equals("false")) {
+					throw new IllegalArgumentException("tcp-no-delay must be true or false, not " + value);
+				}
+				tcpNoDelay = Boolean.parseBoolean(value);
+				break;
+			case "idle-timeout":
+				idleTimeout = parse(name, value, 0, Integer.MAX_VALUE);
+				break;
+			case "set-cost":
+				setCost = parse(name, value, 0, Integer.MAX_VALUE);
+				break;
+			case "read-cost":
+				readCost = parse(name, value, 0, Integer.MAX_VALUE);
+				break;
+			case "compare-cost":
+				compareCost = parse(name, value, 0, Integer.MAX_VALUE);
+				break;
+			case "mark-cost":
+				markCost = parse(name, value, 0, Integer.MAX_VALUE);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown server setting: " + name);
+		}
+	}
+
+	/**
+	 * Returns the port to listen on,
+	 * 0 for any free one.
+	 *
+	 * @return The port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Returns the address to listen on,
+	 * null for every interface.
+	 *
+	 * @return The address
+	 */
+	public InetAddress getBindAddress() {
+		return bindAddress;
+	}
+
+	/**
+	 * Returns how many connections may
+	 * wait to be accepted. The system
+	 * may use a smaller number.
+	 *
+	 * @return The backlog
+	 */
+	public int getBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * Returns the longest array a client
+	 * may upload or ask to be generated.
+	 *
+	 * @return Elements
+	 */
+	public int getMaxArrayLength() {
+		return maxArrayLength;
+	}
+
+	/**
+	 * Returns how many commands a session
+	 * may send per second, counting each
+	 * set in a batch, or 0 for no limit.
+	 *
+	 * @return Commands per second
+	 */
+	public int getMaxCommandRate() {
+		return maxCommandRate;
+	}
+
+	/**
+	 * Returns the size asked for the
+	 * socket receive buffers, or 0 to
+	 * leave it to the system.
+	 *
+	 * @return Bytes
+	 */
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * Returns the size asked for the
+	 * socket send buffers, or 0 to
+	 * leave it to the system.
+	 *
+	 * @return Bytes
+	 */
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	/**
+	 * Returns whether Nagle's algorithm
+	 * is turned off for clients.
+	 *
+	 * @return True to send small writes right away
+	 */
+	public boolean getTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	/**
+	 * Returns how long the server waits
+	 * on a silent client before hanging
+	 * up, or 0 to wait forever.
+	 *
+	 * @return Seconds
+	 */
+	public int getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Returns the clock that times
+	 * sessions by what their commands
+	 * cost.
+	 *
+	 * @return The clock
+	 */
+	public VirtualClock getVirtualClock() {
+		return new VirtualClock(setCost, readCost, compareCost, markCost);
+	}
+
+	/**
+	 * Lists every setting and its
+	 * value, for the server log.
+	 *
+	 * @return The settings
+	 */
+	@Override
+	public String toString() {
+		return "port=" + port
+				+ ", bind=" + (bindAddress == null ? "*" : bindAddress.getHostAddress())
+				+ ", backlog=" + backlog
+				+ ", max-array-length=" + maxArrayLength
+				+ ", max-command-rate=" + maxCommandRate
+				+ ", receive-buffer=" + receiveBufferSize
+				+ ", send-buffer=" + sendBufferSize
+				+ ", tcp-no-delay=" + tcpNoDelay
+				+ ", idle-timeout=" + idleTimeout
+				+ ", " + getVirtualClock();
+	}
+
+	/**
+	 * Parses a whole number in a range.
+	 *
+	 * @param name The setting, for the error message
+	 * @param value The text
+	 * @param min The smallest allowed
+	 * @param max The largest allowed
+	 * @return The number
+	 * @throws IllegalArgumentException If it isn't a number in range
+	 */
+	private static int parse(String name, String value, int min, int max) {
+		int parsed;
+		try {
+			parsed = Integer.parseInt(value);
+		} catch(NumberFormatException nfe) {
+			throw new IllegalArgumentException(name + " must be a number, not " + value);
+		}
+		if(parsed < min || parsed > max) {
+			throw new IllegalArgumentException(name + " must be between " + min + " and " + max);
+		}
+		return parsed;
+	}
+
+	/**
+	 * Looks up the address to bind to,
+	 * where * means every interface.
+	 *
+	 * @param value A host name or address
+	 * @return The address, or null
+	 * @throws IllegalArgumentException If it can't be resolved
+	 */
+	private static InetAddress parseAddress(String value) {
+		if(value.isEmpty() || value.equals("*")) {
+			return null;
+		}
+		try {
+			return InetAddress.getByName(value);
+		} catch(UnknownHostException uhe) {
+			throw new IllegalArgumentException("Unknown bind address: " + value);
+		}
+	}
+}
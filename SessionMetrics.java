@@ -0,0 +1,510 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counts what happens during one
+ * client session, from the commands
+ * read off the network to the frames
+ * drawn, so that a slow visualization
+ * can be blamed on the right part.
+ * The reading thread counts into plain
+ * fields and publishes them to the shared
+ * counters now and then, so counting
+ * costs next to nothing per command.
+ *
+ * The time from decoding to pixels is
+ * sampled: every so many sets read, the
+ * number of sets so far and the time are
+ * queued, and the first frame that has
+ * drawn that many sets records how long
+ * it took.
+ *
+ * Every command also adds its cost on
+ * a virtual clock, and the time spent
+ * waiting on the client is added up
+ * from when it starts sending commands.
+ *
+ * Reads and compares are always counted,
+ * but once they arrive faster than a
+ * frame could show them only every
+ * so many are passed on to be drawn.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class SessionMetrics implements SessionMetricsMBean {
+	private static final long RATE_WINDOW_NS = 1000000000L;
+	private static final int SAMPLE_EVERY_SETS = 32;
+	private static final int MAX_SAMPLES_IN_FLIGHT = 1024;
+	//reads and compares drawn per second before sampling starts
+	private static final double MAX_DRAWN_ACCESSES_PER_SECOND = 100000;
+	//how many accesses go by between rate checks, a power of two
+	private static final int ACCESS_RATE_CHECK = 256;
+	private final String client;
+	private final VirtualClock clock;
+	private final LongAdder virtualNanos = new LongAdder();
+	private volatile long clientNanos;
+	private long waitedBeforeCommands; //only touched by the reading thread
+	private final LongAdder sets = new LongAdder();
+	private final LongAdder marks = new LongAdder();
+	private final LongAdder clears = new LongAdder();
+	private final LongAdder points = new LongAdder();
+	private final LongAdder reads = new LongAdder();
+	private final LongAdder compares = new LongAdder();
+	private final LongAdder commands = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder frames = new LongAdder();
+	private final LatencyHistogram frameTimes = new LatencyHistogram();
+	private final LatencyHistogram decodeToPixels = new LatencyHistogram();
+	private final EventRing samples = new EventRing(MAX_SAMPLES_IN_FLIGHT);
+	private final EventRing.Handler sampleTaker = this::takeSample;
+	private long setsDecoded; //only touched by the reading thread
+	private long pendingSets, pendingMarks, pendingClears, pendingPoints, pendingCommands;
+	private long pendingReads, pendingCompares;
+	private long accessesDecoded;
+	private int accessStride = 1; //every how many accesses one is drawn
+	private long strideNanos = System.nanoTime();
+	private long strideAccesses;
+	private long publishedBytes;
+	private int setsDrawn; //the rest only touched by the drawing thread
+	private boolean holdingSample;
+	private int sampleSet;
+	private long sampleNanos;
+	private long rateSampleNanos = System.nanoTime();
+	private long rateSampleCommands;
+	private double commandsPerSecond;
+
+	/**
+	 * Constructs empty metrics that
+	 * use the default costs.
+	 *
+	 * @param client The client's address
+	 */
+	public SessionMetrics(String client) {
+		this(client, new VirtualClock());
+	}
+
+	/**
+	 * Constructs empty metrics.
+	 *
+	 * @param client The client's address
+	 * @param clock What every command costs
+	 */
+	public SessionMetrics(String client, VirtualClock clock) {
+		this.client = client;
+		this.clock = clock;
+	}
+
+	/**
+	 * Starts timing the client from
+	 * its first command, leaving out
+	 * the handshake and the array.
+	 * Only call from the reading thread.
+	 *
+	 * @param waitedNanos How long reads have waited on the client so far
+	 */
+	public void commandsStarted(long waitedNanos) {
+		waitedBeforeCommands = waitedNanos;
+	}
+
+	/**
+	 * Counts sets that were just read,
+	 * queueing a decode to pixels sample
+	 * every so often. Only call from
+	 * the reading thread.
+	 *
+	 * @param count The number of sets
+	 */
+	public void setsDecoded(int count) {
+		pendingSets += count;
+		long before = setsDecoded;
+		setsDecoded += count;
+		if(before/SAMPLE_EVERY_SETS != setsDecoded/SAMPLE_EVERY_SETS) {
+			//dropped if the frames are far enough
+			//behind that the queue is full
+			long now = System.nanoTime();
+			samples.offer(0, (int)setsDecoded, (int)(now >>> 32), (int)now, null);
+		}
+	}
+
+	/**
+	 * Counts a marked region read.
+	 * Only call from the reading thread.
+	 */
+	public void markDecoded() {
+		pendingMarks++;
+	}
+
+	/**
+	 * Counts a region clear read.
+	 * Only call from the reading thread.
+	 */
+	public void clearDecoded() {
+		pendingClears++;
+	}
+
+	/**
+	 * Counts a point read.
+	 * Only call from the reading thread.
+	 */
+	public void pointDecoded() {
+		pendingPoints++;
+	}
+
+	/**
+	 * Counts a read and says whether
+	 * to pass it on to be drawn.
+	 * Only call from the reading thread.
+	 *
+	 * @return True if it should be drawn
+	 */
+	public boolean readDecoded() {
+		pendingReads++;
+		return accessDecoded();
+	}
+
+	/**
+	 * Counts a compare and says whether
+	 * to pass it on to be drawn.
+	 * Only call from the reading thread.
+	 *
+	 * @return True if it should be drawn
+	 */
+	public boolean compareDecoded() {
+		pendingCompares++;
+		return accessDecoded();
+	}
+
+	/**
+	 * Picks every so many reads and
+	 * compares to be drawn, checking
+	 * now and then how fast they come
+	 * in so that the ones drawn stay
+	 * under the limit.
+	 *
+	 * @return True if this one should be drawn
+	 */
+	private boolean accessDecoded() {
+		long n = ++accessesDecoded;
+		if((n & (ACCESS_RATE_CHECK - 1)) == 0) {
+			long now = System.nanoTime();
+			double rate = (n - strideAccesses)*1e9/Math.max(now - strideNanos, 1);
+			accessStride = (int)Math.max(1, Math.min(Math.ceil(rate/MAX_DRAWN_ACCESSES_PER_SECOND), Integer.MAX_VALUE));
+			strideNanos = now;
+			strideAccesses = n;
+		}
+		return n % accessStride == 0;
+	}
+
+	/**
+	 * Counts a command read.
+	 * Only call from the reading thread.
+	 */
+	public void commandDecoded() {
+		pendingCommands++;
+	}
+
+	/**
+	 * Adds what the reading thread counted
+	 * since last time to the counters
+	 * everyone else sees. Only call from
+	 * the reading thread.
+	 *
+	 * @param bytesConsumed Bytes read from the client so far
+	 * @param waitedNanos How long reads have waited on the client so far
+	 */
+	public void publish(long bytesConsumed, long waitedNanos) {
+		virtualNanos.add(clock.cost(pendingSets, pendingReads, pendingCompares,
+				pendingMarks + pendingClears + pendingPoints));
+		clientNanos = waitedNanos - waitedBeforeCommands;
+		sets.add(pendingSets);
+		marks.add(pendingMarks);
+		clears.add(pendingClears);
+		points.add(pendingPoints);
+		reads.add(pendingReads);
+		compares.add(pendingCompares);
+		commands.add(pendingCommands);
+		bytesRead.add(bytesConsumed - publishedBytes);
+		pendingSets = pendingMarks = pendingClears = pendingPoints = pendingCommands = 0;
+		pendingReads = pendingCompares = 0;
+		publishedBytes = bytesConsumed;
+	}
+
+	/**
+	 * Records a frame that was just drawn,
+	 * finishing the decode to pixels sample
+	 * if the frame includes it. Only call
+	 * from the drawing thread.
+	 *
+	 * @param setsApplied Sets drawn for the first time
+	 * @param renderNanos How long drawing took
+	 */
+	public void frameDrawn(int setsApplied, long renderNanos) {
+		frames.increment();
+		frameTimes.record(renderNanos);
+		setsDrawn += setsApplied;
+		long now = System.nanoTime();
+		while(holdingSample || samples.drain(sampleTaker, 1) > 0) {
+			//set counts wrap around, so compare the difference
+			if(setsDrawn - sampleSet < 0) {
+				break;
+			}
+			decodeToPixels.record(now - sampleNanos);
+			holdingSample = false;
+		}
+	}
+
+	/**
+	 * Holds on to the oldest sample
+	 * until a frame has drawn it.
+	 *
+	 * @param type Unused
+	 * @param set Number of sets read when it was taken
+	 * @param nanosHigh High half of when it was taken
+	 * @param nanosLow Low half of when it was taken
+	 * @param payload Unused
+	 */
+	private void takeSample(int type, int set, int nanosHigh, int nanosLow, Object payload) {
+		sampleSet = set;
+		sampleNanos = ((long)nanosHigh << 32) | (nanosLow & 0xFFFFFFFFL);
+		holdingSample = true;
+	}
+
+	/**
+	 * Returns the histogram of
+	 * frame times in ns.
+	 *
+	 * @return The frame times
+	 */
+	public LatencyHistogram getFrameTimes() {
+		return frameTimes;
+	}
+
+	/**
+	 * Returns the histogram of times
+	 * from decode to pixels in ns.
+	 *
+	 * @return The latencies
+	 */
+	public LatencyHistogram getDecodeToPixels() {
+		return decodeToPixels;
+	}
+
+	/**
+	 * Returns the client the
+	 * metrics belong to.
+	 *
+	 * @return The client's address
+	 */
+	@Override
+	public String getClient() {
+		return client;
+	}
+
+	/**
+	 * Returns the number of sets read.
+	 *
+	 * @return The set count
+	 */
+	@Override
+	public long getSets() {
+		return sets.sum();
+	}
+
+	/**
+	 * Returns the number of marked
+	 * regions read.
+	 *
+	 * @return The mark count
+	 */
+	@Override
+	public long getMarks() {
+		return marks.sum();
+	}
+
+	/**
+	 * Returns the number of region
+	 * clears read.
+	 *
+	 * @return The clear count
+	 */
+	@Override
+	public long getClears() {
+		return clears.sum();
+	}
+
+	/**
+	 * Returns the number of points read.
+	 *
+	 * @return The point count
+	 */
+	@Override
+	public long getPoints() {
+		return points.sum();
+	}
+
+	/**
+	 * Returns the number of reads
+	 * the client reported.
+	 *
+	 * @return The read count
+	 */
+	@Override
+	public long getReads() {
+		return reads.sum();
+	}
+
+	/**
+	 * Returns the number of compares
+	 * the client reported.
+	 *
+	 * @return The compare count
+	 */
+	@Override
+	public long getCompares() {
+		return compares.sum();
+	}
+
+	/**
+	 * Returns the number of commands
+	 * read, counting a batch once.
+	 *
+	 * @return The command count
+	 */
+	@Override
+	public long getCommands() {
+		return commands.sum();
+	}
+
+	/**
+	 * Returns what the commands read
+	 * so far cost on the virtual clock.
+	 *
+	 * @return Virtual nanoseconds
+	 */
+	@Override
+	public long getVirtualNanos() {
+		return virtualNanos.sum();
+	}
+
+	/**
+	 * Returns how long the server spent
+	 * waiting on the client since its
+	 * first command, which is the time the
+	 * client took to work out what to send
+	 * plus any network delay.
+	 *
+	 * @return Nanoseconds
+	 */
+	@Override
+	public long getClientNanos() {
+		return clientNanos;
+	}
+
+	/**
+	 * Returns the number of bytes of
+	 * commands read from the client.
+	 *
+	 * @return Bytes read
+	 */
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	/**
+	 * Returns the commands read per second,
+	 * working it out again once the last
+	 * result is over a second old.
+	 *
+	 * @return The command rate
+	 */
+	@Override
+	public synchronized double getCommandsPerSecond() {
+		long now = System.nanoTime();
+		long elapsed = now - rateSampleNanos;
+		if(elapsed >= RATE_WINDOW_NS) {
+			long total = commands.sum();
+			commandsPerSecond = (total - rateSampleCommands) * 1e9 / elapsed;
+			rateSampleCommands = total;
+			rateSampleNanos = now;
+		}
+		return commandsPerSecond;
+	}
+
+	/**
+	 * Returns the number of
+	 * frames drawn.
+	 *
+	 * @return The frame count
+	 */
+	@Override
+	public long getFrames() {
+		return frames.sum();
+	}
+
+	/**
+	 * Returns the median time it
+	 * took to draw a frame.
+	 *
+	 * @return Frame time in ms
+	 */
+	@Override
+	public double getFrameTimeMedianMs() {
+		return frameTimes.getValueAtPercentile(50)/1e6;
+	}
+
+	/**
+	 * Returns the 99th percentile of
+	 * the time it took to draw a frame.
+	 *
+	 * @return Frame time in ms
+	 */
+	@Override
+	public double getFrameTime99thPercentileMs() {
+		return frameTimes.getValueAtPercentile(99)/1e6;
+	}
+
+	/**
+	 * Returns the longest time it
+	 * took to draw a frame.
+	 *
+	 * @return Frame time in ms
+	 */
+	@Override
+	public double getFrameTimeMaxMs() {
+		return frameTimes.getMax()/1e6;
+	}
+
+	/**
+	 * Returns the median time from
+	 * reading a set to drawing it.
+	 *
+	 * @return Latency in ms
+	 */
+	@Override
+	public double getDecodeToPixelsMedianMs() {
+		return decodeToPixels.getValueAtPercentile(50)/1e6;
+	}
+
+	/**
+	 * Returns the 99th percentile of the
+	 * time from reading a set to drawing it.
+	 *
+	 * @return Latency in ms
+	 */
+	@Override
+	public double getDecodeToPixels99thPercentileMs() {
+		return decodeToPixels.getValueAtPercentile(99)/1e6;
+	}
+
+	/**
+	 * Returns the longest time from
+	 * reading a set to drawing it.
+	 *
+	 * @return Latency in ms
+	 */
+	@Override
+	public double getDecodeToPixelsMaxMs() {
+		return decodeToPixels.getMax()/1e6;
+	}
+}
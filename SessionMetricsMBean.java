@@ -0,0 +1,161 @@
+/**
+ * What SessionMetrics shows
+ * through JMX, for example
+ * in JConsole.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public interface SessionMetricsMBean {
+	/**
+	 * Returns the client the
+	 * metrics belong to.
+	 *
+	 * @return The client's address
+	 */
+	String getClient();
+
+	/**
+	 * Returns the number of sets read.
+	 *
+	 * @return The set count
+	 */
+	long getSets();
+
+	/**
+	 * Returns the number of marked
+	 * regions read.
+	 *
+	 * @return The mark count
+	 */
+	long getMarks();
+
+	/**
+	 * Returns the number of region
+	 * clears read.
+	 *
+	 * @return The clear count
+	 */
+	long getClears();
+
+	/**
+	 * Returns the number of points read.
+	 *
+	 * @return The point count
+	 */
+	long getPoints();
+
+	/**
+	 * Returns the number of reads
+	 * the client reported.
+	 *
+	 * @return The read count
+	 */
+	long getReads();
+
+	/**
+	 * Returns the number of compares
+	 * the client reported.
+	 *
+	 * @return The compare count
+	 */
+	long getCompares();
+
+	/**
+	 * Returns the number of commands
+	 * read, counting a batch once.
+	 *
+	 * @return The command count
+	 */
+	long getCommands();
+
+	/**
+	 * Returns what the commands read
+	 * so far cost on the virtual clock.
+	 *
+	 * @return Virtual nanoseconds
+	 */
+	long getVirtualNanos();
+
+	/**
+	 * Returns how long the server spent
+	 * waiting on the client since its
+	 * first command.
+	 *
+	 * @return Nanoseconds
+	 */
+	long getClientNanos();
+
+	/**
+	 * Returns the number of bytes of
+	 * commands read from the client.
+	 *
+	 * @return Bytes read
+	 */
+	long getBytesRead();
+
+	/**
+	 * Returns the commands read per
+	 * second, over the last second
+	 * or so.
+	 *
+	 * @return The command rate
+	 */
+	double getCommandsPerSecond();
+
+	/**
+	 * Returns the number of
+	 * frames drawn.
+	 *
+	 * @return The frame count
+	 */
+	long getFrames();
+
+	/**
+	 * Returns the median time it
+	 * took to draw a frame.
+	 *
+	 * @return Frame time in ms
+	 */
+	double getFrameTimeMedianMs();
+
+	/**
+	 * Returns the 99th percentile of
+	 * the time it took to draw a frame.
+	 *
+	 * @return Frame time in ms
+	 */
+	double getFrameTime99thPercentileMs();
+
+	/**
+	 * Returns the longest time it
+	 * took to draw a frame.
+	 *
+	 * @return Frame time in ms
+	 */
+	double getFrameTimeMaxMs();
+
+	/**
+	 * Returns the median time from
+	 * reading a set to drawing it.
+	 *
+	 * @return Latency in ms
+	 */
+	double getDecodeToPixelsMedianMs();
+
+	/**
+	 * Returns the 99th percentile of the
+	 * time from reading a set to drawing it.
+	 *
+	 * @return Latency in ms
+	 */
+	double getDecodeToPixels99thPercentileMs();
+
+	/**
+	 * Returns the longest time from
+	 * reading a set to drawing it.
+	 *
+	 * @return Latency in ms
+	 */
+	double getDecodeToPixelsMaxMs();
+}
@@ -0,0 +1,44 @@
+import java.net.*;
+
+/**
+ * Hands the server a place to
+ * send each client's commands,
+ * so that every session can
+ * be shown on its own.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public interface SessionProvider {
+	/**
+	 * Returns the interface that a newly
+	 * connected client should use.
+	 *
+	 * @param address The remote address of the client
+	 * @return The array interface for the session
+	 */
+	public ArrayInterface openSession(SocketAddress address);
+
+	/**
+	 * Returns the interface that a newly
+	 * connected client should use, for
+	 * providers that draw the session and
+	 * want to add their timings to its
+	 * metrics.
+	 *
+	 * @param address The remote address of the client
+	 * @param metrics The session's metrics
+	 * @return The array interface for the session
+	 */
+	default public ArrayInterface openSession(SocketAddress address, SessionMetrics metrics) {
+		return openSession(address);
+	}
+
+	/**
+	 * Indicates that the client using
+	 * the interface has disconnected.
+	 *
+	 * @param session The interface returned by openSession
+	 */
+	default public void closeSession(ArrayInterface session) {}
+}
@@ -1,7 +1,13 @@
 import javax.swing.*;
-import java.util.*;
 import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.*;
 import java.net.*;
+import java.util.*;
+import java.lang.management.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
 
 /**
  * Extension of JPanel
@@ -13,13 +19,11 @@ import java.net.*;
  * @version 1.0.0
  */
 public class SortCanvas extends JPanel implements ArrayInterface {
-	private Thread renderThread;
-	private final Object waitObject = new Object();
-	private static final int MAX_FPS = 60;
-	private static final int MS_PER_FRAME = 1000/MAX_FPS;
 	private static final int TEXT_PADDING = 25;
-	private int[] arr;
-	private int[] sortedArr;
+	private ArrayStorage arr;
+	private SortVerifier verifier;
+	private SortVerifier sortedReference; //knows what a failed sort should have given
+	private SummaryIndex summaries;
 	private int arrMax;
 	private boolean isSortingInProgress = true;
 	private boolean sortedProperly = false;
@@ -30,6 +34,79 @@ public class SortCanvas extends JPanel implements ArrayInterface {
 	private static final Color BAR_OVERLAY_COLOR = new Color(0, 0, 255, 100);
 	private static final Color SUCCESS_COLOR = new Color(15, 15, 15);
 	private static final Color FAIL_COLOR = new Color(40, 0, 0);
+	private static final boolean SHOW_ALLOCATION = Boolean.getBoolean("visualsort.showAllocation");
+	private static final boolean ACTIVE_RENDERING = Boolean.getBoolean("visualsort.activeRendering");
+	private static final boolean HIDE_READS = Boolean.getBoolean("visualsort.hideReads");
+	//reads are counted into at most this many buckets,
+	//which are shown in a strip along the bottom
+	private static final int MAX_HEAT_BUCKETS = 1024;
+	private static final int HEAT_HEIGHT = 8;
+	private static final Color[] HEAT_COLORS = heatColors(64);
+	private static final int LANE_SEPARATOR = 0x404040;
+	private static final int LANE_LABEL_OFFSET = 14;
+	private final ActiveSurface surface; //null when Swing paints the canvas
+	private final Consumer<Graphics2D> overlayPainter = this::paintOverlays;
+	private final Consumer<Graphics2D> placeholderPainter = this::paintPlaceholder;
+	private final BarRenderer renderer = new BarRenderer();
+	private long lastFrameAllocation = -1;
+	private final DirtyRegion dirty = new DirtyRegion();
+	private final Runnable frameTask = this::renderFrame;
+	private long paintNanos; //spent in paintComponent() since the last frame
+	private int drawnChangedIndex = -1;
+	private static final int METRICS_LINE_HEIGHT = 16;
+	private static final int METRICS_WIDTH = 380;
+	private static final int METRICS_LINES = 8; //the most drawMetrics() shows
+	private static final Color METRICS_BACKGROUND = new Color(0, 0, 0, 170);
+	private static final int RACE_NAME_WIDTH = 110;
+	private static final int RACE_COLUMN_WIDTH = 85;
+	private static final int RACE_WIDTH = RACE_NAME_WIDTH + 4*RACE_COLUMN_WIDTH + 10;
+	private volatile SessionMetrics metrics;
+	private boolean showMetrics = Boolean.getBoolean("visualsort.showMetrics");
+	private int setsThisFrame;
+
+	//commands from the network thread are queued here
+	//and applied on the EDT once per frame, so the
+	//fields above are only ever touched by the EDT
+	private static final int EVENT_CAPACITY = 1 << 16;
+	private static final long FULL_RING_BACKOFF_NS = 100000;
+	private static final int EVENT_SET = 1;
+	private static final int EVENT_POINT = 2;
+	private static final int EVENT_MARK = 3;
+	private static final int EVENT_CLEAR = 4;
+	private static final int EVENT_RESET = 5;
+	private static final int EVENT_DONE = 6;
+	private static final int EVENT_INIT = 7;
+	private static final int EVENT_LOADING = 8;
+	private static final int EVENT_SWAP = 9;
+	private static final int EVENT_COPY = 10;
+	private static final int EVENT_FILL = 11;
+	private static final int EVENT_SET_RANGE = 12;
+	private static final int EVENT_READ = 13;
+	private static final int EVENT_COMPARE = 14;
+	private static final int EVENT_ALLOC = 15;
+	private static final int EVENT_FREE = 16;
+	private static final int EVENT_SELECT = 17;
+	private final EventRing events = new EventRing(EVENT_CAPACITY);
+	private final EventRing.Handler applier = this::apply;
+	private final FrameScheduler scheduler = new FrameScheduler("Render",
+			() -> !events.isEmpty(), () -> SwingUtilities.invokeLater(frameTask));
+	private int length; //the selected array's, only touched by the producer
+	private final int[] lengths = new int[MAX_ARRAYS];
+	private int selected;
+	private int initMax;
+	private int[] loadingArr; //only touched by the producer
+	private int loadingScanned, loadingMax; //only touched by the producer
+	private int[] preview; //an initial array still arriving
+	private int previewLoaded;
+	private int[] copyBuffer = new int[0]; //reused by copies on the EDT
+	private int[] readHeat; //reads per bucket, null until the first one
+	private int heatMax;
+	private boolean heatChanged;
+	private final AuxLane[] lanes = new AuxLane[MAX_ARRAYS]; //by id
+	private int laneCount;
+	private AuxLane target; //the selected auxiliary array, null for the main one
+	private long auxArrays, auxBytes, peakAuxBytes;
+	private ReferenceRace race; //null unless racing
 
 	/**
 	 * Constructs a canvas to visualize
@@ -37,7 +114,141 @@ public class SortCanvas extends JPanel implements ArrayInterface {
 	 * arr as the array.
 	 */
 	public SortCanvas() {
-		//do nothing
+		//clicking shows or hides the metrics
+		MouseAdapter toggleMetrics = new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				showMetrics = !showMetrics;
+				refresh();
+			}
+		};
+		addMouseListener(toggleMetrics);
+		if(ACTIVE_RENDERING && !GraphicsEnvironment.isHeadless()) {
+			//frames are drawn into this instead,
+			//so it covers the whole panel
+			setLayout(new BorderLayout());
+			surface = new ActiveSurface(this::presentFrame);
+			surface.addMouseListener(toggleMetrics);
+			add(surface, BorderLayout.CENTER);
+		} else {
+			surface = null;
+		}
+	}
+
+	/**
+	 * Sets the metrics that frame times
+	 * are recorded into and that the
+	 * overlay shows.
+	 *
+	 * @param metrics The session's metrics, or null
+	 */
+	public void setMetrics(SessionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * The state handed over by init(),
+	 * prepared on the caller's thread so
+	 * the EDT only has to swap it in.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static class InitPayload {
+		private ArrayStorage arr;
+		private SortVerifier verifier;
+		private SummaryIndex summaries;
+		private int arrMax;
+		private long startTime;
+		private ReferenceRace race;
+	}
+
+	/**
+	 * An auxiliary array shown in a lane
+	 * below the main one. Writes to it are
+	 * summarized and tracked for redrawing
+	 * the same way as the main array's.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static class AuxLane {
+		private final ArrayStorage values;
+		private final SummaryIndex summaries;
+		private final DirtyRegion dirty = new DirtyRegion();
+		private final String label;
+		private int max; //the largest value written
+		private int slot; //which lane, counting down from the main array
+
+		/**
+		 * Creates a lane of zeros. Only
+		 * call from the producer, since
+		 * it allocates the whole array.
+		 *
+		 * @param name What to call it on screen
+		 * @param length How many elements it has
+		 * @param expectedMax The largest value it will likely hold
+		 */
+		private AuxLane(String name, int length, int expectedMax) {
+			values = new ArrayStorage(length, 0, expectedMax);
+			summaries = new SummaryIndex(values);
+			//rounded up so small buffers don't show as 0 KB
+			label = String.format("%s: %,d values, %,d KB", name, length,
+					((long)length*Integer.BYTES + 1023)/1024);
+		}
+
+		/**
+		 * Sets an element.
+		 *
+		 * @param index The index
+		 * @param val The new value
+		 */
+		private void set(int index, int val) {
+			summaries.update(index, val);
+			grow(val);
+			dirty.add(index, index + 1);
+		}
+
+		/**
+		 * Writes a range of elements.
+		 *
+		 * @param start The first index
+		 * @param count How many to write
+		 * @param src The values, or null to write fill to all of them
+		 * @param fill The value used when src is null
+		 */
+		private void setRange(int start, int count, int[] src, int fill) {
+			for(int i = 0; i < count; i++) {
+				int val = src == null ? fill : src[i];
+				values.set(start + i, val);
+				grow(val);
+			}
+			summaries.rangeChanged(start, start + count);
+			dirty.add(start, start + count);
+		}
+
+		/**
+		 * Raises the lane's scale if a value
+		 * is bigger than any before it.
+		 *
+		 * @param val The value written
+		 */
+		private void grow(int val) {
+			if(val > max) {
+				max = val;
+				dirty.markAll();
+			}
+		}
+
+		/**
+		 * Returns how much memory the client
+		 * needs for it, as an array of ints.
+		 *
+		 * @return Bytes
+		 */
+		private long clientBytes() {
+			return (long)values.length()*Integer.BYTES;
+		}
 	}
 
 	/**
@@ -48,10 +259,63 @@ public class SortCanvas extends JPanel implements ArrayInterface {
 	 * @param val The new value
 	 */
 	public void set(int index, int val) {
-		if(val > arrMax) arrMax = val;
-		lastChangedIndex = index;
-		arr[index] = val;
-		update();
+		if(index < 0 || index >= length) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		push(EVENT_SET, index, val, 0, null);
+	}
+
+	/**
+	 * Swaps two elements.
+	 *
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	@Override
+	public void swap(int i, int j) {
+		checkRange(i, 1);
+		checkRange(j, 1);
+		push(EVENT_SWAP, i, j, 0, null);
+	}
+
+	/**
+	 * Copies a range of elements.
+	 *
+	 * @param src Where the values come from
+	 * @param dst Where they go
+	 * @param length How many to copy
+	 */
+	@Override
+	public void copyRange(int src, int dst, int length) {
+		checkRange(src, length);
+		checkRange(dst, length);
+		push(EVENT_COPY, src, dst, length, null);
+	}
+
+	/**
+	 * Sets a range of elements
+	 * to the same value.
+	 *
+	 * @param start The first index
+	 * @param length How many to set
+	 * @param value The value
+	 */
+	@Override
+	public void fillRange(int start, int length, int value) {
+		checkRange(start, length);
+		push(EVENT_FILL, start, length, value, null);
+	}
+
+	/**
+	 * Sets a range of elements.
+	 *
+	 * @param start The first index
+	 * @param values The new values
+	 */
+	@Override
+	public void setRange(int start, int[] values) {
+		checkRange(start, values.length);
+		push(EVENT_SET_RANGE, start, 0, 0, values);
 	}
 
 	/**
@@ -60,8 +324,7 @@ public class SortCanvas extends JPanel implements ArrayInterface {
 	 * @param index The place to point
 	 */
 	public void point(int index) {
-		pointIndex = index;
-		update();
+		push(EVENT_POINT, index, 0, 0, null);
 	}
 
 	/**
@@ -72,9 +335,7 @@ public class SortCanvas extends JPanel implements ArrayInterface {
 	 * @param end End of region, exclusive
 	 */
 	public void markRegion(int start, int end) {
-		regionStart = start;
-		regionEnd = end;
-		update();
+		push(EVENT_MARK, start, end, 0, null);
 	}
 
 
@@ -82,9 +343,90 @@ public class SortCanvas extends JPanel implements ArrayInterface {
 	 * Clears the selected region
 	 */
 	public void clearRegion() {
-		regionStart = -1;
-		regionEnd = -1;
-		update();
+		push(EVENT_CLEAR, 0, 0, 0, null);
+	}
+
+	/**
+	 * Counts a read towards the heatmap.
+	 *
+	 * @param index The index read
+	 */
+	@Override
+	public void read(int index) {
+		checkRange(index, 1);
+		if(!HIDE_READS) {
+			push(EVENT_READ, index, 0, 0, null);
+		}
+	}
+
+	/**
+	 * Counts a compare towards the
+	 * heatmap as a read of both indices.
+	 *
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	@Override
+	public void compare(int i, int j) {
+		checkRange(i, 1);
+		checkRange(j, 1);
+		if(!HIDE_READS) {
+			push(EVENT_COMPARE, i, j, 0, null);
+		}
+	}
+
+	/**
+	 * Adds a lane for an auxiliary
+	 * array below the main one.
+	 *
+	 * @param id Its id
+	 * @param name What to call it on screen
+	 * @param length How many elements it has
+	 */
+	@Override
+	public void allocArray(int id, String name, int length) {
+		if(id <= 0 || id >= MAX_ARRAYS || lengths[id] != 0) {
+			throw new IllegalArgumentException("Array " + id + " can't be allocated.");
+		}
+		if(length <= 0) {
+			throw new IllegalArgumentException("Invalid array length: " + length);
+		}
+		lengths[id] = length;
+		push(EVENT_ALLOC, id, 0, 0, new AuxLane(name, length, initMax));
+	}
+
+	/**
+	 * Removes an auxiliary array's lane.
+	 *
+	 * @param id Its id
+	 */
+	@Override
+	public void freeArray(int id) {
+		if(id <= 0 || id >= MAX_ARRAYS || lengths[id] == 0) {
+			throw new IllegalArgumentException("Array " + id + " is not allocated.");
+		}
+		if(selected == id) {
+			selected = 0;
+			length = lengths[0];
+		}
+		lengths[id] = 0;
+		push(EVENT_FREE, id, 0, 0, null);
+	}
+
+	/**
+	 * Picks the array later sets,
+	 * ranges and reads go to.
+	 *
+	 * @param id The array's id, 0 for the main one
+	 */
+	@Override
+	public void selectArray(int id) {
+		if(id < 0 || id >= MAX_ARRAYS || (id != 0 && lengths[id] == 0)) {
+			throw new IllegalArgumentException("Array " + id + " is not allocated.");
+		}
+		selected = id;
+		length = lengths[id];
+		push(EVENT_SELECT, id, 0, 0, null);
 	}
 
 	/**
@@ -92,9 +434,7 @@ public class SortCanvas extends JPanel implements ArrayInterface {
 	 * variables, like region and markings.
 	 */
 	public void clearVisualState() {
-		clearRegion();
-		pointIndex = -1;
-		lastChangedIndex = -1;
+		push(EVENT_RESET, 0, 0, 0, null);
 	}
 
 	/**
@@ -102,18 +442,8 @@ public class SortCanvas extends JPanel implements ArrayInterface {
 	 * sorting.
 	 */
 	public void done() {
-		endTime = System.currentTimeMillis();
-		lastChangedIndex = -1;
-		pointIndex = -1;
-		isSortingInProgress = false;
-		sortedProperly = true;
-		clearRegion();
-		for(int i = 0; i < arr.length; i++) {
-			if(arr[i] != sortedArr[i]) {
-				sortedProperly = false;
-			}
-		}
-		update();
+		long now = System.currentTimeMillis();
+		push(EVENT_DONE, (int)(now >>> 32), (int)now, 0, null);
 	}
 
 	/**
@@ -123,11 +453,8 @@ public class SortCanvas extends JPanel implements ArrayInterface {
 	 * @param arr The array to initialize with
 	 */
 	public void init(int[] arr) {
-		clearVisualState();
-		isSortingInProgress = true;
-		startTime = System.currentTimeMillis();
-		this.arr = arr;
-		sortedArr = new int[arr.length];
+		InitPayload payload = new InitPayload();
+		payload.startTime = System.currentTimeMillis();
 		int arrMax = 0;
 		for(int i = 0; i < arr.length; i++) {
 			if(arr[i] < 0) {
@@ -138,155 +465,1299 @@ public class SortCanvas extends JPanel implements ArrayInterface {
 			if(arr[i] > arrMax) {
 				arrMax = arr[i];
 			}
-			sortedArr[i] = arr[i];
 		}
-		Arrays.sort(sortedArr);
-		this.arrMax = arrMax;
-		update();
+		//stored as compactly as the values allow,
+		//since the canvas keeps it for the whole sort
+		payload.arr = ArrayStorage.of(arr);
+		payload.verifier = new SortVerifier(payload.arr);
+		payload.summaries = new SummaryIndex(payload.arr);
+		payload.arrMax = arrMax;
+		if(ReferenceRace.isEnabled()) {
+			final ReferenceRace started = ReferenceRace.start(arr);
+			//the table is drawn once every engine is done
+			started.whenDone(() -> SwingUtilities.invokeLater(() -> {
+				if(race == started) {
+					refresh();
+				}
+			}));
+			payload.race = started;
+		}
+		Arrays.fill(lengths, 0);
+		selected = 0;
+		length = lengths[0] = arr.length;
+		initMax = arrMax;
+		loadingArr = null;
+		push(EVENT_INIT, 0, 0, 0, payload);
 	}
 
 	/**
-	 * Pushes any changes to the GUI.
+	 * Shows the part of the initial
+	 * array that has arrived so far.
+	 *
+	 * @param arr The array being filled in
+	 * @param loaded How many elements have arrived
 	 */
-	protected void update() {
-		synchronized(waitObject) {
-			waitObject.notify();
+	@Override
+	public void loading(int[] arr, int loaded) {
+		if(arr != loadingArr) {
+			loadingArr = arr;
+			loadingScanned = 0;
+			loadingMax = 0;
+		}
+		//only the new part has to be looked at
+		for(int i = loadingScanned; i < loaded; i++) {
+			if(arr[i] > loadingMax) {
+				loadingMax = arr[i];
+			}
+		}
+		loadingScanned = loaded;
+		push(EVENT_LOADING, loaded, loadingMax, 0, arr);
+	}
+
+	/**
+	 * Rejects a range that doesn't fit
+	 * in the array, on the caller's thread.
+	 *
+	 * @param start The first index
+	 * @param count How many elements
+	 */
+	private void checkRange(int start, int count) {
+		if(start < 0 || count < 0 || start > length - count) {
+			throw new ArrayIndexOutOfBoundsException("Range of " + count + " at " + start
+					+ " is outside an array of " + length + ".");
 		}
 	}
 
 	/**
-	 * Starts the thread that handles
-	 * display updates at a maximum
-	 * of MAX_FPS frames per second.
+	 * Queues an event for the next frame,
+	 * waiting for room if the frames
+	 * have fallen behind. Gives up if the
+	 * caller is interrupted while waiting,
+	 * which is how a session being ended
+	 * stops its pacer.
+	 *
+	 * @param type The event type
+	 * @param a First argument
+	 * @param b Second argument
+	 * @param c Third argument
+	 * @param payload The payload, or null
 	 */
-	public void beginRenderThread() {
-		if(renderThread != null) {
-			renderThread.interrupt();
-		}
-
-		renderThread = new Thread(() -> {
-			System.out.println("Beginning render thread.");
-			synchronized(waitObject) {
-				try {
-					long lastFrameUpdate = System.currentTimeMillis();
-					while(true) {
-						waitObject.wait();
-						while(true) {
-							long newTime = System.currentTimeMillis();
-							long timeUntilNextFrame = newTime - lastFrameUpdate;
-							if(timeUntilNextFrame >= MS_PER_FRAME) {
-								break;
-							}
-							waitObject.wait(timeUntilNextFrame);
-						}
-						SortCanvas.this.repaint();
-						lastFrameUpdate = System.currentTimeMillis();
-					}
-				} catch(InterruptedException ie) {
-					//do nothing, wait for other
-					//thread to take over.
-					System.out.println("Thread interrupted.");
-				}
+	private void push(int type, int a, int b, int c, Object payload) {
+		while(!events.offer(type, a, b, c, payload)) {
+			if(Thread.currentThread().isInterrupted()) {
+				//the frames may have stopped for good
+				return;
 			}
-		});
-		renderThread.start();
+			update();
+			LockSupport.parkNanos(FULL_RING_BACKOFF_NS);
+		}
+		update();
 	}
 
 	/**
-	 * Ends the active render thread.
-	 * The redrawing will no longer occur
-	 * at MAX_FPS.
+	 * Applies a queued event to the
+	 * state that gets drawn. Only
+	 * runs on the EDT.
+	 *
+	 * @param type The event type
+	 * @param a First argument
+	 * @param b Second argument
+	 * @param c Third argument
+	 * @param payload The payload, or null
 	 */
-	public void endRenderThread() {
-		if(renderThread != null) {
-			renderThread.interrupt();
-			renderThread = null;
+	private void apply(int type, int a, int b, int c, Object payload) {
+		switch(type) {
+			case EVENT_SET:
+				applySet(a, b);
+				break;
+			case EVENT_SWAP:
+				int first = get(a);
+				applySet(a, get(b));
+				applySet(b, first);
+				break;
+			case EVENT_COPY:
+				//copied out first, in case the ranges overlap
+				if(copyBuffer.length < c) {
+					copyBuffer = new int[c];
+				}
+				for(int i = 0; i < c; i++) {
+					copyBuffer[i] = get(a + i);
+				}
+				applyRange(b, c, copyBuffer, 0);
+				break;
+			case EVENT_FILL:
+				applyRange(a, b, null, c);
+				break;
+			case EVENT_SET_RANGE:
+				int[] values = (int[])payload;
+				applyRange(a, values.length, values, 0);
+				break;
+			case EVENT_ALLOC:
+				applyAlloc(a, (AuxLane)payload);
+				break;
+			case EVENT_FREE:
+				applyFree(a);
+				break;
+			case EVENT_SELECT:
+				target = lanes[a];
+				break;
+			case EVENT_READ:
+				applyRead(a);
+				break;
+			case EVENT_COMPARE:
+				applyRead(a);
+				applyRead(b);
+				break;
+			case EVENT_POINT:
+				markDirty(pointIndex, pointIndex + 1);
+				pointIndex = a;
+				markDirty(a, a + 1);
+				break;
+			case EVENT_MARK:
+				markDirty(regionStart, regionEnd);
+				regionStart = a;
+				regionEnd = b;
+				markDirty(a, b);
+				break;
+			case EVENT_CLEAR:
+				markDirty(regionStart, regionEnd);
+				regionStart = -1;
+				regionEnd = -1;
+				break;
+			case EVENT_RESET:
+				resetVisualState();
+				break;
+			case EVENT_DONE:
+				applyDone(((long)a << 32) | (b & 0xFFFFFFFFL));
+				break;
+			case EVENT_INIT:
+				applyInit((InitPayload)payload);
+				break;
+			case EVENT_LOADING:
+				applyLoading((int[])payload, a, b);
+				break;
 		}
 	}
 
 	/**
-	 * Draws the bars on screen.
-	 * If color is null, use gradient
-	 * based on bar height.
+	 * Sets a single element.
 	 *
-	 * @param arr The array
-	 * @param width Width
-	 * @param height Height
-	 * @param color Color
-	 * @param barwid Bar width
-	 * @param g Graphics
+	 * @param index The index
+	 * @param val The new value
 	 */
-	private void drawBars(int[] arr, Graphics2D g, int width, int height, Color color, int barwid) {
-		for(int i = 0; i < arr.length; i++) {
-			double pos = (double)i/arr.length; //position in array as percent
+	private void applySet(int index, int val) {
+		if(target != null) {
+			target.set(index, val);
+			setsThisFrame++;
+			return;
+		}
+		if(val > arrMax) {
+			//every bar gets rescaled
+			arrMax = val;
+			markAllDirty();
+		}
+		lastChangedIndex = index;
+		verifier.update(index, val);
+		summaries.update(index, val);
+		markDirty(index, index + 1);
+		setsThisFrame++;
+	}
 
-			if(lastChangedIndex == i) {
-				g.setColor(Color.GREEN);
-			} else if(i >= regionStart && i < regionEnd) {
-				g.setColor(Color.YELLOW);
-			} else {
-				if(color == null) g.setColor(new Color((arr[i] % 4) * 80 /*40*/, (int)(pos * 255), 200));
-				else g.setColor(color);
-			}
-			int x = (int)(pos * width);
-			int y = (int)((float)arr[i]/arrMax*height);
-			g.fillRect(x+1, height-y, barwid, y);
-			if(i == pointIndex) {
-				int pointHeight = Math.min(width/20, y);
-				g.setColor(Color.RED);
-				g.fillRect(x+1, height-pointHeight, barwid, pointHeight);
+	/**
+	 * Writes a range of elements, summarizing
+	 * and redrawing it once at the end
+	 * instead of after every element.
+	 *
+	 * @param start The first index
+	 * @param count How many to write
+	 * @param values The values, or null to write fill to all of them
+	 * @param fill The value used when values is null
+	 */
+	private void applyRange(int start, int count, int[] values, int fill) {
+		if(count == 0) {
+			return;
+		}
+		if(target != null) {
+			target.setRange(start, count, values, fill);
+			setsThisFrame += count;
+			return;
+		}
+		int max = arrMax;
+		for(int i = 0; i < count; i++) {
+			int val = values == null ? fill : values[i];
+			verifier.update(start + i, val);
+			arr.set(start + i, val);
+			if(val > max) {
+				max = val;
 			}
 		}
+		summaries.rangeChanged(start, start + count);
+		if(max > arrMax) {
+			arrMax = max;
+			markAllDirty();
+		}
+		markDirty(start, start + count);
+		lastChangedIndex = start + count - 1;
+		setsThisFrame += count;
+	}
+
+	/**
+	 * Counts a read into its bucket,
+	 * making the buckets on the first one.
+	 *
+	 * @param index The index read
+	 */
+	private void applyRead(int index) {
+		if(arr == null || target != null) {
+			//only reads of the main array are shown
+			return;
+		}
+		int length = arr.length();
+		if(readHeat == null) {
+			readHeat = new int[Math.min(length, MAX_HEAT_BUCKETS)];
+		}
+		int bucket = (int)((long)index * readHeat.length / length);
+		if(readHeat[bucket] < Integer.MAX_VALUE) {
+			heatMax = Math.max(heatMax, ++readHeat[bucket]);
+		}
+		heatChanged = true;
 	}
 
+	/**
+	 * Returns an element of the
+	 * selected array.
+	 *
+	 * @param index The index
+	 * @return The value
+	 */
+	private int get(int index) {
+		return target != null ? target.values.get(index) : arr.get(index);
+	}
 
 	/**
-	 * Overrides JPanel's paintComponent()
-	 * method in order to draw the array
+	 * Adds an auxiliary array's lane and
+	 * counts the memory the client needs
+	 * for it.
 	 *
-	 * @param Graphcis the graphics object
+	 * @param id Its id
+	 * @param lane The lane
 	 */
-	public void paintComponent(Graphics gOld) {
-		int width = getWidth();
-		int height = getHeight();
-		Graphics2D g = (Graphics2D)gOld;
+	private void applyAlloc(int id, AuxLane lane) {
+		lanes[id] = lane;
+		auxArrays++;
+		auxBytes += lane.clientBytes();
+		peakAuxBytes = Math.max(peakAuxBytes, auxBytes);
+		layoutLanes();
+	}
 
-		if(arr == null) {
-			g.setColor(Color.BLACK);
-			g.fillRect(0, 0, width, height);
-			g.setColor(Color.WHITE);
-			g.drawString("Array will appear here.", TEXT_PADDING, TEXT_PADDING);
-			return;
+	/**
+	 * Removes an auxiliary array's lane.
+	 *
+	 * @param id Its id
+	 */
+	private void applyFree(int id) {
+		if(target == lanes[id]) {
+			target = null;
 		}
+		auxBytes -= lanes[id].clientBytes();
+		lanes[id].values.release();
+		lanes[id] = null;
+		layoutLanes();
+	}
 
-		if(isSortingInProgress) {
-			g.setColor(Color.BLACK);
-		} else {
-			if(sortedProperly) {
-				g.setColor(SUCCESS_COLOR);
-			} else {
-				g.setColor(FAIL_COLOR);
+	/**
+	 * Drops every auxiliary array, for
+	 * when a new array comes in.
+	 */
+	private void clearLanes() {
+		for(AuxLane lane : lanes) {
+			if(lane != null) {
+				lane.values.release();
+			}
+		}
+		Arrays.fill(lanes, null);
+		target = null;
+		laneCount = 0;
+		auxArrays = auxBytes = peakAuxBytes = 0;
+	}
+
+	/**
+	 * Stacks the lanes in order of id and
+	 * redraws everything, since the main
+	 * array's lane changes size as well.
+	 */
+	private void layoutLanes() {
+		laneCount = 0;
+		for(AuxLane lane : lanes) {
+			if(lane != null) {
+				lane.slot = laneCount++;
 			}
 		}
+		markAllDirty();
+	}
 
-		g.fillRect(0, 0, width, height);
-		
-		int barwid = width/arr.length;
-		barwid -= 2;
-		if(barwid <= 0) barwid = 1;
-		drawBars(arr, g, width, height, null, barwid);
+	/**
+	 * Returns the height of each auxiliary
+	 * lane. The main array gets twice
+	 * as much as each of them.
+	 *
+	 * @param height Height of the canvas
+	 * @return The lane height
+	 */
+	private int auxLaneHeight(int height) {
+		return height/(laneCount + 2);
+	}
+
+	/**
+	 * Returns the height of the main
+	 * array's lane at the top.
+	 *
+	 * @param height Height of the canvas
+	 * @return The lane height
+	 */
+	private int mainHeight(int height) {
+		return height - laneCount*auxLaneHeight(height);
+	}
+
+	/**
+	 * Forgets the region and markings.
+	 */
+	private void resetVisualState() {
+		regionStart = -1;
+		regionEnd = -1;
+		pointIndex = -1;
 		lastChangedIndex = -1;
+		markAllDirty();
+	}
 
-		if(!isSortingInProgress) {
-			if(sortedProperly) {
-				g.setColor(Color.GREEN);
-				g.drawString("Success! " + (endTime - startTime) + "ms.", TEXT_PADDING, TEXT_PADDING);
-			} else {
-				g.setColor(Color.RED);
-				g.drawString("Improperly sorted array. " + (endTime - startTime) + "ms.", TEXT_PADDING, TEXT_PADDING);
+	/**
+	 * Finishes the sort and checks
+	 * whether it came out right.
+	 *
+	 * @param endTime When done() was called
+	 */
+	private void applyDone(long endTime) {
+		this.endTime = endTime;
+		resetVisualState();
+		isSortingInProgress = false;
+		sortedProperly = verifier.isSorted();
+		if(!sortedProperly) {
+			//sorting the reference can take a while on
+			//a big array, so the overlay shows up later
+			final SortVerifier failed = verifier;
+			ForkJoinPool.commonPool().execute(() -> {
+				failed.prepareSortedReference();
+				SwingUtilities.invokeLater(() -> {
+					if(verifier == failed) {
+						sortedReference = failed;
+						refresh();
+					}
+				});
+			});
+		}
+	}
 
-				drawBars(sortedArr, g, width, height, BAR_OVERLAY_COLOR, barwid);
-			}
-		}	
+	/**
+	 * Lets go of the array of the sort
+	 * being replaced, and the verifier's
+	 * copy of it. The verifier may still
+	 * be preparing the sorted reference,
+	 * so it is let go of off the EDT.
+	 */
+	private void releaseStorage() {
+		if(arr != null) {
+			arr.release();
+		}
+		if(verifier != null) {
+			ForkJoinPool.commonPool().execute(verifier::release);
+		}
+	}
+
+	/**
+	 * Swaps in the state prepared
+	 * by init().
+	 *
+	 * @param payload The new state
+	 */
+	private void applyInit(InitPayload payload) {
+		releaseStorage();
+		resetVisualState();
+		isSortingInProgress = true;
+		startTime = payload.startTime;
+		arr = payload.arr;
+		verifier = payload.verifier;
+		sortedReference = null;
+		summaries = payload.summaries;
+		arrMax = payload.arrMax;
+		preview = null;
+		readHeat = null;
+		heatMax = 0;
+		clearLanes();
+		race = payload.race;
+	}
+
+	/**
+	 * Swaps in an initial array that
+	 * is still arriving, dropping the
+	 * previous sort.
+	 *
+	 * @param arr The array being filled in
+	 * @param loaded How many elements have arrived
+	 * @param max The largest of them
+	 */
+	private void applyLoading(int[] arr, int loaded, int max) {
+		if(preview != arr) {
+			releaseStorage();
+			resetVisualState();
+			isSortingInProgress = true;
+			this.arr = null;
+			verifier = null;
+			sortedReference = null;
+			summaries = null;
+			readHeat = null;
+			heatMax = 0;
+			clearLanes();
+			race = null;
+		}
+		preview = arr;
+		previewLoaded = loaded;
+		arrMax = max;
+		markAllDirty();
+	}
+
+	/**
+	 * Remembers that the indices from
+	 * start (inclusive) to end (exclusive)
+	 * have to be redrawn.
+	 *
+	 * @param start Beginning of the range
+	 * @param end End of the range
+	 */
+	private void markDirty(int start, int end) {
+		if(start >= 0) {
+			dirty.add(start, end);
+		}
+	}
+
+	/**
+	 * Remembers that the whole canvas
+	 * has to be redrawn.
+	 */
+	private void markAllDirty() {
+		dirty.markAll();
+	}
+
+	/**
+	 * Gets part of the canvas shown again
+	 * after the retained image or the text
+	 * on top of it changed there.
+	 *
+	 * @param x Left edge
+	 * @param y Top edge
+	 * @param w Width
+	 * @param h Height
+	 */
+	private void changed(int x, int y, int w, int h) {
+		if(surface == null) {
+			repaint(x, y, w, h);
+		} else {
+			//shown at the end of the frame
+			surface.imageChanged(x, y, w, h);
+		}
+	}
+
+	/**
+	 * Shows the whole canvas again.
+	 * Only call it from the EDT.
+	 */
+	private void refresh() {
+		if(surface == null) {
+			repaint();
+		} else {
+			presentFrame();
+		}
+	}
+
+	/**
+	 * Draws the canvas into the active
+	 * surface and shows it right away,
+	 * without going through Swing.
+	 */
+	private void presentFrame() {
+		long paintStart = System.nanoTime();
+		int width = getWidth();
+		int height = getHeight();
+		if((arr == null && preview == null) || width <= 0 || height <= 0) {
+			surface.present(null, placeholderPainter);
+		} else {
+			if(renderer.resize(width, height)) {
+				drawAll(width, height);
+				surface.imageChanged(0, 0, width, height);
+			}
+			surface.present(renderer.getImage(), overlayPainter);
+		}
+		//counted towards the next frame's time
+		paintNanos += System.nanoTime() - paintStart;
+	}
+
+	/**
+	 * Applies every queued event, then
+	 * redraws what changed into the
+	 * retained image and repaints only
+	 * those parts of the screen. Runs
+	 * on the EDT.
+	 */
+	void renderFrame() {
+		scheduler.frameStarted();
+		long frameStart = System.nanoTime();
+		//only what is queued right now, so a fast
+		//client can't keep the EDT here forever
+		try {
+			events.drain(applier, events.size());
+		} catch(RuntimeException re) {
+			//the ring has dropped the event, so the
+			//rest get applied with the next frame
+			System.err.println("Dropped a bad canvas event: " + re);
+		}
+		long drawStart = System.nanoTime();
+		int width = getWidth();
+		int height = getHeight();
+		if((arr == null && preview == null) || width <= 0 || height <= 0) {
+			refresh();
+			scheduler.frameFinished(0);
+			return;
+		}
+
+		long allocationBefore = SHOW_ALLOCATION ? threadAllocatedBytes() : 0;
+		//the bar that was green last frame goes back to normal
+		dirty.add(drawnChangedIndex);
+		if(renderer.resize(width, height) || dirty.isAll()) {
+			drawAll(width, height);
+			changed(0, 0, width, height);
+		} else if(arr != null) {
+			for(int k = 0; k < dirty.size(); k++) {
+				drawSpan(dirty.getStart(k), dirty.getEnd(k), width, height);
+			}
+			if(laneCount > 0) {
+				drawLaneChanges(width, height);
+			}
+		}
+		dirty.clear();
+		if(heatChanged) {
+			changed(0, mainHeight(height) - HEAT_HEIGHT, width, HEAT_HEIGHT);
+			heatChanged = false;
+		}
+		drawnChangedIndex = lastChangedIndex;
+		lastChangedIndex = -1;
+		if(SHOW_ALLOCATION) {
+			lastFrameAllocation = threadAllocatedBytes() - allocationBefore;
+			changed(0, height - 2*TEXT_PADDING, width, 2*TEXT_PADDING);
+		}
+
+		long frameEnd = System.nanoTime();
+		SessionMetrics current = metrics;
+		if(current != null) {
+			current.frameDrawn(setsThisFrame, frameEnd - frameStart);
+		}
+		setsThisFrame = 0;
+		if(showMetrics) {
+			changed(0, TEXT_PADDING, METRICS_WIDTH, metricsHeight(METRICS_LINES));
+		}
+		if(surface != null) {
+			presentFrame();
+		}
+		//applying the sets costs the same at any frame
+		//rate, so only drawing counts towards the budget.
+		//Painting happens later on the EDT, so the last
+		//frame's paint is counted with this one
+		scheduler.frameFinished(frameEnd - drawStart + paintNanos);
+		paintNanos = 0;
+	}
+
+	/**
+	 * Returns the background color for
+	 * the current state of the sort.
+	 *
+	 * @return The background color
+	 */
+	private Color backgroundColor() {
+		if(isSortingInProgress) {
+			return Color.BLACK;
+		} else if(sortedProperly) {
+			return SUCCESS_COLOR;
+		} else {
+			return FAIL_COLOR;
+		}
+	}
+
+	/**
+	 * Returns the width of a single bar
+	 * when every element gets its own.
+	 *
+	 * @param width Width of the canvas
+	 * @return The bar width
+	 */
+	private int barWidth(int width) {
+		int barwid = width/arr.length();
+		barwid -= 2;
+		if(barwid <= 0) barwid = 1;
+		return barwid;
+	}
+
+	/**
+	 * Redraws the whole array into
+	 * the retained image.
+	 *
+	 * @param width Width
+	 * @param height Height
+	 */
+	void drawAll(int width, int height) {
+		renderer.clearColumns(0, width, backgroundColor().getRGB() & 0xFFFFFF);
+		int mainHeight = mainHeight(height);
+		if(arr == null) {
+			if(preview != null) {
+				drawPreview(width, mainHeight);
+			}
+		} else if(arr.length() > width) {
+			drawSummaries(0, width, width, mainHeight);
+		} else {
+			drawBars(0, arr.length(), width, mainHeight, barWidth(width));
+		}
+		for(AuxLane lane : lanes) {
+			if(lane != null) {
+				drawLane(lane, 0, width, width, height);
+				lane.dirty.clear();
+			}
+		}
+	}
+
+	/**
+	 * Redraws the parts of the auxiliary
+	 * lanes that changed since last frame.
+	 *
+	 * @param width Width
+	 * @param height Height of the canvas
+	 */
+	private void drawLaneChanges(int width, int height) {
+		int laneHeight = auxLaneHeight(height);
+		for(AuxLane lane : lanes) {
+			if(lane == null || lane.dirty.isEmpty()) {
+				continue;
+			}
+			int top = mainHeight(height) + lane.slot*laneHeight;
+			if(lane.dirty.isAll()) {
+				drawLane(lane, 0, width, width, height);
+				changed(0, top, width, laneHeight);
+			} else {
+				int length = lane.values.length();
+				for(int k = 0; k < lane.dirty.size(); k++) {
+					//whole columns are drawn from the summaries,
+					//so no slack is needed on either side
+					int x0 = (int)((long)lane.dirty.getStart(k) * width / length);
+					int x1 = Math.min((int)((long)lane.dirty.getEnd(k) * width / length) + 1, width);
+					drawLane(lane, x0, x1, width, height);
+					changed(x0, top, x1 - x0, laneHeight);
+				}
+			}
+			lane.dirty.clear();
+		}
+	}
+
+	/**
+	 * Draws columns x0 to x1 (exclusive) of
+	 * an auxiliary lane, one column at a time
+	 * like a big main array, scaled the same
+	 * as the main array unless it holds
+	 * bigger values.
+	 *
+	 * @param lane The lane
+	 * @param x0 First column
+	 * @param x1 Column after the last
+	 * @param width Width
+	 * @param height Height of the canvas
+	 */
+	private void drawLane(AuxLane lane, int x0, int x1, int width, int height) {
+		int laneHeight = auxLaneHeight(height);
+		int top = mainHeight(height) + lane.slot*laneHeight;
+		int bottom = top + laneHeight;
+		renderer.fillRect(x0, top, x1 - x0, laneHeight, backgroundColor().getRGB() & 0xFFFFFF);
+		renderer.fillRect(x0, top, x1 - x0, 1, LANE_SEPARATOR);
+		int length = lane.values.length();
+		float scale = (float)(laneHeight - 1)/Math.max(Math.max(arrMax, lane.max), 1);
+		for(int x = x0; x < x1; x++) {
+			int start = (int)((long)x * length / width);
+			int end = Math.max((int)((long)(x + 1) * length / width), start + 1);
+			lane.summaries.query(start, end);
+			int mean = lane.summaries.getMean();
+			int rgb = BarRenderer.barColor(mean, start, length);
+			renderer.fillBar(x, 1, bottom, (int)(lane.summaries.getMax()*scale), (rgb >> 2) & 0x3F3F3F);
+			renderer.fillBar(x, 1, bottom, (int)(mean*scale), (rgb >> 1) & 0x7F7F7F);
+			renderer.fillBar(x, 1, bottom, (int)(lane.summaries.getMin()*scale), rgb);
+		}
+	}
+
+	/**
+	 * Draws the part of the initial array
+	 * that has arrived, one element per
+	 * column, so it costs O(width) however
+	 * big the array is.
+	 *
+	 * @param width Width
+	 * @param height Height
+	 */
+	private void drawPreview(int width, int height) {
+		int length = preview.length;
+		for(int x = 0; x < width; x++) {
+			int index = (int)((long)x * length / width);
+			if(index >= previewLoaded) {
+				break;
+			}
+			int val = preview[index];
+			int y = (int)((float)val/arrMax*height);
+			renderer.fillBar(x, 1, height, y, BarRenderer.barColor(val, index, length));
+		}
+	}
+
+	/**
+	 * Redraws the columns covering the
+	 * indices from start (inclusive) to
+	 * end (exclusive) and repaints them.
+	 *
+	 * @param start Beginning of the range
+	 * @param end End of the range
+	 * @param width Width
+	 * @param height Height
+	 */
+	private void drawSpan(int start, int end, int width, int height) {
+		int length = arr.length();
+		start = Math.max(start, 0);
+		end = Math.min(end, length);
+		if(start >= end) {
+			return;
+		}
+		int background = backgroundColor().getRGB() & 0xFFFFFF;
+		//the lanes below are left alone
+		int mainHeight = mainHeight(height);
+		int x0, x1;
+		if(length > width) {
+			//one column can hold many elements, so
+			//leave a column of slack on each side
+			x0 = Math.max((int)((long)start * width / length) - 1, 0);
+			x1 = Math.min((int)((long)(end - 1) * width / length) + 2, width);
+			renderer.fillRect(x0, 0, x1 - x0, mainHeight, background);
+			drawSummaries(x0, x1, width, mainHeight);
+		} else {
+			int barwid = barWidth(width);
+			x0 = (int)((double)start/length * width) + 1;
+			x1 = (int)((double)(end - 1)/length * width) + 1 + barwid;
+			renderer.fillRect(x0, 0, x1 - x0, mainHeight, background);
+			drawBars(start, end, width, mainHeight, barwid);
+		}
+		changed(x0, 0, x1 - x0, mainHeight);
+	}
+
+	/**
+	 * Pushes any changes to the GUI.
+	 */
+	protected void update() {
+		scheduler.wake();
+	}
+
+	/**
+	 * Starts the thread that decides
+	 * when frames are drawn, at up to
+	 * the frame rate set with the
+	 * visualsort.fps property. Queued
+	 * events are only applied while
+	 * this thread is running.
+	 */
+	public void beginRenderThread() {
+		scheduler.start();
+	}
+
+	/**
+	 * Ends the active render thread.
+	 * Queued events will no longer
+	 * be drawn.
+	 */
+	public void endRenderThread() {
+		scheduler.stop();
+	}
+
+	/**
+	 * Rasterizes the bars from start
+	 * (inclusive) to end (exclusive)
+	 * into the renderer's image, using
+	 * the gradient based on bar height.
+	 *
+	 * @param start First bar
+	 * @param end Bar after the last
+	 * @param width Width
+	 * @param height Height
+	 * @param barwid Bar width
+	 */
+	private void drawBars(int start, int end, int width, int height, int barwid) {
+		for(int i = start; i < end; i++) {
+			double pos = (double)i/arr.length(); //position in array as percent
+			int val = arr.get(i);
+
+			int rgb;
+			if(lastChangedIndex == i) {
+				rgb = BarRenderer.GREEN;
+			} else if(i >= regionStart && i < regionEnd) {
+				rgb = BarRenderer.YELLOW;
+			} else {
+				rgb = BarRenderer.barColor(val, i, arr.length());
+			}
+			int x = (int)(pos * width);
+			int y = (int)((float)val/arrMax*height);
+			renderer.fillBar(x+1, barwid, height, y, rgb);
+			if(i == pointIndex) {
+				int pointHeight = Math.min(width/20, y);
+				renderer.fillBar(x+1, barwid, height, pointHeight, BarRenderer.RED);
+			}
+		}
+	}
+
+	/**
+	 * Rasterizes one column per pixel
+	 * when there are more elements than
+	 * pixels. Each column shows the
+	 * min, mean and max of the elements
+	 * that fall into it, read from the
+	 * summary index, so this costs
+	 * O(width) instead of O(n).
+	 *
+	 * @param x0 First column
+	 * @param x1 Column after the last
+	 * @param width Width
+	 * @param height Height
+	 */
+	private void drawSummaries(int x0, int x1, int width, int height) {
+		int length = arr.length();
+		for(int x = x0; x < x1; x++) {
+			int start = (int)((long)x * length / width);
+			int end = (int)((long)(x + 1) * length / width);
+			summaries.query(start, end);
+			int mean = summaries.getMean();
+
+			int rgb;
+			if(lastChangedIndex >= start && lastChangedIndex < end) {
+				rgb = BarRenderer.GREEN;
+			} else if(start < regionEnd && end > regionStart) {
+				rgb = BarRenderer.YELLOW;
+			} else {
+				rgb = BarRenderer.barColor(mean, start, length);
+			}
+			//brightest up to the min, dimmer up to
+			//the mean and dimmest up to the max
+			int maxY = (int)((float)summaries.getMax()/arrMax*height);
+			int meanY = (int)((float)mean/arrMax*height);
+			int minY = (int)((float)summaries.getMin()/arrMax*height);
+			renderer.fillBar(x, 1, height, maxY, (rgb >> 2) & 0x3F3F3F);
+			renderer.fillBar(x, 1, height, meanY, (rgb >> 1) & 0x7F7F7F);
+			renderer.fillBar(x, 1, height, minY, rgb);
+			if(pointIndex >= start && pointIndex < end) {
+				int pointHeight = Math.min(width/20, maxY);
+				renderer.fillBar(x, 1, height, pointHeight, BarRenderer.RED);
+			}
+		}
+	}
+
+	/**
+	 * Draws bars of a single color on
+	 * top of what is already there,
+	 * used for the translucent overlay.
+	 *
+	 * @param sorted Knows the values of the sorted array
+	 * @param g Graphics
+	 * @param width Width
+	 * @param height Height
+	 * @param color Color
+	 * @param barwid Bar width
+	 */
+	private void drawOverlayBars(SortVerifier sorted, Graphics2D g, int width, int height, Color color, int barwid) {
+		g.setColor(color);
+		int length = arr.length();
+		if(length > width) {
+			//the overlay is sorted, so the middle
+			//element of each column stands for it
+			for(int x = 0; x < width; x++) {
+				int start = (int)((long)x * length / width);
+				int end = (int)((long)(x + 1) * length / width);
+				int y = (int)((float)sorted.getSortedValue((start + end) >>> 1)/arrMax*height);
+				g.fillRect(x, height-y, 1, y);
+			}
+			return;
+		}
+		for(int i = 0; i < length; i++) {
+			double pos = (double)i/length; //position in array as percent
+			int x = (int)(pos * width);
+			int y = (int)((float)sorted.getSortedValue(i)/arrMax*height);
+			g.fillRect(x+1, height-y, barwid, y);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes the
+	 * current thread has allocated so far,
+	 * or -1 if the JVM can't tell.
+	 *
+	 * @return Bytes allocated by this thread
+	 */
+	static long threadAllocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean)threads)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Overrides JPanel's paintComponent()
+	 * method in order to draw the array
+	 *
+	 * @param Graphcis the graphics object
+	 */
+	public void paintComponent(Graphics gOld) {
+		if(surface != null) {
+			//covered by the active surface
+			return;
+		}
+		long paintStart = System.nanoTime();
+		paintArray((Graphics2D)gOld);
+		//counted towards the next frame's time
+		paintNanos += System.nanoTime() - paintStart;
+	}
+
+	/**
+	 * Draws the retained image of the
+	 * array and everything on top of it.
+	 *
+	 * @param g The graphics object
+	 */
+	private void paintArray(Graphics2D g) {
+		int width = getWidth();
+		int height = getHeight();
+
+		if(arr == null && preview == null) {
+			paintPlaceholder(g);
+			return;
+		}
+
+		//the image is kept up to date by renderFrame(),
+		//so unless the size changed this is just a copy
+		if(renderer.resize(width, height)) {
+			drawAll(width, height);
+		}
+		g.drawImage(renderer.getImage(), 0, 0, null);
+		paintOverlays(g);
+	}
+
+	/**
+	 * Applies every queued event and draws
+	 * the canvas into an image the size of
+	 * the canvas, just as it would be shown.
+	 * This lets frames be exported without
+	 * a screen. Only call it from the EDT.
+	 *
+	 * @param image Where to draw
+	 */
+	public void renderTo(BufferedImage image) {
+		renderFrame();
+		Graphics2D g = image.createGraphics();
+		try {
+			paintArray(g);
+		} finally {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * Draws what is shown before
+	 * there is an array.
+	 *
+	 * @param g The graphics object
+	 */
+	private void paintPlaceholder(Graphics2D g) {
+		g.setColor(Color.BLACK);
+		g.fillRect(0, 0, getWidth(), getHeight());
+		g.setColor(Color.WHITE);
+		g.drawString("Array will appear here.", TEXT_PADDING, TEXT_PADDING);
+	}
+
+	/**
+	 * Draws the text and the sorted
+	 * overlay on top of the bars.
+	 *
+	 * @param g The graphics object
+	 */
+	private void paintOverlays(Graphics2D g) {
+		int width = getWidth();
+		int height = getHeight();
+		if(arr == null) {
+			g.setColor(Color.WHITE);
+			g.drawString("Receiving array, " + (int)(100L * previewLoaded / preview.length) + "%.",
+					TEXT_PADDING, TEXT_PADDING);
+			if(showMetrics) {
+				drawMetrics(g);
+			}
+			return;
+		}
+		int barwid = barWidth(width);
+		int mainHeight = mainHeight(height);
+		if(readHeat != null) {
+			drawHeat(g, width, mainHeight);
+		}
+		if(laneCount > 0) {
+			drawLaneLabels(g, height);
+		}
+		if(SHOW_ALLOCATION) {
+			//measured in renderFrame() before any text
+			//is built, so this is the cost of the bars
+			g.setColor(Color.WHITE);
+			g.drawString("Allocated " + lastFrameAllocation + " bytes/frame",
+					TEXT_PADDING, height - TEXT_PADDING);
+		}
+
+		if(!isSortingInProgress) {
+			if(sortedProperly) {
+				g.setColor(Color.GREEN);
+				g.drawString("Success! " + (endTime - startTime) + "ms" + clientTimes() + ".", TEXT_PADDING, TEXT_PADDING);
+			} else {
+				g.setColor(Color.RED);
+				g.drawString("Improperly sorted array. " + (endTime - startTime) + "ms"
+						+ clientTimes() + ".", TEXT_PADDING, TEXT_PADDING);
+
+				if(sortedReference != null) {
+					drawOverlayBars(sortedReference, g, width, mainHeight, BAR_OVERLAY_COLOR, barwid);
+				}
+			}
+			if(race != null) {
+				drawRace(g, width);
+			}
+		}
+
+		if(showMetrics) {
+			drawMetrics(g);
+		}
+	}
+
+	/**
+	 * Draws the reads heatmap along the
+	 * bottom, brighter where the client
+	 * read more. Counts are shown on a log
+	 * scale so a few hot spots don't
+	 * wash out everything else.
+	 *
+	 * @param g The graphics object
+	 * @param width Width
+	 * @param height Height of the main array's lane
+	 */
+	private void drawHeat(Graphics2D g, int width, int height) {
+		int top = height - HEAT_HEIGHT;
+		g.setColor(Color.BLACK);
+		g.fillRect(0, top, width, HEAT_HEIGHT);
+		int buckets = readHeat.length;
+		double scale = (HEAT_COLORS.length - 1)/Math.log1p(heatMax);
+		for(int b = 0; b < buckets; b++) {
+			int count = readHeat[b];
+			if(count == 0) {
+				continue;
+			}
+			int x0 = (int)((long)b * width / buckets);
+			int x1 = Math.max((int)((long)(b + 1) * width / buckets), x0 + 1);
+			g.setColor(HEAT_COLORS[(int)(Math.log1p(count)*scale)]);
+			g.fillRect(x0, top, x1 - x0, HEAT_HEIGHT);
+		}
+	}
+
+	/**
+	 * Names each auxiliary lane and
+	 * the memory it takes up.
+	 *
+	 * @param g The graphics object
+	 * @param height Height of the canvas
+	 */
+	private void drawLaneLabels(Graphics2D g, int height) {
+		int laneHeight = auxLaneHeight(height);
+		int mainHeight = mainHeight(height);
+		g.setColor(Color.WHITE);
+		for(AuxLane lane : lanes) {
+			if(lane != null) {
+				g.drawString(lane.label, TEXT_PADDING, mainHeight + lane.slot*laneHeight + LANE_LABEL_OFFSET);
+			}
+		}
+	}
+
+	/**
+	 * Builds the heatmap's colors,
+	 * from dark red to yellow.
+	 *
+	 * @param levels How many
+	 * @return The colors, coldest first
+	 */
+	private static Color[] heatColors(int levels) {
+		Color[] colors = new Color[levels];
+		for(int i = 0; i < levels; i++) {
+			float heat = (float)(i + 1)/levels;
+			colors[i] = new Color(Math.min(1f, 0.3f + heat), heat*heat, 0f);
+		}
+		return colors;
+	}
+
+	/**
+	 * Describes the session's virtual
+	 * time and the time the server waited
+	 * on the client, to follow the wall
+	 * time once the sort is done.
+	 *
+	 * @return The times, or nothing without metrics
+	 */
+	private String clientTimes() {
+		SessionMetrics current = metrics;
+		if(current == null) {
+			return "";
+		}
+		return String.format(", %.3fms virtual, %.3fms waiting on client",
+				current.getVirtualNanos()/1e6, current.getClientNanos()/1e6);
+	}
+
+	/**
+	 * Draws the session's metrics
+	 * in the top left corner.
+	 *
+	 * @param g The graphics object
+	 */
+	private void drawMetrics(Graphics2D g) {
+		SessionMetrics current = metrics;
+		String[] lines;
+		if(current == null) {
+			lines = new String[] {"No metrics for this session."};
+		} else {
+			LatencyHistogram frames = current.getFrameTimes();
+			LatencyHistogram latency = current.getDecodeToPixels();
+			lines = new String[] {
+				String.format("Read %,.0f commands/s, %,d KB in total",
+						current.getCommandsPerSecond(), current.getBytesRead()/1024),
+				String.format("%,d sets, %,d marks, %,d clears, %,d points",
+						current.getSets(), current.getMarks(),
+						current.getClears(), current.getPoints()),
+				String.format("%,d reads, %,d compares",
+						current.getReads(), current.getCompares()),
+				String.format("Virtual time %,.3f ms, waited on client %,.3f ms",
+						current.getVirtualNanos()/1e6, current.getClientNanos()/1e6),
+				String.format("Aux arrays: %,d made, %,d KB now, %,d KB at peak",
+						auxArrays, auxBytes/1024, peakAuxBytes/1024),
+				String.format("Frame (%.0f fps): ", scheduler.getFramesPerSecond()) + percentiles(frames),
+				"Decode to pixels: " + percentiles(latency),
+				arr == null ? "Array: still arriving" : String.format("Array: %,d values, %s, %,d KB",
+						arr.length(), arr, arr.bytesUsed()/1024)
+			};
+		}
+		int top = TEXT_PADDING;
+		g.setColor(METRICS_BACKGROUND);
+		g.fillRect(0, top, METRICS_WIDTH, metricsHeight(lines.length));
+		g.setColor(Color.WHITE);
+		for(int i = 0; i < lines.length; i++) {
+			g.drawString(lines[i], TEXT_PADDING, top + (i + 1)*METRICS_LINE_HEIGHT + 4);
+		}
+	}
+
+	/**
+	 * Returns how tall the box behind
+	 * the metrics is, which leaves a
+	 * line's worth of room around the text.
+	 *
+	 * @param lines Lines of text in it
+	 * @return Its height in pixels
+	 */
+	private static int metricsHeight(int lines) {
+		return (lines + 1)*METRICS_LINE_HEIGHT;
+	}
+
+	/**
+	 * Draws how the client did next to
+	 * the reference sorts in the top
+	 * right corner. The client's time is
+	 * estimated from its counts at the
+	 * engines' cost per operation.
+	 *
+	 * @param g The graphics object
+	 * @param width Width
+	 */
+	private void drawRace(Graphics2D g, int width) {
+		ArrayList<String[]> rows = new ArrayList<>();
+		rows.add(new String[] {"Race, no delay", "sets", "reads", "compares", "ms"});
+		if(!race.isDone()) {
+			rows.add(new String[] {"Reference sorts still running..."});
+		} else {
+			SessionMetrics current = metrics;
+			if(current != null) {
+				long sets = current.getSets();
+				long reads = current.getReads();
+				long compares = current.getCompares();
+				rows.add(new String[] {"You (estimated)", count(sets), count(reads), count(compares),
+						millis(race.estimateMillis(sets + reads + compares))});
+			}
+			for(ReferenceRace.Result engine : race.await()) {
+				rows.add(engine.skipped != null ? new String[] {engine.name, engine.skipped}
+						: new String[] {engine.name, count(engine.sets), count(engine.reads),
+								count(engine.compares), millis(engine.nanos/1e6)});
+			}
+		}
+		int left = Math.max(0, width - RACE_WIDTH - TEXT_PADDING);
+		int top = TEXT_PADDING;
+		g.setColor(METRICS_BACKGROUND);
+		g.fillRect(left, top, RACE_WIDTH, (rows.size() + 1)*METRICS_LINE_HEIGHT);
+		g.setColor(Color.WHITE);
+		FontMetrics font = g.getFontMetrics();
+		for(int r = 0; r < rows.size(); r++) {
+			String[] cells = rows.get(r);
+			int y = top + (r + 1)*METRICS_LINE_HEIGHT + 4;
+			g.drawString(cells[0], left + 5, y);
+			for(int c = 1; c < cells.length; c++) {
+				//numbers line up on the right of their column
+				int right = left + RACE_NAME_WIDTH + c*RACE_COLUMN_WIDTH;
+				g.drawString(cells[c], right - font.stringWidth(cells[c]), y);
+			}
+		}
+	}
+
+	/**
+	 * Formats a count for the race,
+	 * which is -1 if it isn't known.
+	 *
+	 * @param count The count
+	 * @return The count, or a dash
+	 */
+	private static String count(long count) {
+		return count < 0 ? "-" : String.format("%,d", count);
+	}
+
+	/**
+	 * Formats a time for the race.
+	 *
+	 * @param ms Milliseconds, or NaN if unknown
+	 * @return The time, or a dash
+	 */
+	private static String millis(double ms) {
+		return Double.isNaN(ms) ? "-" : String.format("%,.1f", ms);
+	}
+
+	/**
+	 * Describes a histogram of
+	 * nanosecond times in ms.
+	 *
+	 * @param histogram The times
+	 * @return Its median, 99th percentile and max
+	 */
+	private static String percentiles(LatencyHistogram histogram) {
+		return String.format("median %.2f ms, 99%% %.2f ms, max %.2f ms",
+				histogram.getValueAtPercentile(50)/1e6,
+				histogram.getValueAtPercentile(99)/1e6,
+				histogram.getMax()/1e6);
 	}
 }
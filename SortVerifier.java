@@ -0,0 +1,225 @@
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Checks whether an array ended up
+ * as a sorted version of the array
+ * the sort started with, keeping the
+ * answer up to date as every set comes
+ * in so that checking at the end is
+ * instant.
+ *
+ * Two things are tracked: how much a hash
+ * of the multiset of values has changed,
+ * which any set that loses or invents a
+ * value changes, and the number of
+ * neighbours that are out of order. The
+ * array is sorted properly when the hash
+ * is back where it started and nothing is
+ * out of order. Only the changes to the
+ * hash matter, so it never has to be
+ * worked out for the whole array. It is
+ * 128 bits wide, so a wrong answer is
+ * practically impossible.
+ *
+ * What the array should have looked like
+ * is kept as a count of every value when
+ * that is smaller than a copy, since the
+ * sorted array is just the values in order,
+ * each repeated as often as it was counted.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class SortVerifier {
+	private static final int CHUNK = 1 << 16;
+	private static final long SALT_A = 0x9E3779B97F4A7C15L;
+	private static final long SALT_B = 0xC2B2AE3D27D4EB4FL;
+	private final ArrayStorage arr;
+	private long hashChangeA, hashChangeB;
+	private long descents;
+	//exactly one of these is kept when a reference is wanted
+	private final int[] counts; //becomes running totals once prepared
+	private final ArrayStorage initial; //sorted once prepared
+	private volatile boolean referencePrepared;
+	private boolean released;
+
+	/**
+	 * Builds the verifier from the
+	 * array the sort starts with,
+	 * keeping what is needed to show
+	 * the sorted array.
+	 *
+	 * @param arr The array, which is then kept up to date by the caller
+	 */
+	public SortVerifier(ArrayStorage arr) {
+		this(arr, true);
+	}
+
+	/**
+	 * Builds the verifier from the
+	 * array the sort starts with.
+	 *
+	 * @param arr The array, which is then kept up to date by the caller
+	 * @param keepReference Whether getSortedValue() will be needed
+	 */
+	public SortVerifier(final ArrayStorage arr, boolean keepReference) {
+		this.arr = arr;
+		final int length = arr.length();
+		//count in parallel, a chunk at a time
+		int chunks = (length + CHUNK - 1)/CHUNK;
+		long[] found = IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+			int start = chunk*CHUNK;
+			int end = Math.min(length, start + CHUNK);
+			long d = 0;
+			int prev = arr.get(start);
+			int min = prev, max = prev;
+			if(start > 0 && arr.get(start - 1) > prev) {
+				d++;
+			}
+			for(int i = start + 1; i < end; i++) {
+				int val = arr.get(i);
+				if(prev > val) d++;
+				if(val < min) min = val;
+				if(val > max) max = val;
+				prev = val;
+			}
+			return new long[] {d, min, max};
+		}).reduce(new long[] {0, Integer.MAX_VALUE, Integer.MIN_VALUE},
+				(x, y) -> new long[] {x[0] + y[0], Math.min(x[1], y[1]), Math.max(x[2], y[2])});
+		descents = found[0];
+		if(!keepReference || length == 0) {
+			counts = null;
+			initial = null;
+		} else if(found[1] >= 0 && 4*(found[2] + 1) <= arr.bytesUsed()) {
+			counts = new int[(int)found[2] + 1];
+			for(int i = 0; i < length; i++) {
+				counts[arr.get(i)]++;
+			}
+			initial = null;
+		} else {
+			counts = null;
+			initial = arr.copy();
+		}
+	}
+
+	/**
+	 * Takes a set into account. Call it
+	 * before the array is written, from
+	 * the thread that writes it.
+	 *
+	 * @param index The index about to change
+	 * @param newVal Its new value
+	 */
+	public void update(int index, int newVal) {
+		int oldVal = arr.get(index);
+		hashChangeA += mix(newVal + SALT_A) - mix(oldVal + SALT_A);
+		hashChangeB += mix(newVal + SALT_B) - mix(oldVal + SALT_B);
+		if(index > 0) {
+			int left = arr.get(index - 1);
+			descents += (left > newVal ? 1 : 0) - (left > oldVal ? 1 : 0);
+		}
+		if(index + 1 < arr.length()) {
+			int right = arr.get(index + 1);
+			descents += (newVal > right ? 1 : 0) - (oldVal > right ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Returns whether the array holds the
+	 * initial values in sorted order.
+	 *
+	 * @return True if sorted properly
+	 */
+	public boolean isSorted() {
+		return descents == 0 && hashChangeA == 0 && hashChangeB == 0;
+	}
+
+	/**
+	 * Gets ready to answer getSortedValue(),
+	 * adding up the counts or sorting the
+	 * copy of the initial array. This can
+	 * take a while, so call it off the EDT.
+	 */
+	public synchronized void prepareSortedReference() {
+		if(referencePrepared || released) {
+			return;
+		}
+		if(counts != null) {
+			for(int v = 1; v < counts.length; v++) {
+				counts[v] += counts[v - 1];
+			}
+		} else if(initial != null) {
+			int[] sorted = initial.toArray();
+			Arrays.parallelSort(sorted);
+			for(int i = 0; i < sorted.length; i++) {
+				initial.set(i, sorted[i]);
+			}
+		} else {
+			throw new IllegalStateException("The initial array was not kept.");
+		}
+		referencePrepared = true;
+	}
+
+	/**
+	 * Lets go of the copy of the initial
+	 * array once the verifier won't be
+	 * used again. Waits for a reference
+	 * being prepared, so call it off the EDT.
+	 */
+	public synchronized void release() {
+		released = true;
+		if(initial != null) {
+			initial.release();
+		}
+	}
+
+	/**
+	 * Returns whether getSortedValue()
+	 * is ready to be called.
+	 *
+	 * @return True once prepared
+	 */
+	public boolean isSortedReferencePrepared() {
+		return referencePrepared;
+	}
+
+	/**
+	 * Returns what the array should hold
+	 * at an index once sorted. Only call
+	 * it once the reference is prepared.
+	 *
+	 * @param index The index
+	 * @return The value
+	 */
+	public int getSortedValue(int index) {
+		if(initial != null) {
+			return initial.get(index);
+		}
+		//the first value whose running total passes index
+		int lo = 0, hi = counts.length - 1;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(counts[mid] > index) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Scrambles a value so that the
+	 * sum of many of them says which
+	 * values were added up.
+	 *
+	 * @param v The value
+	 * @return The scrambled value
+	 */
+	private static long mix(long v) {
+		v = (v ^ (v >>> 30)) * 0xBF58476D1CE4E5B9L;
+		v = (v ^ (v >>> 27)) * 0x94D049BB133111EBL;
+		return v ^ (v >>> 31);
+	}
+}
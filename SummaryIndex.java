@@ -0,0 +1,237 @@
+import java.util.*;
+
+/**
+ * Keeps min, max and sum summaries
+ * of an array in blocks of 64
+ * elements, with a segment tree on
+ * top of the blocks. Any range can
+ * then be summarized without looking
+ * at every element in it.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class SummaryIndex {
+	private static final int BLOCK_SHIFT = 6;
+	private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+	private final ArrayStorage arr;
+	private final int leaves;
+	private final int[] min;
+	private final int[] max;
+	private final long[] sum;
+	private int queryMin, queryMax, queryCount;
+	private long querySum;
+
+	/**
+	 * Builds the summaries for an array.
+	 * The index keeps a reference to it,
+	 * so every change to the array must
+	 * go through update() or be followed
+	 * by rangeChanged().
+	 *
+	 * @param arr The array to summarize
+	 */
+	public SummaryIndex(ArrayStorage arr) {
+		this.arr = arr;
+		int blocks = Math.max((arr.length() + BLOCK_SIZE - 1) >> BLOCK_SHIFT, 1);
+		int leaves = 1;
+		while(leaves < blocks) {
+			leaves <<= 1;
+		}
+		this.leaves = leaves;
+		min = new int[2 * leaves];
+		max = new int[2 * leaves];
+		sum = new long[2 * leaves];
+		//empty leaves must not affect their parents
+		Arrays.fill(min, Integer.MAX_VALUE);
+		Arrays.fill(max, Integer.MIN_VALUE);
+		for(int block = 0; block < blocks; block++) {
+			summarizeBlock(block);
+		}
+		for(int node = leaves - 1; node > 0; node--) {
+			pull(node);
+		}
+	}
+
+	/**
+	 * Sets the element at index in the
+	 * array and updates the summaries
+	 * that contain it.
+	 *
+	 * @param index The index being set
+	 * @param newVal The new value
+	 */
+	public void update(int index, int newVal) {
+		int oldVal = arr.get(index);
+		arr.set(index, newVal);
+		int block = index >> BLOCK_SHIFT;
+		int node = leaves + block;
+		sum[node] += (long)newVal - oldVal;
+		if((oldVal == min[node] && newVal > oldVal) || (oldVal == max[node] && newVal < oldVal)) {
+			//the old value might have been the only
+			//extreme in the block, so look again
+			summarizeBlock(block);
+		} else {
+			min[node] = Math.min(min[node], newVal);
+			max[node] = Math.max(max[node], newVal);
+		}
+		for(node >>= 1; node > 0; node >>= 1) {
+			pull(node);
+		}
+	}
+
+	/**
+	 * Brings the summaries up to date after
+	 * a range of the array was written
+	 * directly, looking at each block in it
+	 * once rather than once per element.
+	 *
+	 * @param start Beginning of the range, inclusive
+	 * @param end End of the range, exclusive
+	 */
+	public void rangeChanged(int start, int end) {
+		if(start >= end) {
+			return;
+		}
+		int first = start >> BLOCK_SHIFT;
+		int last = (end - 1) >> BLOCK_SHIFT;
+		for(int block = first; block <= last; block++) {
+			summarizeBlock(block);
+		}
+		//then the nodes above them, a level at a time
+		for(int lo = (leaves + first) >> 1, hi = (leaves + last) >> 1; lo > 0; lo >>= 1, hi >>= 1) {
+			for(int node = lo; node <= hi; node++) {
+				pull(node);
+			}
+		}
+	}
+
+	/**
+	 * Summarizes the elements from
+	 * start (inclusive) to end
+	 * (exclusive). The results are
+	 * read with getMin(), getMax()
+	 * and getMean().
+	 *
+	 * @param start Beginning of the range
+	 * @param end End of the range
+	 */
+	public void query(int start, int end) {
+		queryMin = Integer.MAX_VALUE;
+		queryMax = Integer.MIN_VALUE;
+		querySum = 0;
+		int firstFull = (start + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+		int lastFull = end >> BLOCK_SHIFT; //exclusive
+		if(firstFull >= lastFull) {
+			scan(start, end);
+		} else {
+			scan(start, firstFull << BLOCK_SHIFT);
+			scan(lastFull << BLOCK_SHIFT, end);
+			for(int lo = firstFull + leaves, hi = lastFull + leaves; lo < hi; lo >>= 1, hi >>= 1) {
+				if((lo & 1) == 1) {
+					take(lo++);
+				}
+				if((hi & 1) == 1) {
+					take(--hi);
+				}
+			}
+		}
+		queryCount = end - start;
+	}
+
+	/**
+	 * Returns the smallest value
+	 * of the last query.
+	 *
+	 * @return The minimum
+	 */
+	public int getMin() {
+		return queryMin;
+	}
+
+	/**
+	 * Returns the largest value
+	 * of the last query.
+	 *
+	 * @return The maximum
+	 */
+	public int getMax() {
+		return queryMax;
+	}
+
+	/**
+	 * Returns the mean value of
+	 * the last query.
+	 *
+	 * @return The mean
+	 */
+	public int getMean() {
+		return queryCount == 0 ? 0 : (int)(querySum / queryCount);
+	}
+
+	/**
+	 * Adds the elements of a range
+	 * to the current query one by one.
+	 *
+	 * @param start Beginning of the range
+	 * @param end End of the range
+	 */
+	private void scan(int start, int end) {
+		for(int i = start; i < end; i++) {
+			int val = arr.get(i);
+			if(val < queryMin) queryMin = val;
+			if(val > queryMax) queryMax = val;
+			querySum += val;
+		}
+	}
+
+	/**
+	 * Adds a tree node to the
+	 * current query.
+	 *
+	 * @param node The node
+	 */
+	private void take(int node) {
+		if(min[node] < queryMin) queryMin = min[node];
+		if(max[node] > queryMax) queryMax = max[node];
+		querySum += sum[node];
+	}
+
+	/**
+	 * Recomputes the leaf of a block
+	 * from the array.
+	 *
+	 * @param block The block
+	 */
+	private void summarizeBlock(int block) {
+		int start = block << BLOCK_SHIFT;
+		int end = Math.min(start + BLOCK_SIZE, arr.length());
+		int blockMin = Integer.MAX_VALUE;
+		int blockMax = Integer.MIN_VALUE;
+		long blockSum = 0;
+		for(int i = start; i < end; i++) {
+			int val = arr.get(i);
+			if(val < blockMin) blockMin = val;
+			if(val > blockMax) blockMax = val;
+			blockSum += val;
+		}
+		int node = leaves + block;
+		min[node] = blockMin;
+		max[node] = blockMax;
+		sum[node] = blockSum;
+	}
+
+	/**
+	 * Recomputes an inner node
+	 * from its children.
+	 *
+	 * @param node The node
+	 */
+	private void pull(int node) {
+		int left = 2 * node;
+		int right = left + 1;
+		min[node] = Math.min(min[left], min[right]);
+		max[node] = Math.max(max[left], max[right]);
+		sum[node] = sum[left] + sum[right];
+	}
+}
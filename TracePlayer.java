@@ -0,0 +1,426 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Plays a trace written by a TraceRecorder
+ * back into any ArrayInterface. The file
+ * is memory-mapped a window at a time
+ * instead of being read onto the heap,
+ * so traces can be far bigger than memory.
+ * Playback can be paused, sped up or
+ * slowed down through the user preferences,
+ * and moved to any command.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class TracePlayer implements Runnable, Closeable {
+	private static final long WINDOW_BYTES = 1L << 28;
+	//how far playback may fall behind before
+	//it stops trying to catch up
+	private static final long MAX_LAG_NS = 50000000;
+	private final File file;
+	private final FileChannel channel;
+	private final long size;
+	private final long commandCount;
+	private final ArrayInterface interf;
+	private final UserPreferences prefs;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private int lastIndex;
+	private volatile long position; //commands played so far
+	private volatile long seekTarget = -1;
+	private volatile boolean paused;
+	private volatile boolean stopAtEnd;
+	private volatile Thread playerThread;
+
+	/**
+	 * Opens a trace for playback.
+	 *
+	 * @param file The trace file
+	 * @param interf Where the commands are played back
+	 * @param prefs Supplies the delay between sets
+	 * @throws IOException If the file isn't a readable trace
+	 */
+	public TracePlayer(File file, ArrayInterface interf, UserPreferences prefs) throws IOException {
+		this.file = file;
+		this.interf = interf;
+		this.prefs = prefs;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		size = channel.size();
+		if(size < TraceRecorder.HEADER_BYTES) {
+			channel.close();
+			throw new IOException(file + " is too short to be a trace.");
+		}
+		map(0);
+		int magic = window.getInt();
+		int version = window.getInt();
+		//newer versions only added commands
+		if(magic != TraceRecorder.MAGIC || version < 1 || version > TraceRecorder.VERSION) {
+			channel.close();
+			throw new IOException(file + " is not a trace this version can read.");
+		}
+		commandCount = window.getLong();
+	}
+
+	/**
+	 * Returns the number of commands in
+	 * the trace, or -1 if the recording
+	 * never finished.
+	 *
+	 * @return The command count
+	 */
+	public long getCommandCount() {
+		return commandCount;
+	}
+
+	/**
+	 * Returns how many commands
+	 * have been played so far.
+	 *
+	 * @return The position
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Pauses or resumes playback.
+	 *
+	 * @param paused Whether to pause
+	 */
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+		wake();
+	}
+
+	/**
+	 * Returns whether playback
+	 * is paused.
+	 *
+	 * @return True if paused
+	 */
+	public boolean isPaused() {
+		return paused;
+	}
+
+	/**
+	 * Makes run() return once the end of
+	 * the trace is reached, instead of
+	 * waiting for a seek.
+	 *
+	 * @param stopAtEnd Whether to stop at the end
+	 */
+	public void setStopAtEnd(boolean stopAtEnd) {
+		this.stopAtEnd = stopAtEnd;
+	}
+
+	/**
+	 * Moves playback to just after the
+	 * given command. Going backwards starts
+	 * over from the initial array, since
+	 * every set in between has to be
+	 * applied again.
+	 *
+	 * @param command The command to move to
+	 */
+	public void seek(long command) {
+		seekTarget = Math.max(command, 0);
+		wake();
+	}
+
+	/**
+	 * Plays the trace. Blocks until the
+	 * end of the trace when stopAtEnd is
+	 * set, otherwise until interrupted.
+	 */
+	@Override
+	public void run() {
+		playerThread = Thread.currentThread();
+		try {
+			rewind();
+			long deadline = System.nanoTime();
+			while(!Thread.currentThread().isInterrupted()) {
+				long target = seekTarget;
+				if(target >= 0) {
+					seekTarget = -1;
+					if(target < position) {
+						rewind();
+					}
+					//catch up without any delay
+					while(position < target && hasRemaining()) {
+						step();
+					}
+					deadline = System.nanoTime();
+					continue;
+				}
+				if(paused || !hasRemaining()) {
+					if(!hasRemaining() && stopAtEnd) {
+						return;
+					}
+					LockSupport.park(this);
+					deadline = System.nanoTime();
+					continue;
+				}
+
+				long cost = step();
+				if(cost > 0) {
+					deadline += cost;
+					long now = System.nanoTime();
+					if(now - deadline > MAX_LAG_NS) {
+						deadline = now;
+					}
+					while(deadline - now > 0 && seekTarget < 0 && !paused) {
+						LockSupport.parkNanos(deadline - now);
+						now = System.nanoTime();
+					}
+				}
+			}
+		} catch(IOException ioe) {
+			System.err.println("Could not read trace " + file + ": " + ioe.getMessage());
+		} finally {
+			playerThread = null;
+		}
+	}
+
+	/**
+	 * Closes the trace file.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Wakes the playback thread so it
+	 * notices a pause, resume or seek.
+	 */
+	private void wake() {
+		Thread thread = playerThread;
+		if(thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Goes back to the first command
+	 * after the header.
+	 *
+	 * @throws IOException If the trace can't be read
+	 */
+	private void rewind() throws IOException {
+		map(TraceRecorder.HEADER_BYTES);
+		position = 0;
+		lastIndex = 0;
+	}
+
+	/**
+	 * Decodes and plays a single command.
+	 *
+	 * @return How long it should stay on screen in ns
+	 * @throws IOException If the trace is corrupt
+	 */
+	private long step() throws IOException {
+		int opcode = readByte();
+		long delayNs = prefs.getDelayAmount() * 1000000L;
+		long cost = 0;
+		switch(opcode) {
+			case TraceRecorder.OP_INIT:
+				int[] arr = readValues();
+				lastIndex = 0;
+				interf.init(arr);
+				break;
+			case TraceRecorder.OP_SET:
+				int index = readIndex();
+				interf.set(index, unzigzag(readVarint()));
+				cost = delayNs;
+				break;
+			case TraceRecorder.OP_POINT:
+				interf.point(readIndex());
+				cost = delayNs/PacedArrayInterface.MARK_SPEED_FACTOR;
+				break;
+			case TraceRecorder.OP_MARK:
+				int start = unzigzag(readVarint());
+				interf.markRegion(start, start + unzigzag(readVarint()));
+				break;
+			case TraceRecorder.OP_CLEAR:
+				interf.clearRegion();
+				break;
+			case TraceRecorder.OP_DONE:
+				interf.done();
+				break;
+			case TraceRecorder.OP_SWAP:
+				int i = readIndex();
+				interf.swap(i, i + unzigzag(readVarint()));
+				cost = 2*delayNs;
+				break;
+			case TraceRecorder.OP_COPY:
+				int src = readIndex();
+				int dst = src + unzigzag(readVarint());
+				int copied = readVarint();
+				interf.copyRange(src, dst, copied);
+				cost = copied*delayNs;
+				break;
+			case TraceRecorder.OP_FILL:
+				int fillStart = readIndex();
+				int filled = readVarint();
+				interf.fillRange(fillStart, filled, unzigzag(readVarint()));
+				cost = filled*delayNs;
+				break;
+			case TraceRecorder.OP_SET_RANGE:
+				int rangeStart = readIndex();
+				int[] values = readValues();
+				interf.setRange(rangeStart, values);
+				cost = values.length*delayNs;
+				break;
+			case TraceRecorder.OP_READ:
+				interf.read(readIndex());
+				break;
+			case TraceRecorder.OP_COMPARE:
+				int left = readIndex();
+				interf.compare(left, left + unzigzag(readVarint()));
+				break;
+			case TraceRecorder.OP_ALLOC:
+				int id = readVarint();
+				int auxLength = readVarint();
+				interf.allocArray(id, readName(), auxLength);
+				break;
+			case TraceRecorder.OP_FREE:
+				interf.freeArray(readVarint());
+				break;
+			case TraceRecorder.OP_SELECT:
+				interf.selectArray(readVarint());
+				break;
+			default:
+				throw new IOException("Unknown opcode " + opcode + " at command " + position + ".");
+		}
+		position++;
+		return cost;
+	}
+
+	/**
+	 * Returns whether there are
+	 * commands left to play.
+	 *
+	 * @return True if not at the end
+	 */
+	private boolean hasRemaining() {
+		return windowStart + window.position() < size;
+	}
+
+	/**
+	 * Maps the window of the file
+	 * starting at pos.
+	 *
+	 * @param pos Offset into the file
+	 * @throws IOException If mapping fails
+	 */
+	private void map(long pos) throws IOException {
+		windowStart = pos;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW_BYTES, size - pos));
+	}
+
+	/**
+	 * Reads one byte, moving the
+	 * window along if needed.
+	 *
+	 * @return The byte, from 0 to 255
+	 * @throws IOException If the trace ends early
+	 */
+	private int readByte() throws IOException {
+		if(!window.hasRemaining()) {
+			long next = windowStart + window.limit();
+			if(next >= size) {
+				throw new EOFException("Trace ends in the middle of a command.");
+			}
+			map(next);
+		}
+		return window.get() & 0xFF;
+	}
+
+	/**
+	 * Reads an int written 7 bits
+	 * at a time.
+	 *
+	 * @return The value
+	 * @throws IOException If the trace is corrupt
+	 */
+	private int readVarint() throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint at command " + position + ".");
+	}
+
+	/**
+	 * Reads an array stored as its
+	 * length and then the differences
+	 * between neighbours.
+	 *
+	 * @return The values
+	 * @throws IOException If the trace ends or is malformed
+	 */
+	private int[] readValues() throws IOException {
+		int length = readVarint();
+		if(length < 0) {
+			throw new IOException("Invalid length at command " + position + ".");
+		}
+		int[] values = new int[length];
+		int previous = 0;
+		for(int i = 0; i < length; i++) {
+			previous += unzigzag(readVarint());
+			values[i] = previous;
+		}
+		return values;
+	}
+
+	/**
+	 * Reads a name stored as its length
+	 * in bytes and then the bytes.
+	 *
+	 * @return The name
+	 * @throws IOException If the trace ends or is malformed
+	 */
+	private String readName() throws IOException {
+		int length = readVarint();
+		if(length < 0 || length > ArrayServer.MAX_NAME_BYTES) {
+			throw new IOException("Invalid name length at command " + position + ".");
+		}
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++) {
+			bytes[i] = (byte)readByte();
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads an index stored as the
+	 * difference from the previous one.
+	 *
+	 * @return The index
+	 * @throws IOException If the trace is corrupt
+	 */
+	private int readIndex() throws IOException {
+		lastIndex += unzigzag(readVarint());
+		return lastIndex;
+	}
+
+	/**
+	 * Undoes the zigzag encoding.
+	 *
+	 * @param v The encoded value
+	 * @return The signed value
+	 */
+	private static int unzigzag(int v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+}
@@ -0,0 +1,463 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ * Passes commands along to another
+ * ArrayInterface while writing them
+ * to a compact binary trace file, so
+ * the session can be replayed later
+ * with a TracePlayer.
+ *
+ * The file starts with a 16 byte header:
+ * the magic number, the format version
+ * and the number of commands (-1 if the
+ * recording never finished). Every command
+ * after it is an opcode byte followed by
+ * varints. Indices are stored as the zigzag
+ * difference from the previous index, and
+ * the initial array and ranges of values
+ * as zigzag differences between neighbours.
+ * Version 2 added swaps and ranges,
+ * version 3 reads and compares and
+ * version 4 auxiliary arrays, whose
+ * names are stored as UTF-8.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class TraceRecorder implements ArrayInterface, Closeable {
+	public static final int MAGIC = 0x56535452; //"VSTR"
+	public static final int VERSION = 4;
+	public static final int HEADER_BYTES = 16;
+	public static final int OP_INIT = 1;
+	public static final int OP_SET = 2;
+	public static final int OP_POINT = 3;
+	public static final int OP_MARK = 4;
+	public static final int OP_CLEAR = 5;
+	public static final int OP_DONE = 6;
+	public static final int OP_SWAP = 7;
+	public static final int OP_COPY = 8;
+	public static final int OP_FILL = 9;
+	public static final int OP_SET_RANGE = 10;
+	public static final int OP_READ = 11;
+	public static final int OP_COMPARE = 12;
+	public static final int OP_ALLOC = 13;
+	public static final int OP_FREE = 14;
+	public static final int OP_SELECT = 15;
+	private static final int BUFFER_BYTES = 1 << 16;
+	private static final int MAX_RECORD_BYTES = 16; //opcode and up to 3 varints
+	private final ArrayInterface delegate;
+	private final File file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+	private long commandCount;
+	private int lastIndex;
+	private boolean failed;
+
+	/**
+	 * Creates the trace file and
+	 * writes its header.
+	 *
+	 * @param file The file to create
+	 * @param delegate Where commands are passed along to
+	 * @throws IOException If the file can't be created
+	 */
+	public TraceRecorder(File file, ArrayInterface delegate) throws IOException {
+		this.file = file;
+		this.delegate = delegate;
+		channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(-1);
+	}
+
+	/**
+	 * Returns the file being written.
+	 *
+	 * @return The trace file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Passes a set along and records it.
+	 *
+	 * @param index The index
+	 * @param newVal The new value
+	 */
+	@Override
+	public void set(int index, int newVal) {
+		delegate.set(index, newVal);
+		if(room()) {
+			buffer.put((byte)OP_SET);
+			putIndex(index);
+			putVarint(zigzag(newVal));
+		}
+	}
+
+	/**
+	 * Passes a swap along and records it.
+	 *
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	@Override
+	public void swap(int i, int j) {
+		delegate.swap(i, j);
+		if(room()) {
+			buffer.put((byte)OP_SWAP);
+			putIndex(i);
+			putVarint(zigzag(j - i));
+		}
+	}
+
+	/**
+	 * Passes a copy along and records it.
+	 *
+	 * @param src Where the values come from
+	 * @param dst Where they go
+	 * @param length How many to copy
+	 */
+	@Override
+	public void copyRange(int src, int dst, int length) {
+		delegate.copyRange(src, dst, length);
+		if(room()) {
+			buffer.put((byte)OP_COPY);
+			putIndex(src);
+			putVarint(zigzag(dst - src));
+			putVarint(length);
+		}
+	}
+
+	/**
+	 * Passes a fill along and records it.
+	 *
+	 * @param start The first index
+	 * @param length How many to set
+	 * @param value The value
+	 */
+	@Override
+	public void fillRange(int start, int length, int value) {
+		delegate.fillRange(start, length, value);
+		if(room()) {
+			buffer.put((byte)OP_FILL);
+			putIndex(start);
+			putVarint(length);
+			putVarint(zigzag(value));
+		}
+	}
+
+	/**
+	 * Passes a range along and
+	 * records all of it.
+	 *
+	 * @param start The first index
+	 * @param values The new values
+	 */
+	@Override
+	public void setRange(int start, int[] values) {
+		delegate.setRange(start, values);
+		if(room()) {
+			buffer.put((byte)OP_SET_RANGE);
+			putIndex(start);
+			putValues(values);
+		}
+	}
+
+	/**
+	 * Passes the array along and
+	 * records all of it.
+	 *
+	 * @param arr The array to use
+	 */
+	@Override
+	public void init(int[] arr) {
+		delegate.init(arr);
+		if(room()) {
+			buffer.put((byte)OP_INIT);
+			putValues(arr);
+			lastIndex = 0;
+		}
+	}
+
+	/**
+	 * Passes adding an auxiliary array
+	 * along and records it.
+	 *
+	 * @param id Its id
+	 * @param name What to call it on screen
+	 * @param length How many elements it has
+	 */
+	@Override
+	public void allocArray(int id, String name, int length) {
+		delegate.allocArray(id, name, length);
+		if(room()) {
+			buffer.put((byte)OP_ALLOC);
+			putVarint(id);
+			putVarint(length);
+			putName(name);
+		}
+	}
+
+	/**
+	 * Passes removing an auxiliary
+	 * array along and records it.
+	 *
+	 * @param id Its id
+	 */
+	@Override
+	public void freeArray(int id) {
+		delegate.freeArray(id);
+		if(room()) {
+			buffer.put((byte)OP_FREE);
+			putVarint(id);
+		}
+	}
+
+	/**
+	 * Passes picking an array
+	 * along and records it.
+	 *
+	 * @param id The array's id
+	 */
+	@Override
+	public void selectArray(int id) {
+		delegate.selectArray(id);
+		if(room()) {
+			buffer.put((byte)OP_SELECT);
+			putVarint(id);
+		}
+	}
+
+	/**
+	 * Passes loading progress along without
+	 * recording it, since init() records
+	 * the whole array.
+	 *
+	 * @param arr The array being filled in
+	 * @param loaded How many elements have arrived
+	 */
+	@Override
+	public void loading(int[] arr, int loaded) {
+		delegate.loading(arr, loaded);
+	}
+
+	/**
+	 * Passes a point along and records it.
+	 *
+	 * @param index The index being processed
+	 */
+	@Override
+	public void point(int index) {
+		delegate.point(index);
+		if(room()) {
+			buffer.put((byte)OP_POINT);
+			putIndex(index);
+		}
+	}
+
+	/**
+	 * Passes a read along and records it.
+	 *
+	 * @param index The index read
+	 */
+	@Override
+	public void read(int index) {
+		delegate.read(index);
+		if(room()) {
+			buffer.put((byte)OP_READ);
+			putIndex(index);
+		}
+	}
+
+	/**
+	 * Passes a compare along and records it.
+	 *
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	@Override
+	public void compare(int i, int j) {
+		delegate.compare(i, j);
+		if(room()) {
+			buffer.put((byte)OP_COMPARE);
+			putIndex(i);
+			putVarint(zigzag(j - i));
+		}
+	}
+
+	/**
+	 * Passes the end of the sort
+	 * along and records it.
+	 */
+	@Override
+	public void done() {
+		delegate.done();
+		if(room()) {
+			buffer.put((byte)OP_DONE);
+		}
+	}
+
+	/**
+	 * Passes a marked region
+	 * along and records it.
+	 *
+	 * @param start The beginning of the region
+	 * @param end The end of the region
+	 */
+	@Override
+	public void markRegion(int start, int end) {
+		delegate.markRegion(start, end);
+		if(room()) {
+			buffer.put((byte)OP_MARK);
+			putVarint(zigzag(start));
+			putVarint(zigzag(end - start));
+		}
+	}
+
+	/**
+	 * Passes clearing the region
+	 * along and records it.
+	 */
+	@Override
+	public void clearRegion() {
+		delegate.clearRegion();
+		if(room()) {
+			buffer.put((byte)OP_CLEAR);
+		}
+	}
+
+	/**
+	 * Writes out what is left and fills
+	 * in the command count in the header.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if(flush()) {
+				ByteBuffer count = ByteBuffer.allocate(Long.BYTES);
+				count.putLong(commandCount).flip();
+				channel.write(count, HEADER_BYTES - Long.BYTES);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Makes sure the next command fits in
+	 * the buffer and counts it. Returns
+	 * false once writing has failed, after
+	 * which commands are only passed along.
+	 *
+	 * @return Whether the command should be written
+	 */
+	private boolean room() {
+		if(failed || (buffer.remaining() < MAX_RECORD_BYTES && !flush())) {
+			return false;
+		}
+		commandCount++;
+		return true;
+	}
+
+	/**
+	 * Writes the buffer to the file.
+	 *
+	 * @return False if writing failed
+	 */
+	private boolean flush() {
+		if(failed) {
+			return false;
+		}
+		try {
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+			return true;
+		} catch(IOException ioe) {
+			System.err.println("Could not write trace " + file + ": " + ioe.getMessage());
+			failed = true;
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the length of an array
+	 * and then its values, as the
+	 * differences between neighbours.
+	 *
+	 * @param values The values
+	 */
+	private void putValues(int[] values) {
+		putVarint(values.length);
+		int previous = 0;
+		for(int i = 0; i < values.length; i++) {
+			if(buffer.remaining() < MAX_RECORD_BYTES && !flush()) {
+				return;
+			}
+			putVarint(zigzag(values[i] - previous));
+			previous = values[i];
+		}
+	}
+
+	/**
+	 * Writes the length of a name
+	 * in bytes and then its bytes.
+	 *
+	 * @param name The name
+	 */
+	private void putName(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		putVarint(bytes.length);
+		for(byte b : bytes) {
+			if(buffer.remaining() < MAX_RECORD_BYTES && !flush()) {
+				return;
+			}
+			buffer.put(b);
+		}
+	}
+
+	/**
+	 * Writes an index as the difference
+	 * from the previous one.
+	 *
+	 * @param index The index
+	 */
+	private void putIndex(int index) {
+		putVarint(zigzag(index - lastIndex));
+		lastIndex = index;
+	}
+
+	/**
+	 * Writes an int 7 bits at a time,
+	 * lowest bits first.
+	 *
+	 * @param v The value, treated as unsigned
+	 */
+	private void putVarint(int v) {
+		while((v & ~0x7F) != 0) {
+			buffer.put((byte)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte)v);
+	}
+
+	/**
+	 * Maps signed ints to unsigned ones
+	 * so that small negative numbers
+	 * stay small.
+	 *
+	 * @param v The value
+	 * @return The zigzag encoding
+	 */
+	private static int zigzag(int v) {
+		return (v << 1) ^ (v >> 31);
+	}
+}
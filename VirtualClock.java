@@ -0,0 +1,78 @@
+/**
+ * Turns what a client did into how long
+ * it would take on a model machine where
+ * every kind of command has a fixed cost.
+ * Unlike the wall time, this doesn't
+ * depend on the speed slider, the network
+ * or how busy the server is, so the same
+ * sort takes the same virtual time on
+ * any machine.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class VirtualClock {
+	//roughly what an access to a plain array costs,
+	//a write dirtying its cache line as well
+	public static final int DEFAULT_SET_NANOS = 4;
+	public static final int DEFAULT_READ_NANOS = 2;
+	public static final int DEFAULT_COMPARE_NANOS = 2;
+	//marks, clears and points only help the
+	//visualization, so a real sort wouldn't pay for them
+	public static final int DEFAULT_MARK_NANOS = 0;
+	private final long setNanos, readNanos, compareNanos, markNanos;
+
+	/**
+	 * Constructs a clock with
+	 * the default costs.
+	 */
+	public VirtualClock() {
+		this(DEFAULT_SET_NANOS, DEFAULT_READ_NANOS, DEFAULT_COMPARE_NANOS, DEFAULT_MARK_NANOS);
+	}
+
+	/**
+	 * Constructs a clock.
+	 *
+	 * @param setNanos What a value written costs
+	 * @param readNanos What a read costs
+	 * @param compareNanos What a compare costs
+	 * @param markNanos What a mark, clear or point costs
+	 */
+	public VirtualClock(long setNanos, long readNanos, long compareNanos, long markNanos) {
+		if(setNanos < 0 || readNanos < 0 || compareNanos < 0 || markNanos < 0) {
+			throw new IllegalArgumentException("Costs can't be negative.");
+		}
+		this.setNanos = setNanos;
+		this.readNanos = readNanos;
+		this.compareNanos = compareNanos;
+		this.markNanos = markNanos;
+	}
+
+	/**
+	 * Works out what some commands
+	 * cost. A swap or range counts
+	 * as a set per value it writes.
+	 *
+	 * @param sets Values written
+	 * @param reads Reads
+	 * @param compares Compares
+	 * @param marks Marks, clears and points
+	 * @return Virtual nanoseconds
+	 */
+	public long cost(long sets, long reads, long compares, long marks) {
+		return sets*setNanos + reads*readNanos + compares*compareNanos + marks*markNanos;
+	}
+
+	/**
+	 * Lists the costs, for the server log.
+	 *
+	 * @return The costs
+	 */
+	@Override
+	public String toString() {
+		return "set-cost=" + setNanos
+				+ ", read-cost=" + readNanos
+				+ ", compare-cost=" + compareNanos
+				+ ", mark-cost=" + markNanos;
+	}
+}
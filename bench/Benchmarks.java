@@ -0,0 +1,491 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Measures the parts of the program that
+ * decide how fast a sort can be shown:
+ * decoding the command stream, queueing
+ * commands into the SortCanvas and drawing
+ * the bars. Every benchmark is warmed up
+ * first and then timed over several
+ * iterations, printing operations per
+ * second and how much the measured thread
+ * allocated per operation.
+ * Run it with bench/runbench.sh, optionally
+ * passing parts of benchmark names to
+ * only run those.
+ *
+ * @author Russell Coleman
+ * @version 1.0.0
+ */
+public class Benchmarks {
+	private static final long WARMUP_MS = Long.getLong("bench.warmupMs", 2000);
+	private static final long ITERATION_MS = Long.getLong("bench.iterationMs", 1000);
+	private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+	private static final int[] ARRAY_SIZES = {1000, 100000, 10000000};
+	private static final int WIDTH = 1280;
+	private static final int HEIGHT = 720;
+	private static final int DECODE_SETS = 1 << 20;
+	private static final int DECODE_LENGTH = 1 << 16;
+	private static final int BATCH_SIZE = 1 << 16;
+	private static final int SETS_PER_FRAME = 64;
+	private static String[] filters;
+	private static long sink; //results end up here so they can't be optimized away
+
+	/**
+	 * A chunk of work to time.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private interface Batch {
+		/**
+		 * Does the work once.
+		 *
+		 * @return The number of operations done
+		 * @throws Exception If the work fails
+		 */
+		long run() throws Exception;
+	}
+
+	/**
+	 * An ArrayInterface that only adds up
+	 * what it is given, so decoding can be
+	 * timed on its own.
+	 *
+	 * @author Russell Coleman
+	 * @version 1.0.0
+	 */
+	private static class CountingInterface implements ArrayInterface {
+		private long commands;
+		private long checksum;
+
+		/**
+		 * Counts a set.
+		 *
+		 * @param index The index
+		 * @param newVal The new value
+		 */
+		@Override
+		public void set(int index, int newVal) {
+			commands++;
+			checksum += index ^ newVal;
+		}
+
+		/**
+		 * Counts a swap.
+		 *
+		 * @param i The first index
+		 * @param j The second index
+		 */
+		@Override
+		public void swap(int i, int j) {
+			commands++;
+			checksum += i ^ j;
+		}
+
+		/**
+		 * Counts a copy.
+		 *
+		 * @param src Where the values come from
+		 * @param dst Where they go
+		 * @param length How many to copy
+		 */
+		@Override
+		public void copyRange(int src, int dst, int length) {
+			commands++;
+			checksum += src ^ dst ^ length;
+		}
+
+		/**
+		 * Counts a fill.
+		 *
+		 * @param start The first index
+		 * @param length How many to set
+		 * @param value The value
+		 */
+		@Override
+		public void fillRange(int start, int length, int value) {
+			commands++;
+			checksum += start ^ length ^ value;
+		}
+
+		/**
+		 * Counts a range of sets.
+		 *
+		 * @param start The first index
+		 * @param values The new values
+		 */
+		@Override
+		public void setRange(int start, int[] values) {
+			commands++;
+			for(int i = 0; i < values.length; i++) {
+				checksum += (start + i) ^ values[i];
+			}
+		}
+
+		/**
+		 * Counts adding an auxiliary array.
+		 *
+		 * @param id Its id
+		 * @param name What to call it
+		 * @param length How many elements it has
+		 */
+		@Override
+		public void allocArray(int id, String name, int length) {
+			commands++;
+		}
+
+		/**
+		 * Counts removing an auxiliary array.
+		 *
+		 * @param id Its id
+		 */
+		@Override
+		public void freeArray(int id) {
+			commands++;
+		}
+
+		/**
+		 * Counts picking an array.
+		 *
+		 * @param id The array's id
+		 */
+		@Override
+		public void selectArray(int id) {
+			commands++;
+		}
+
+		/**
+		 * Counts the init.
+		 *
+		 * @param arr The array to use
+		 */
+		@Override
+		public void init(int[] arr) {
+			commands++;
+		}
+
+		/**
+		 * Counts a point.
+		 *
+		 * @param index The index being processed
+		 */
+		@Override
+		public void point(int index) {
+			commands++;
+			checksum += index;
+		}
+
+		/**
+		 * Counts the end of the sort.
+		 */
+		@Override
+		public void done() {
+			commands++;
+		}
+
+		/**
+		 * Counts a marked region.
+		 *
+		 * @param start The beginning of the region
+		 * @param end The end of the region
+		 */
+		@Override
+		public void markRegion(int start, int end) {
+			commands++;
+			checksum += start ^ end;
+		}
+
+		/**
+		 * Counts clearing the region.
+		 */
+		@Override
+		public void clearRegion() {
+			commands++;
+		}
+	}
+
+	/**
+	 * Runs every benchmark whose name
+	 * contains one of the arguments,
+	 * or all of them if there are none.
+	 *
+	 * @param args Parts of benchmark names
+	 * @throws Exception If a benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		filters = args;
+		System.out.println(String.format("%-24s %14s %8s %12s %10s",
+				"benchmark", "ops/s", "error", "B/op", "MB/s"));
+
+		for(int version = 1; version <= ArrayServer.MAX_PROTOCOL_VERSION; version++) {
+			benchDecode(version);
+		}
+		for(int size : ARRAY_SIZES) {
+			benchCanvasSet(size);
+		}
+		for(int size : ARRAY_SIZES) {
+			benchDrawing(size);
+		}
+		System.out.println("(checksum " + sink + ")");
+		System.exit(0);
+	}
+
+	/**
+	 * Times decoding a stream of sets
+	 * held in memory, in the given
+	 * protocol version.
+	 *
+	 * @param version The protocol version
+	 * @throws Exception If decoding fails
+	 */
+	private static void benchDecode(final int version) throws Exception {
+		String name = "decode-v" + version;
+		if(!selected(name)) {
+			return;
+		}
+		final byte[] stream = encodeSets(version, randomInts(DECODE_SETS*2, DECODE_LENGTH));
+		final CountingInterface counter = new CountingInterface();
+		final SessionMetrics metrics = new SessionMetrics(name);
+		measure(name, () -> {
+			counter.commands = 0;
+			CommandInput in = new CommandInput(new ByteArrayInputStream(stream));
+			ArrayServer.readCommands(version, in, counter, metrics, null, null);
+			sink += counter.checksum;
+			return counter.commands;
+		});
+	}
+
+	/**
+	 * Times queueing sets into a SortCanvas
+	 * while its render thread applies them.
+	 * Allocation is that of the caller.
+	 *
+	 * @param size The length of the array
+	 * @throws Exception If the canvas fails
+	 */
+	private static void benchCanvasSet(int size) throws Exception {
+		String name = "canvas-set-" + size;
+		if(!selected(name)) {
+			return;
+		}
+		final SortCanvas canvas = new SortCanvas();
+		canvas.setSize(WIDTH, HEIGHT);
+		canvas.init(randomInts(size, size));
+		canvas.beginRenderThread();
+		final int[] pairs = randomInts(BATCH_SIZE*2, size);
+		measure(name, () -> {
+			for(int i = 0; i < pairs.length; i += 2) {
+				canvas.set(pairs[i], pairs[i + 1]);
+			}
+			return BATCH_SIZE;
+		});
+		canvas.endRenderThread();
+	}
+
+	/**
+	 * Times drawing on the EDT: redrawing
+	 * every bar, a frame after a handful
+	 * of sets, and painting the canvas
+	 * onto an offscreen image.
+	 *
+	 * @param size The length of the array
+	 * @throws Exception If drawing fails
+	 */
+	private static void benchDrawing(final int size) throws Exception {
+		final String drawAll = "draw-all-" + size;
+		final String frame = "frame-" + SETS_PER_FRAME + "-sets-" + size;
+		final String paint = "paint-" + size;
+		if(!selected(drawAll) && !selected(frame) && !selected(paint)) {
+			return;
+		}
+		final SortCanvas canvas = new SortCanvas();
+		canvas.setSize(WIDTH, HEIGHT);
+		final int[] pairs = randomInts(BATCH_SIZE*2, size);
+		final BufferedImage target = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		onEventThread(() -> {
+			canvas.init(randomInts(size, size));
+			canvas.renderFrame();
+			if(selected(drawAll)) {
+				measure(drawAll, () -> {
+					canvas.drawAll(WIDTH, HEIGHT);
+					return 1;
+				});
+			}
+			if(selected(frame)) {
+				int[] next = {0};
+				measure(frame, () -> {
+					for(int i = 0; i < SETS_PER_FRAME; i++) {
+						int k = next[0];
+						canvas.set(pairs[k], pairs[k + 1]);
+						next[0] = (k + 2) % pairs.length;
+					}
+					canvas.renderFrame();
+					return 1;
+				});
+			}
+			if(selected(paint)) {
+				Graphics2D g = target.createGraphics();
+				measure(paint, () -> {
+					canvas.paintComponent(g);
+					return 1;
+				});
+				g.dispose();
+			}
+			sink += target.getRGB(WIDTH/2, HEIGHT - 1);
+			return 0;
+		});
+	}
+
+	/**
+	 * Warms up a batch and then times it,
+	 * printing the mean rate, its relative
+	 * standard deviation and the allocation
+	 * of the calling thread.
+	 *
+	 * @param name The benchmark name
+	 * @param batch The work to time
+	 * @throws Exception If the work fails
+	 */
+	private static void measure(String name, Batch batch) throws Exception {
+		long warmupEnd = System.nanoTime() + WARMUP_MS*1000000L;
+		while(System.nanoTime() < warmupEnd) {
+			batch.run();
+		}
+
+		double[] rates = new double[ITERATIONS];
+		long totalOps = 0;
+		long totalNanos = 0;
+		long allocationBefore = SortCanvas.threadAllocatedBytes();
+		for(int it = 0; it < ITERATIONS; it++) {
+			long ops = 0;
+			long start = System.nanoTime();
+			long end = start + ITERATION_MS*1000000L;
+			long now;
+			do {
+				ops += batch.run();
+				now = System.nanoTime();
+			} while(now < end);
+			rates[it] = ops*1e9/(now - start);
+			totalOps += ops;
+			totalNanos += now - start;
+		}
+		long allocated = SortCanvas.threadAllocatedBytes() - allocationBefore;
+
+		double mean = 0;
+		for(double rate : rates) {
+			mean += rate;
+		}
+		mean /= ITERATIONS;
+		double variance = 0;
+		for(double rate : rates) {
+			variance += (rate - mean)*(rate - mean);
+		}
+		double error = ITERATIONS > 1 ? Math.sqrt(variance/(ITERATIONS - 1))/mean*100 : 0;
+		System.out.println(String.format(Locale.ROOT, "%-24s %14.1f %7.1f%% %12.1f %10.1f",
+				name, mean, error, (double)allocated/totalOps,
+				allocated/(totalNanos/1e9)/(1 << 20)));
+	}
+
+	/**
+	 * Encodes pairs of index and value as
+	 * set commands followed by an exit,
+	 * the way a client would send them.
+	 *
+	 * @param version The protocol version
+	 * @param pairs Index, value, index, value...
+	 * @return The encoded stream
+	 * @throws IOException Never, it is all in memory
+	 */
+	private static byte[] encodeSets(int version, int[] pairs) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(pairs.length*4 + 1024);
+		DataOutputStream out = new DataOutputStream(bytes);
+		if(version >= 2) {
+			//as many sets per SET_BATCH frame as fit
+			int perFrame = (ArrayServer.MAX_FRAME_BYTES/4 - 2)/2;
+			for(int i = 0; i < pairs.length; i += perFrame*2) {
+				int count = Math.min(perFrame, (pairs.length - i)/2);
+				out.writeInt((2 + count*2)*4);
+				out.writeInt(ArrayServer.CMD_SET_BATCH);
+				out.writeInt(count);
+				for(int k = 0; k < count*2; k++) {
+					out.writeInt(pairs[i + k]);
+				}
+			}
+			out.writeInt(4);
+			out.writeInt(ArrayServer.CMD_EXIT);
+		} else {
+			for(int i = 0; i < pairs.length; i += 2) {
+				out.writeInt(ArrayServer.CMD_SET);
+				out.writeInt(pairs[i]);
+				out.writeInt(pairs[i + 1]);
+			}
+			out.writeInt(ArrayServer.CMD_EXIT);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns random ints from 0
+	 * (inclusive) to bound (exclusive),
+	 * the same every run.
+	 *
+	 * @param count How many
+	 * @param bound The upper bound
+	 * @return The ints
+	 */
+	private static int[] randomInts(int count, int bound) {
+		Random random = new Random(count ^ bound);
+		int[] values = new int[count];
+		for(int i = 0; i < count; i++) {
+			values[i] = random.nextInt(bound);
+		}
+		return values;
+	}
+
+	/**
+	 * Returns whether a benchmark
+	 * should run.
+	 *
+	 * @param name The benchmark name
+	 * @return True if it matches a filter
+	 */
+	private static boolean selected(String name) {
+		if(filters.length == 0) {
+			return true;
+		}
+		for(String filter : filters) {
+			if(name.contains(filter)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs a batch on the EDT, where
+	 * the canvas expects to be drawn,
+	 * and waits for it.
+	 *
+	 * @param batch The work
+	 * @throws Exception If the work fails
+	 */
+	private static void onEventThread(Batch batch) throws Exception {
+		Exception[] failure = {null};
+		SwingUtilities.invokeAndWait(() -> {
+			try {
+				batch.run();
+			} catch(Exception e) {
+				failure[0] = e;
+			}
+		});
+		if(failure[0] != null) {
+			throw failure[0];
+		}
+	}
+}
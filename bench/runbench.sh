@@ -0,0 +1,14 @@
+#!/bin/bash
+#run from the project root, e.g. bench/runbench.sh decode draw-all
+echo Building benchmarks...
+classes=$(mktemp -d)
+javac -d "$classes" *.java bench/*.java
+if [ $? -ne 0 ]; then
+	echo Failed'! :('
+	rm -rf "$classes"
+	exit 1
+fi
+java -Djava.awt.headless=true -cp "$classes" Benchmarks "$@"
+status=$?
+rm -rf "$classes"
+exit $status
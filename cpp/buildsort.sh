@@ -4,4 +4,4 @@ if [ $# -ne 1 ]; then
 	echo "Usage: $0 file.cpp"
 	exit
 fi
-g++ -Wall -std=c++11 $1 updateable_int.cpp visualarr.cpp -o sort.out
+g++ -Wall -O2 -std=c++11 $1 updateable_int.cpp visualarr.cpp -o sort.out
@@ -8,34 +8,45 @@ void print_array(T& arr, int start, int end) {
 	std::cout << std::endl;
 }
 
-void merge_helper(visualarr& arr, int start, int end) {
+void merge_helper(visualarr& arr, visualaux& buffer, int start, int end) {
 	if(end - start > 1) {
 		int diff = end-start;
 		int firstlen = diff/2;
-		merge_helper(arr, start, start+firstlen);
-		merge_helper(arr, start+firstlen, end);
+		merge_helper(arr, buffer, start, start+firstlen);
+		merge_helper(arr, buffer, start+firstlen, end);
 
 		arr.mark(start, end);
 
 		int leftindex = start;
 		int rightindex = start+firstlen;
-		int* tmparr = new int[diff];
 
 		for(int i = start; i < end; i++) {
-			if(rightindex >= end || (leftindex < start+firstlen && (arr[leftindex] < arr[rightindex]))) {
-				tmparr[i-start] = arr[leftindex++];
+			if(rightindex >= end || (leftindex < start+firstlen && arr.compare(leftindex, rightindex) < 0)) {
+				buffer[i] = arr[leftindex++];
 			} else {
-				tmparr[i-start] = arr[rightindex++];
+				buffer[i] = arr[rightindex++];
 			}
 		}
-		for(int i = 0; i < diff; i++) {
-			arr[start + i] = tmparr[i];
-		}
+		//copy back with a single command
+		const std::vector<int>& merged = buffer.values();
+		arr.set_range(start, std::vector<int>(merged.begin() + start, merged.begin() + end));
 	}
 }
 
 
+//usage: ./sort.out ip [size [distribution [seed]]]
+//with a size, the server generates an array that big
 int main(int argc, char** argv) {
-	visualarr arr(argv[1]);
-	merge_helper(arr, 0, arr.size());
+	if(argc > 2) {
+		array_spec spec(std::stoi(argv[2]),
+				static_cast<distribution>(argc > 3 ? std::stoi(argv[3]) : 0),
+				argc > 4 ? std::stoi(argv[4]) : 0);
+		visualarr arr(spec, argv[1]);
+		visualaux buffer(arr, "merge buffer", arr.size());
+		merge_helper(arr, buffer, 0, arr.size());
+	} else {
+		visualarr arr(argv[1]);
+		visualaux buffer(arr, "merge buffer", arr.size());
+		merge_helper(arr, buffer, 0, arr.size());
+	}
 }
@@ -18,8 +18,6 @@ int main(int argc, char** argv) {
 		}
 
 		//swap current index with minimum
-		int temp = arr[i];
-		arr[i] = arr[minindex];
-		arr[minindex] = temp;
+		arr.swap(i, minindex);
 	}
 }
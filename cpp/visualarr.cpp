@@ -9,6 +9,103 @@ bool visualarr::send_num(int num) {
 	return true;
 }
 
+bool visualarr::send_all(const void* data, std::size_t len) {
+	const char* bytes = static_cast<const char*>(data);
+	while(len > 0) {
+		ssize_t sent = send(clientSocket, bytes, len, 0);
+		if(sent < 0) {
+			return false;
+		}
+		bytes += sent;
+		len -= sent;
+	}
+	return true;
+}
+
+//Protocol v2 collects commands into a frame that is
+//sent with a single syscall. The first int of the
+//frame is reserved for its length in bytes. Commands
+//are queued whole, so a full frame is sent right away
+//without splitting a command across two frames.
+void visualarr::queue_command(const int* nums, std::size_t count) {
+	if(protocol_version < 2) {
+		for(std::size_t i = 0; i < count; i++) {
+			send_num(nums[i]);
+		}
+		return;
+	}
+	close_batch();
+	for(std::size_t i = 0; i < count; i++) {
+		frame.push_back(htonl(nums[i]));
+	}
+	if(frame.size() >= FRAME_INTS) {
+		flush();
+	}
+}
+
+void visualarr::queue_command(std::initializer_list<int> nums) {
+	queue_command(nums.begin(), nums.size());
+}
+
+//Protocol v3 only lets the client get so far ahead of
+//the visualizer. Every command but exit uses up a credit,
+//every set in a batch counting as one, and once they run
+//out the client sends what it has and waits for the
+//server to hand out more.
+void visualarr::take_credit() {
+	if(protocol_version < 3) {
+		return;
+	}
+	wait_for_credit();
+	credits--;
+}
+
+void visualarr::wait_for_credit() {
+	while(credits == 0) {
+		flush();
+		credits += recv_num();
+	}
+}
+
+//Consecutive sets are packed into one SET_BATCH command.
+void visualarr::queue_set(int index, int val) {
+	if(protocol_version < 2) {
+		send_num(1);
+		send_num(index);
+		send_num(val);
+		return;
+	}
+	take_credit();
+	if(batch_count == 0) {
+		frame.push_back(htonl(5));
+		batch_count_pos = frame.size();
+		frame.push_back(0);
+	}
+	batch_count++;
+	frame.push_back(htonl(index));
+	frame.push_back(htonl(val));
+	if(frame.size() >= FRAME_INTS) {
+		flush();
+	}
+}
+
+void visualarr::close_batch() {
+	if(batch_count > 0) {
+		frame[batch_count_pos] = htonl(batch_count);
+		batch_count = 0;
+	}
+}
+
+void visualarr::flush() {
+	close_batch();
+	if(protocol_version < 2 || frame.size() <= 1) {
+		return;
+	}
+	frame[0] = htonl((frame.size() - 1) * sizeof(int));
+	send_all(frame.data(), frame.size() * sizeof(int));
+	frame.resize(1);
+}
+
 int visualarr::recv_num() {
 	int buffer;
 	int retval;
@@ -23,10 +120,39 @@ int visualarr::recv_num() {
 	return buffer;
 }
 
+void visualarr::recv_all(void* data, std::size_t len) {
+	char* bytes = static_cast<char*>(data);
+	while(len > 0) {
+		ssize_t got = recv(clientSocket, bytes, len, 0);
+		if(got < 0) {
+			if(errno == EINTR) {
+				continue;
+			}
+			std::string msg = "Failed to receive array! Err: " + std::to_string(errno);
+			throw socket_exception(msg);
+		}
+		if(got == 0) {
+			throw socket_eof_exception("Server closed connection.");
+		}
+		bytes += got;
+		len -= got;
+	}
+}
+
+//The server sends the length and then
+//every value, all in one go
+void visualarr::recv_array() {
+	int len = recv_num();
+	arr.resize(len);
+	recv_all(arr.data(), arr.size() * sizeof(int));
+	for(int& val : arr) {
+		val = ntohl(val);
+	}
+}
+
 void visualarr::mark(int start, int end) {
-	send_num(2);
-	send_num(start);
-	send_num(end);
+	take_credit();
+	queue_command({2, start, end});
 }
 
 void visualarr::mark(int index) {
@@ -34,19 +160,160 @@ void visualarr::mark(int index) {
 }
 
 void visualarr::point(int index) {
-	send_num(4);
-	send_num(index);
+	take_credit();
+	queue_command({4, index});
 	if(time_delay_point_ms > 0) {
+		flush();
 		std::this_thread::sleep_for(std::chrono::milliseconds(time_delay_point_ms));
 	}
 }
 
 void visualarr::clearMark() {
-	send_num(3);
+	take_credit();
+	queue_command({3});
 }
 
-visualarr::visualarr(std::vector<int> arr, std::string ip, int port) {
-	this->arr = arr;
+//Protocol v5 added reads and compares, costing a credit
+//each like any other command. A program that only reads
+//never calls queue_set, but queue_command flushes full frames too.
+bool visualarr::reporting_reads() {
+	return reads_tracked && protocol_version >= 5;
+}
+
+void visualarr::queue_read(int index) {
+	take_credit();
+	queue_command({10, index});
+}
+
+int visualarr::compare(int i, int j) {
+	check_range(i, 1);
+	check_range(j, 1);
+	if(reporting_reads()) {
+		select_array(0);
+		take_credit();
+		queue_command({11, i, j});
+	}
+	return (arr[i] > arr[j]) - (arr[i] < arr[j]);
+}
+
+void visualarr::track_reads(bool tracked) {
+	reads_tracked = tracked;
+}
+
+//Protocol v6 added auxiliary arrays. Commands go to the
+//array picked last, so a select is only sent when the
+//client switches arrays, and writes to either cost the same.
+void visualarr::select_array(int id) {
+	if(protocol_version < 6 || selected == id) {
+		return;
+	}
+	take_credit();
+	queue_command({14, id});
+	selected = id;
+}
+
+void visualarr::check_range(int start, int len) {
+	if(!connected) {
+		throw socket_exception("Not connected!");
+	}
+	if(start < 0 || len < 0 || (std::size_t)start + len > size()) {
+		std::string msg = "Not in bounds: " + std::to_string(len) + " at " + std::to_string(start);
+		throw index_out_of_bounds_exception(msg);
+	}
+}
+
+void visualarr::pause_after_write() {
+	if(time_delay_ms > 0) {
+		flush();
+		std::this_thread::sleep_for(std::chrono::milliseconds(time_delay_ms));
+	}
+}
+
+//Protocol v4 added swaps and ranges, each costing one
+//credit except set_range, which costs one per value.
+void visualarr::swap(int i, int j) {
+	check_range(i, 1);
+	check_range(j, 1);
+	std::swap(arr[i], arr[j]);
+	select_array(0);
+	if(protocol_version < 4) {
+		queue_set(i, arr[i]);
+		queue_set(j, arr[j]);
+	} else {
+		take_credit();
+		queue_command({6, i, j});
+	}
+	pause_after_write();
+}
+
+void visualarr::copy_range(int src, int dst, int len) {
+	check_range(src, len);
+	check_range(dst, len);
+	if(len == 0) {
+		return;
+	}
+	memmove(&arr[dst], &arr[src], len * sizeof(int));
+	select_array(0);
+	if(protocol_version < 4) {
+		for(int i = 0; i < len; i++) {
+			queue_set(dst + i, arr[dst + i]);
+		}
+	} else {
+		take_credit();
+		queue_command({7, src, dst, len});
+	}
+	pause_after_write();
+}
+
+void visualarr::fill_range(int start, int len, int val) {
+	check_range(start, len);
+	std::fill(arr.begin() + start, arr.begin() + start + len, val);
+	select_array(0);
+	if(protocol_version < 4) {
+		for(int i = 0; i < len; i++) {
+			queue_set(start + i, val);
+		}
+	} else {
+		take_credit();
+		queue_command({8, start, len, val});
+	}
+	pause_after_write();
+}
+
+void visualarr::set_range(int start, const std::vector<int>& vals) {
+	int len = vals.size();
+	check_range(start, len);
+	std::copy(vals.begin(), vals.end(), arr.begin() + start);
+	select_array(0);
+	if(protocol_version < 4) {
+		for(int i = 0; i < len; i++) {
+			queue_set(start + i, vals[i]);
+		}
+		pause_after_write();
+		return;
+	}
+	//split up so that no piece needs more
+	//credit than the client has
+	for(int done = 0; done < len;) {
+		wait_for_credit();
+		int count = std::min<long>(std::min(len - done, RANGE_CHUNK_INTS), credits);
+		credits -= count;
+		close_batch();
+		frame.push_back(htonl(9));
+		frame.push_back(htonl(start + done));
+		frame.push_back(htonl(count));
+		for(int i = 0; i < count; i++) {
+			frame.push_back(htonl(vals[done + i]));
+		}
+		done += count;
+		if(frame.size() >= FRAME_INTS) {
+			flush();
+		}
+	}
+	pause_after_write();
+}
+
+bool visualarr::open_connection(std::string ip, int port) {
 	this->clientSocket = -1;
 	int clientSocket;
 	struct sockaddr_in serverAddr;
@@ -64,27 +331,41 @@ visualarr::visualarr(std::vector<int> arr, std::string ip, int port) {
 	if(connect(clientSocket, (struct sockaddr *)&serverAddr, addr_size) < 0) {
 		std::cerr << "Failed to connect to server. Err: " << errno << std::endl;
 		this->clientSocket = -1;
-		return;
+		return false;
 	}
 	connected = true;
 	this->clientSocket = clientSocket;
 
 	if(!send_num(HANDSHAKE_NUM)) {
 		std::cerr << "Failed to handshake with server." << std::endl;
-		return;
+		return false;
 	}
 
 	time_delay_ms = recv_num();
 	time_delay_point_ms = recv_num();
 
+	//ask for the newest protocol, the server answers
+	//with the version it picked and its speed settings again
+	send_num(2);
+	send_num(PROTOCOL_VERSION);
+	protocol_version = recv_num();
+	time_delay_ms = recv_num();
+	time_delay_point_ms = recv_num();
+	frame.reserve(FRAME_INTS + 4);
+	frame.push_back(0); //room for the frame length
+	return true;
+}
+
+visualarr::visualarr(std::vector<int> arr, std::string ip, int port) {
+	this->arr = arr;
+	if(!open_connection(ip, port)) {
+		return;
+	}
+
 	if(arr.size() == 0) {
 		send_num(0);
 		//Read in an array from the server
-		int len = recv_num();
-		this->arr = std::vector<int>(len);
-		for(int i = 0; i < len; i++) {
-			this->arr[i] = recv_num();
-		}
+		recv_array();
 	} else {
 		send_num(1);
 		//Use our own array and send it to the server
@@ -94,8 +375,17 @@ visualarr::visualarr(std::vector<int> arr, std::string ip, int port) {
 			return;
 		}
 
-		for(int i = 0; i < len; i++) {
-			if(!send_num(arr[i])) {
+		//Convert and send a chunk at a time rather
+		//than making a syscall for every value
+		std::vector<int> chunk;
+		chunk.reserve(UPLOAD_CHUNK_INTS);
+		for(int i = 0; i < len; i += UPLOAD_CHUNK_INTS) {
+			int end = std::min(len, i + UPLOAD_CHUNK_INTS);
+			chunk.clear();
+			for(int j = i; j < end; j++) {
+				chunk.push_back(htonl(arr[j]));
+			}
+			if(!send_all(chunk.data(), chunk.size() * sizeof(int))) {
 				std::cerr << "Array failed to send partway through." << std::endl;
 				return;
 			}
@@ -103,6 +393,19 @@ visualarr::visualarr(std::vector<int> arr, std::string ip, int port) {
 	}
 }
 
+visualarr::visualarr(array_spec spec, std::string ip, int port) {
+	if(!open_connection(ip, port)) {
+		return;
+	}
+
+	//Have the server generate the array
+	send_num(3);
+	send_num(spec.size);
+	send_num(static_cast<int>(spec.dist));
+	send_num(spec.seed);
+	recv_array();
+}
+
 bool visualarr::isConnected() {
 	return connected;
 }
@@ -125,24 +428,124 @@ updateable_int visualarr::operator[](int i) {
 		if(!isConnected()) {
 			throw socket_exception("Cannot set data when not connected.");
 		}
-		send_num(1);
-		send_num(i);
-		send_num(val);
+		select_array(0);
+		queue_set(i, val);
 
 		arr[i] = val;
 
 		if(time_delay_ms > 0) {
+			flush();
 			std::this_thread::sleep_for(std::chrono::milliseconds(time_delay_ms));
 		}
 	};
 
-	updateable_int ret = updateable_int(arr[i], callback);
-	return ret;
+	if(!reporting_reads()) {
+		return updateable_int(arr[i], callback);
+	}
+	auto on_read = [=]() {
+		select_array(0);
+		queue_read(i);
+	};
+	return updateable_int(arr[i], callback, on_read);
 }
 
 visualarr::~visualarr() {
 	if(clientSocket > 0) {
-		send_num(0); //shutdown
-		shutdown(clientSocket, 2);
+		queue_command({0}); //shutdown
+		flush();
+		shutdown(clientSocket, SHUT_WR);
+		//closing with credits still unread resets the connection,
+		//which can lose commands the server hasn't read yet, so
+		//read them until the server says it is done too
+		if(protocol_version >= 3) {
+			char unread[256];
+			while(recv(clientSocket, unread, sizeof(unread), 0) > 0) {}
+		}
+		close(clientSocket);
+	}
+}
+
+visualaux::visualaux(visualarr& owner, std::string name, int size) : owner(owner) {
+	if(size <= 0) {
+		throw std::invalid_argument("Auxiliary arrays need at least one element.");
+	}
+	for(int i = 1; i < MAX_ARRAYS && id == 0; i++) {
+		if(!(owner.used_ids & (1u << i))) {
+			id = i;
+		}
+	}
+	if(id == 0) {
+		throw std::runtime_error("Too many auxiliary arrays.");
+	}
+	owner.used_ids |= 1u << id;
+	arr.assign(size, 0);
+	if(!shown()) {
+		return;
+	}
+	//the name goes as UTF-8, four bytes to an int
+	name = name.substr(0, MAX_NAME_BYTES);
+	std::vector<int> command = {12, id, size, (int)name.size()};
+	for(std::size_t i = 0; i < name.size(); i += 4) {
+		int packed = 0;
+		for(std::size_t k = i; k < i + 4; k++) {
+			packed = packed << 8 | (k < name.size() ? (unsigned char)name[k] : 0);
+		}
+		command.push_back(packed);
+	}
+	owner.take_credit();
+	owner.queue_command(command.data(), command.size());
+}
+
+bool visualaux::shown() {
+	return owner.isConnected() && owner.protocol_version >= 6;
+}
+
+std::size_t visualaux::size() {
+	return arr.size();
+}
+
+updateable_int visualaux::operator[](int i) {
+	if(i < 0 || (unsigned int)i >= size()) {
+		std::string msg = "Not in bounds: " + std::to_string(i);
+		throw index_out_of_bounds_exception(msg);
+	}
+
+	auto callback = [=](int val) {
+		arr[i] = val;
+		if(shown()) {
+			owner.select_array(id);
+			owner.queue_set(i, val);
+		}
+		owner.pause_after_write();
+	};
+
+	if(!shown() || !owner.reporting_reads()) {
+		return updateable_int(arr[i], callback);
+	}
+	auto on_read = [=]() {
+		owner.select_array(id);
+		owner.queue_read(i);
+	};
+	return updateable_int(arr[i], callback, on_read);
+}
+
+const std::vector<int>& visualaux::values() {
+	return arr;
+}
+
+visualaux::~visualaux() {
+	owner.used_ids &= ~(1u << id);
+	if(!shown()) {
+		return;
+	}
+	//freeing the selected array selects the main one
+	if(owner.selected == id) {
+		owner.selected = 0;
+	}
+	try {
+		owner.take_credit();
+		owner.queue_command({13, id});
+	} catch(socket_exception& e) {
+		//the server is gone, so there is nothing to free
 	}
 }
@@ -2,15 +2,25 @@
 #include <netinet/in.h>
 #include <cstring>
 #include <arpa/inet.h>
+#include <unistd.h>
 #include <string>
 #include <errno.h>
 #include <functional>
 #include <iostream>
 #include <vector>
+#include <initializer_list>
+#include <algorithm>
 #include <exception>
+#include <stdexcept>
 #include <chrono>
 #include <thread>
 #define HANDSHAKE_NUM 5309352
+#define PROTOCOL_VERSION 6
+#define FRAME_INTS 4096
+#define UPLOAD_CHUNK_INTS 16384
+#define RANGE_CHUNK_INTS 4096
+#define MAX_ARRAYS 16
+#define MAX_NAME_BYTES 64
 
 class socket_exception: public std::runtime_error
 {
@@ -39,29 +49,84 @@ class updateable_int {
 private:
 	int val;
 	std::function<void(int)> callback;
+	std::function<void()> on_read; //empty when reads aren't reported
 
 public:
-	updateable_int(int val, std::function<void(int)> callback) : val(val), callback(callback) {}
+	updateable_int(int val, std::function<void(int)> callback,
+			std::function<void()> on_read = nullptr) :
+		val(val), callback(callback), on_read(on_read) {}
 	updateable_int& operator=(const int& new_val);
 	updateable_int& operator=(const updateable_int& other);
 	operator int() const;
 };
 
+//How the server lays out an array it generates
+enum class distribution {
+	uniform = 0,
+	nearly_sorted = 1,
+	reversed = 2,
+	few_unique = 3,
+	sawtooth = 4
+};
+
+//An array for the server to generate, from 1
+//to 100,000,000 elements. The same seed always
+//gives the same array.
+struct array_spec {
+	int size;
+	distribution dist;
+	int seed;
+
+	array_spec(int size, distribution dist = distribution::uniform, int seed = 0) :
+		size(size), dist(dist), seed(seed)
+	{}
+};
+
+class visualaux;
+
 class visualarr {
+	friend class visualaux;
+
 private:
 	bool connected = false;
 	std::vector<int> arr;
 	int clientSocket;
 	int time_delay_ms = 0;
 	int time_delay_point_ms = 0;
+	int protocol_version = 1;
+	std::vector<int> frame;
+	std::size_t batch_count_pos = 0;
+	int batch_count = 0;
+	long credits = 0;
+	bool reads_tracked = true;
+	int selected = 0;
+	unsigned int used_ids = 1; //bit 0 is the main array
 
 	bool send_num(int num);
+	bool send_all(const void* data, std::size_t len);
 	int recv_num();
+	void recv_all(void* data, std::size_t len);
+	void recv_array();
+	bool open_connection(std::string ip, int port);
+	void queue_command(const int* nums, std::size_t count);
+	void queue_command(std::initializer_list<int> nums);
+	void queue_set(int index, int val);
+	void close_batch();
+	void take_credit();
+	bool reporting_reads();
+	void queue_read(int index);
+	void select_array(int id);
+	void wait_for_credit();
+	void check_range(int start, int len);
+	void pause_after_write();
+	void flush();
 
 public:
 	visualarr(std::vector<int> arr={}, std::string ip = "127.0.0.1", int port = 25671);
 
-	visualarr(std::string ip, int port = 25671) : visualarr({}, ip, port) {}
+	visualarr(std::string ip, int port = 25671) : visualarr(std::vector<int>(), ip, port) {}
+
+	visualarr(array_spec spec, std::string ip = "127.0.0.1", int port = 25671);
 
 	visualarr(const visualarr& other) = delete;
 
@@ -75,5 +140,48 @@ public:
 	void point(int);
 	void clearMark();
 
+	//These change many values with a single command,
+	//falling back to one set per value on servers that
+	//don't know them. copy_range works like memmove.
+	void swap(int i, int j);
+	void copy_range(int src, int dst, int len);
+	void fill_range(int start, int len, int val);
+	void set_range(int start, const std::vector<int>& vals);
+
+	//Reading through operator[] tells the server, so it
+	//can count reads and show where they happen. compare
+	//does the same for a pair, returning a negative number,
+	//zero or a positive one like strcmp. Turning tracking
+	//off, or an older server, makes reads purely local.
+	int compare(int i, int j);
+	void track_reads(bool tracked);
+
 	~visualarr();
 };
+
+//An auxiliary array, such as a merge buffer, that the
+//server shows in a lane below the main array for as
+//long as it exists, along with the memory it takes.
+//Use it like the main array; writing to it costs the
+//same. Servers older than protocol 6 don't show it,
+//and then it is only kept locally.
+class visualaux {
+private:
+	visualarr& owner;
+	int id = 0;
+	std::vector<int> arr;
+
+	bool shown();
+
+public:
+	visualaux(visualarr& owner, std::string name, int size);
+
+	visualaux(const visualaux& other) = delete;
+
+	std::size_t size();
+
+	updateable_int operator[](int i);
+	const std::vector<int>& values();
+
+	~visualaux();
+};